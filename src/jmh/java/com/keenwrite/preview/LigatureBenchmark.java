@@ -0,0 +1,48 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.keenwrite.processors.text.TextReplacementFactory.replace;
+
+/**
+ * Compares substituting ligatures using the general-purpose text replacers
+ * against {@link LigatureSubstituter}, for text nodes typical of prose.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class LigatureBenchmark {
+  private static final Map<String, String> LIGATURES = new LinkedHashMap<>();
+
+  static {
+    LIGATURES.put( "ffi", "\uFB03" );
+    LIGATURES.put( "ffl", "\uFB04" );
+    LIGATURES.put( "ff", "\uFB00" );
+    LIGATURES.put( "fi", "\uFB01" );
+    LIGATURES.put( "fl", "\uFB02" );
+  }
+
+  @Param( {
+    "The quick brown dog jumps over the lazy dog.",
+    "The ruffian's official flag fluttered off the cliff.",
+  } )
+  private String mText;
+
+  @Benchmark
+  public String replacer() {
+    return replace( mText, LIGATURES );
+  }
+
+  @Benchmark
+  public String substituter() {
+    return LigatureSubstituter.substitute( mText );
+  }
+}
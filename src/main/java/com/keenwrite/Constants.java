@@ -127,6 +127,14 @@ public final class Constants {
    */
   public static final Path DEFAULT_DIRECTORY = USER_DIRECTORY.toPath();
 
+  /**
+   * Directory for data that the application can recreate, such as the
+   * results of evaluating R statements.
+   */
+  public static final Path CACHE_DIRECTORY = Path.of(
+    getProperty( "user.home" ), format( ".%s", APP_TITLE_LOWERCASE ), "cache"
+  );
+
   /**
    * Default character set to use when reading/writing files.
    */
@@ -211,7 +219,8 @@ public final class Constants {
   public static final File THEME_CUSTOM_DEFAULT = null;
 
   /**
-   * Default identifier to use for synchronized scrolling.
+   * Prefix for identifiers that associate preview elements with offsets into
+   * the source document, used for synchronized scrolling.
    */
   public static final String CARET_ID = "caret";
 
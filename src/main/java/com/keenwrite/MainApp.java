@@ -2,6 +2,7 @@
 package com.keenwrite;
 
 import com.keenwrite.preferences.Workspace;
+import com.keenwrite.processors.text.TextReplacementFactory;
 import javafx.application.Application;
 import javafx.event.Event;
 import javafx.event.EventType;
@@ -60,6 +61,7 @@ public final class MainApp extends Application {
     mWorkspace = new Workspace();
 
     initFonts();
+    initReplacers();
     initState( stage );
     initStage( stage );
     initIcons( stage );
@@ -68,6 +70,18 @@ public final class MainApp extends Application {
     stage.show();
   }
 
+  /**
+   * Measures the text replacement algorithms while the user interface loads,
+   * so that definitions are substituted using the fastest algorithm.
+   */
+  private void initReplacers() {
+    final var thread =
+      new Thread( TextReplacementFactory::calibrate, "replacer-calibration" );
+    thread.setDaemon( true );
+    thread.setPriority( Thread.MIN_PRIORITY );
+    thread.start();
+  }
+
   private void initState( final Stage stage ) {
     final var enable = createBoundsEnabledSupplier( stage );
 
@@ -5,13 +5,19 @@ import com.keenwrite.editors.TextDefinition;
 import com.keenwrite.editors.TextEditor;
 import com.keenwrite.editors.TextResource;
 import com.keenwrite.editors.definition.DefinitionEditor;
+import com.keenwrite.editors.definition.DefinitionInterpolator;
+import com.keenwrite.editors.definition.Definitions;
+import com.keenwrite.editors.definition.RootTreeItem;
+import com.keenwrite.editors.definition.TreeItemMapper;
 import com.keenwrite.editors.definition.TreeTransformer;
 import com.keenwrite.editors.definition.yaml.YamlTreeTransformer;
 import com.keenwrite.editors.markdown.MarkdownEditor;
 import com.keenwrite.events.CaretNavigationEvent;
 import com.keenwrite.events.FileOpenEvent;
+import com.keenwrite.events.RResultEvent;
 import com.keenwrite.events.TextDefinitionFocusEvent;
 import com.keenwrite.events.TextEditorFocusEvent;
+import com.keenwrite.io.AutosaveService;
 import com.keenwrite.io.MediaType;
 import com.keenwrite.preferences.Key;
 import com.keenwrite.preferences.Workspace;
@@ -20,7 +26,8 @@ import com.keenwrite.preview.HtmlPreview;
 import com.keenwrite.processors.Processor;
 import com.keenwrite.processors.ProcessorContext;
 import com.keenwrite.processors.ProcessorFactory;
-import com.keenwrite.processors.markdown.extensions.CaretExtension;
+import com.keenwrite.processors.RenderScheduler;
+import com.keenwrite.processors.r.InlineRProcessor;
 import com.keenwrite.service.events.Notifier;
 import com.keenwrite.sigils.RSigilOperator;
 import com.keenwrite.sigils.SigilOperator;
@@ -43,6 +50,7 @@ import javafx.scene.control.SplitPane;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
 import javafx.scene.control.Tooltip;
+import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeItem.TreeModificationEvent;
 import javafx.scene.input.KeyEvent;
 import javafx.stage.Stage;
@@ -71,10 +79,10 @@ import static javafx.application.Platform.runLater;
 import static javafx.scene.control.ButtonType.NO;
 import static javafx.scene.control.ButtonType.YES;
 import static javafx.scene.control.TabPane.TabClosingPolicy.ALL_TABS;
+import static javafx.scene.control.TreeItem.valueChangedEvent;
 import static javafx.scene.input.KeyCode.SPACE;
 import static javafx.scene.input.KeyCombination.CONTROL_DOWN;
 import static javafx.util.Duration.millis;
-import static javax.swing.SwingUtilities.invokeLater;
 import static org.fxmisc.wellbehaved.event.EventPattern.keyPressed;
 
 /**
@@ -99,6 +107,18 @@ public final class MainPane extends SplitPane {
   private final Map<TextResource, Processor<String>> mProcessors =
     new HashMap<>();
 
+  /**
+   * Coalesces requests to process documents so that stale renders are
+   * dropped instead of queued. Renders run on a background thread.
+   */
+  private final RenderScheduler mRenderScheduler = new RenderScheduler();
+
+  /**
+   * Saves definition files in the background after edits settle.
+   */
+  private final AutosaveService mAutosave =
+    new AutosaveService( Platform::runLater );
+
   private final Workspace mWorkspace;
 
   /**
@@ -107,10 +127,15 @@ public final class MainPane extends SplitPane {
   private final Map<MediaType, TabPane> mTabPanes = new HashMap<>();
 
   /**
-   * Stores definition names and values.
+   * Resolves definition values, retaining them so that changing a single
+   * definition re-resolves only that definition and its dependents.
    */
-  private final Map<String, String> mResolvedMap =
-    new HashMap<>( MAP_SIZE_DEFAULT );
+  private DefinitionInterpolator mInterpolator;
+
+  /**
+   * Stores the most recently resolved definition names and values.
+   */
+  private volatile Definitions mDefinitions = Definitions.EMPTY;
 
   /**
    * Renders the actively selected plain text editor tab.
@@ -152,9 +177,12 @@ public final class MainPane extends SplitPane {
     event -> {
       final var editor = mActiveDefinitionEditor.get();
 
-      resolve( editor );
+      if( !resolve( event ) ) {
+        resolve( editor );
+      }
+
       process( getActiveTextEditor() );
-      save( editor );
+      autosave( editor );
     };
 
   private final DocumentStatistics mStatistics;
@@ -236,6 +264,23 @@ public final class MainPane extends SplitPane {
     runLater( () -> open( eventFile ) );
   }
 
+  /**
+   * Renders the active document again once its R statements have been
+   * evaluated, which replaces the placeholders shown in the preview.
+   *
+   * @param event The event to process, identifies the document.
+   */
+  @Subscribe
+  public void handle( final RResultEvent event ) {
+    runLater( () -> {
+      final var editor = getActiveTextEditor();
+
+      if( editor != null && editor.getPath().equals( event.getPath() ) ) {
+        process( editor );
+      }
+    } );
+  }
+
   @Subscribe
   public void handle( final CaretNavigationEvent event ) {
     runLater( () -> {
@@ -357,6 +402,22 @@ public final class MainPane extends SplitPane {
     save();
   }
 
+  /**
+   * Marks the given definitions as needing to be saved. Once editing pauses,
+   * a single snapshot is taken and saved in the background, so that neither
+   * copying nor serializing large definition files can stall editing.
+   *
+   * @param editor The definitions to save.
+   */
+  private void autosave( final TextDefinition editor ) {
+    mAutosave.submit(
+      editor.getPath(),
+      editor::snapshot,
+      editor.getEncoding(),
+      () -> runLater( editor::clearModifiedProperty )
+    );
+  }
+
   /**
    * Saves the given {@link TextResource} to a file. This is typically used
    * to save either an instance of {@link TextEditor} or {@link TextDefinition}.
@@ -382,6 +443,12 @@ public final class MainPane extends SplitPane {
    * and the user requested no closing.
    */
   public boolean closeAll() {
+    // Definitions that have yet to be auto-saved must be written before exit.
+    mAutosave.flush();
+
+    // Results written in the background would be lost by exiting.
+    InlineRProcessor.flush();
+
     var closable = true;
 
     for( final var entry : mTabPanes.entrySet() ) {
@@ -560,7 +627,7 @@ public final class MainPane extends SplitPane {
   /**
    * Creates a new {@link DefinitionEditor} wrapped in a listener that
    * is used to detect when the active {@link DefinitionEditor} has changed.
-   * Upon changing, the {@link #mResolvedMap} is updated and the active
+   * Upon changing, the {@link #mDefinitions} are updated and the active
    * text editor is refreshed.
    *
    * @param editor Text editor to update with the revised resolved map.
@@ -592,9 +659,12 @@ public final class MainPane extends SplitPane {
 
     // This is called when either the tab is closed by the user clicking on
     // the tab's close icon or when closing (all) from the file menu.
-    tab.setOnClosed(
-      ( __ ) -> getRecentFiles().remove( file.getAbsolutePath() )
-    );
+    tab.setOnClosed( ( __ ) -> {
+      getRecentFiles().remove( file.getAbsolutePath() );
+
+      // Drop any render that is pending for the closed editor.
+      mRenderScheduler.remove( r );
+    } );
 
     tab.tabPaneProperty().addListener( ( cPane, oPane, nPane ) -> {
       if( nPane != null ) {
@@ -659,7 +729,7 @@ public final class MainPane extends SplitPane {
 
   /**
    * Uses the given {@link TextDefinition} instance to update the
-   * {@link #mResolvedMap}.
+   * {@link #mDefinitions}.
    *
    * @param editor A non-null, possibly empty definition editor.
    */
@@ -672,8 +742,46 @@ public final class MainPane extends SplitPane {
 
     editor.toMap().forEach( ( k, v ) -> map.put( operator.entoken( k ), v ) );
 
-    mResolvedMap.clear();
-    mResolvedMap.putAll( editor.interpolate( map, tokens ) );
+    mInterpolator = new DefinitionInterpolator(
+      tokens.getBegan(), tokens.getEnded() );
+    mDefinitions = mInterpolator.resolve( map );
+  }
+
+  /**
+   * Updates the {@link #mDefinitions} when the value of a single definition
+   * has changed, re-resolving only the definitions that depend on it. Any
+   * other modification to the definition hierarchy (e.g., renaming a key
+   * that has children, adding, or removing items) requires resolving all
+   * the definitions.
+   *
+   * @param event The modification made to the definition hierarchy.
+   * @return {@code true} if the definitions were updated, {@code false} if
+   * all the definitions must be resolved.
+   */
+  private boolean resolve( final TreeModificationEvent<Event> event ) {
+    final var interpolator = mInterpolator;
+    final TreeItem<?> item = event.getTreeItem();
+
+    if( interpolator == null || item == null || !item.isLeaf() ||
+      event.getEventType() != valueChangedEvent() ) {
+      return false;
+    }
+
+    final var parent = item.getParent();
+    final var tokens = createDefinitionTokens();
+
+    // The value of a key having multiple values is ambiguous.
+    if( parent == null || parent instanceof RootTreeItem ||
+      parent.getChildren().size() != 1 ||
+      !interpolator.isDelimitedBy( tokens.getBegan(), tokens.getEnded() ) ) {
+      return false;
+    }
+
+    final var operator = new YamlSigilOperator( tokens );
+    final var key = operator.entoken( new TreeItemMapper().toPath( parent ) );
+
+    mDefinitions = interpolator.update( key, (String) item.getValue() );
+    return true;
   }
 
   /**
@@ -684,14 +792,20 @@ public final class MainPane extends SplitPane {
    * @param editor Contains the source document to update in the preview pane.
    */
   private void process( final TextEditor editor ) {
-    // Ensure that these are run from within the Swing event dispatch thread
-    // so that the text editor thread is immediately freed for caret movement.
-    // This means that the preview will have a slight delay when catching up
-    // to the caret position.
-    invokeLater( () -> {
+    // The text must be read on the JavaFX thread, but the processing chain
+    // (parsing, substitution, R, TeX, and DOM conversion) runs on the render
+    // thread so that neither the text editor nor the preview pane is blocked.
+    // Only the finished document is handed to the Swing event dispatch thread
+    // and only the latest request per editor is rendered.
+    final var text = editor == null ? "" : editor.getText();
+    final var offset = editor == null
+      ? 0
+      : editor.getCaret().textOffsetProperty().getValue();
+
+    mRenderScheduler.submit( editor == null ? mPreview : editor, () -> {
       final var processor = mProcessors.getOrDefault( editor, IDENTITY );
-      processor.apply( editor == null ? "" : editor.getText() );
-      mPreview.scrollTo( CARET_ID );
+      processor.apply( text );
+      mPreview.scrollTo( offset );
     } );
   }
 
@@ -800,8 +914,7 @@ public final class MainPane extends SplitPane {
   private void initScrollEventListener( final Tab tab ) {
     final var editor = (TextEditor) tab.getContent();
     final var scrollPane = editor.getScrollPane();
-    final var scrollBar = mPreview.getVerticalScrollBar();
-    final var handler = new ScrollEventHandler( scrollPane, scrollBar );
+    final var handler = new ScrollEventHandler( scrollPane, mPreview );
     handler.enabledProperty().bind( tab.selectedProperty() );
   }
 
@@ -829,15 +942,14 @@ public final class MainPane extends SplitPane {
   /**
    * @param path  Used by {@link ProcessorFactory} to determine
    *              {@link Processor} type to create based on file type.
-   * @param caret Used by {@link CaretExtension} to add ID attribute into
-   *              preview document for scrollbar synchronization.
+   * @param caret Location of the caret in the document being processed.
    * @return A new {@link ProcessorContext} to use when creating an instance of
    * {@link Processor}.
    */
   private ProcessorContext createProcessorContext(
     final Path path, final Caret caret, final ExportFormat format ) {
     return new ProcessorContext(
-      mPreview, mResolvedMap, path, caret, format, mWorkspace
+      mPreview, () -> mDefinitions, path, caret, format, mWorkspace
     );
   }
 
@@ -850,9 +962,9 @@ public final class MainPane extends SplitPane {
 
   /**
    * Creates an instance of {@link MarkdownEditor} that listens for both
-   * caret change events and text change events. Text change events must
-   * take priority over caret change events because it's possible to change
-   * the text without moving the caret (e.g., delete selected text).
+   * caret change events and text change events. Text changes process the
+   * document; caret changes only scroll the preview to the element nearest
+   * the caret, as identified by the most recent render.
    *
    * @param file The file containing contents for the text editor.
    * @return A non-null text editor.
@@ -875,6 +987,12 @@ public final class MainPane extends SplitPane {
       }
     } );
 
+    caret.textOffsetProperty().addListener( ( c, o, n ) -> {
+      if( editor == getActiveTextEditor() ) {
+        mPreview.scrollTo( n );
+      }
+    } );
+
     editor.addEventListener(
       keyPressed( SPACE, CONTROL_DOWN ), this::autoinsert
     );
@@ -2,6 +2,7 @@
 package com.keenwrite;
 
 import com.keenwrite.events.ScrollLockEvent;
+import com.keenwrite.preview.HtmlPreview;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.event.Event;
@@ -36,6 +37,11 @@ import static javax.swing.SwingUtilities.invokeLater;
  * taking into account things like images, tables, and other potentially
  * long vertical presentation items.
  * </p>
+ * <p>
+ * The paragraph at the top of the editor is mapped to the corresponding
+ * block in the preview using the preview's index of laid out elements.
+ * Proportional scrolling is used only when the preview has no such index.
+ * </p>
  */
 public final class ScrollEventHandler implements EventHandler<Event> {
 
@@ -66,20 +72,20 @@ public final class ScrollEventHandler implements EventHandler<Event> {
   }
 
   private final VirtualizedScrollPane<StyleClassedTextArea> mEditorScrollPane;
-  private final JScrollBar mPreviewScrollBar;
+  private final HtmlPreview mPreview;
   private final BooleanProperty mEnabled = new SimpleBooleanProperty();
 
   private boolean mLocked;
 
   /**
    * @param editorScrollPane Scroll event source (human movement).
-   * @param previewScrollBar Scroll event destination (corresponding movement).
+   * @param preview          Scroll event destination (corresponding movement).
    */
   public ScrollEventHandler(
     final VirtualizedScrollPane<StyleClassedTextArea> editorScrollPane,
-    final JScrollBar previewScrollBar ) {
+    final HtmlPreview preview ) {
     mEditorScrollPane = editorScrollPane;
-    mPreviewScrollBar = previewScrollBar;
+    mPreview = preview;
 
     mEditorScrollPane.addEventFilter( ScrollEvent.ANY, new ScrollHandler() );
 
@@ -107,29 +113,40 @@ public final class ScrollEventHandler implements EventHandler<Event> {
   }
 
   /**
-   * Scrolls the preview scrollbar relative to the edit scrollbar. Algorithm
-   * is based on Karl Tauber's ratio calculation.
+   * Scrolls the preview so that the block corresponding to the topmost
+   * visible paragraph in the editor is at the top of the preview. When the
+   * preview cannot map the paragraph to a block, the preview scrollbar is
+   * scrolled relative to the edit scrollbar, based on Karl Tauber's ratio
+   * calculation.
    *
    * @param event Unused; either {@link MouseEvent} or {@link ScrollEvent}
    */
   @Override
   public void handle( final Event event ) {
+    if( !isEnabled() ) {
+      return;
+    }
+
+    // e is for editor pane; read on the JavaFX thread.
+    final var eScrollPane = getEditorScrollPane();
+    final var eOffset = getTopOffset( eScrollPane.getContent() );
+    final var eScrollY =
+      eScrollPane.estimatedScrollYProperty().getValue().intValue();
+    final var eHeight = (int)
+      (eScrollPane.totalHeightEstimateProperty().getValue().intValue()
+        - eScrollPane.getHeight());
+    final var eRatio = eHeight > 0
+      ? min( max( eScrollY / (float) eHeight, 0 ), 1 ) : 0;
+
     invokeLater( () -> {
       if( isEnabled() ) {
-        // e is for editor pane
-        final var eScrollPane = getEditorScrollPane();
-        final var eScrollY =
-          eScrollPane.estimatedScrollYProperty().getValue().intValue();
-        final var eHeight = (int)
-          (eScrollPane.totalHeightEstimateProperty().getValue().intValue()
-            - eScrollPane.getHeight());
-        final var eRatio = eHeight > 0
-          ? min( max( eScrollY / (float) eHeight, 0 ), 1 ) : 0;
-
         // p is for preview pane
         final var pScrollBar = getPreviewScrollBar();
         final var pHeight = pScrollBar.getMaximum() - pScrollBar.getHeight();
-        final var pScrollY = (int) (pHeight * eRatio);
+        final var pOffsetY = eOffset < 0 ? -1 : mPreview.getOffsetY( eOffset );
+        final var pScrollY = pOffsetY < 0
+          ? (int) (pHeight * eRatio)
+          : min( pOffsetY, pHeight );
 
         pScrollBar.setValue( pScrollY );
         pScrollBar.getParent().repaint();
@@ -137,6 +154,22 @@ public final class ScrollEventHandler implements EventHandler<Event> {
     } );
   }
 
+  /**
+   * Returns the offset into the document of the topmost visible paragraph.
+   *
+   * @param textArea The text area containing visible paragraphs.
+   * @return The offset of the first visible paragraph, or {@code -1} if no
+   * paragraphs are visible.
+   */
+  private int getTopOffset( final StyleClassedTextArea textArea ) {
+    if( textArea.getVisibleParagraphs().isEmpty() ) {
+      return -1;
+    }
+
+    final var paragraph = textArea.visibleParToAllParIndex( 0 );
+    return textArea.getAbsolutePosition( paragraph, 0 );
+  }
+
   @Subscribe
   public void handle( final ScrollLockEvent event ) {
     mLocked = event.isLocked();
@@ -193,6 +226,6 @@ public final class ScrollEventHandler implements EventHandler<Event> {
   }
 
   private JScrollBar getPreviewScrollBar() {
-    return mPreviewScrollBar;
+    return mPreview.getVerticalScrollBar();
   }
 }
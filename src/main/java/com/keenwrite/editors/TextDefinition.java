@@ -4,10 +4,10 @@ package com.keenwrite.editors;
 import com.keenwrite.editors.definition.DefinitionEditor;
 import com.keenwrite.editors.definition.DefinitionTreeItem;
 import com.keenwrite.editors.markdown.MarkdownEditor;
-import com.keenwrite.sigils.Tokens;
 import javafx.scene.control.TreeItem;
 
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * Differentiates an instance of {@link TextResource} from an instance of
@@ -22,14 +22,13 @@ public interface TextDefinition extends TextResource {
   Map<String, String> toMap();
 
   /**
-   * Performs string interpolation on the values in the given map. This will
-   * change any value in the map that contains a variable that matches
-   * the definition regex pattern against the given {@link Tokens}.
+   * Captures the definitions such that they can be converted to text on
+   * another thread (e.g., to save in the background). Call this on the
+   * JavaFX thread.
    *
-   * @param map Contains values that represent references to keys.
-   * @param tokens The beginning and ending tokens that delimit variables.
+   * @return Converts the captured definitions to text, from any thread.
    */
-  Map<String, String> interpolate( Map<String, String> map, Tokens tokens );
+  Supplier<String> snapshot();
 
   /**
    * Requests that the visual representation be expanded to the given
@@ -3,7 +3,6 @@ package com.keenwrite.editors.definition;
 
 import com.keenwrite.Constants;
 import com.keenwrite.editors.TextDefinition;
-import com.keenwrite.sigils.Tokens;
 import com.keenwrite.ui.tree.AltTreeView;
 import com.keenwrite.ui.tree.TreeItemConverter;
 import javafx.beans.property.BooleanProperty;
@@ -23,16 +22,15 @@ import javafx.scene.layout.HBox;
 import java.io.File;
 import java.nio.charset.Charset;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.function.Supplier;
 
 import static com.keenwrite.Constants.*;
 import static com.keenwrite.Messages.get;
+import static com.keenwrite.editors.definition.StoredTreeItem.isLoading;
+import static com.keenwrite.editors.definition.StoredTreeItem.isStored;
 import static com.keenwrite.events.StatusEvent.clue;
 import static com.keenwrite.events.TextDefinitionFocusEvent.fireTextDefinitionFocus;
 import static com.keenwrite.ui.fonts.IconFactory.createGraphic;
-import static java.lang.String.format;
-import static java.util.regex.Pattern.compile;
-import static java.util.regex.Pattern.quote;
 import static javafx.geometry.Pos.CENTER;
 import static javafx.geometry.Pos.TOP_CENTER;
 import static javafx.scene.control.SelectionMode.MULTIPLE;
@@ -47,8 +45,6 @@ import static javafx.scene.input.KeyEvent.KEY_PRESSED;
  */
 public final class DefinitionEditor extends BorderPane
   implements TextDefinition {
-  private static final int GROUP_DELIMITED = 1;
-
   /**
    * Contains the root that is added to the view.
    */
@@ -60,6 +56,11 @@ public final class DefinitionEditor extends BorderPane
   private final TreeView<String> mTreeView =
     new AltTreeView<>( mTreeRoot, new TreeItemConverter() );
 
+  /**
+   * Finds definitions by value, rebuilt after the definitions change.
+   */
+  private final DefinitionIndex mIndex = new DefinitionIndex( mTreeRoot );
+
   /**
    * Used to adapt the structured document into a {@link TreeView}.
    */
@@ -131,6 +132,7 @@ public final class DefinitionEditor extends BorderPane
     setTop( buttonBar );
     setCenter( mTreeView );
     setAlignment( buttonBar, TOP_CENTER );
+    addTreeChangeHandler( event -> mIndex.invalidate() );
     mEncoding = open( mFile );
 
     // After the file is opened, watch for changes, not before. Otherwise,
@@ -153,11 +155,26 @@ public final class DefinitionEditor extends BorderPane
 
   @Override
   public String getText() {
+    return toText( getTreeView().getRoot() );
+  }
+
+  @Override
+  public Supplier<String> snapshot() {
+    final var root = copy( getTreeView().getRoot() );
+    return () -> toText( root );
+  }
+
+  /**
+   * Converts the given hierarchy to text, provided it is well-formed.
+   *
+   * @param root The root of the hierarchy to convert.
+   * @return The hierarchy as text, or the empty string if not well-formed.
+   */
+  private String toText( final TreeItem<String> root ) {
     final var result = new StringBuilder( 32768 );
 
     try {
-      final var root = getTreeView().getRoot();
-      final var problem = isTreeWellFormed();
+      final var problem = isTreeWellFormed( root );
 
       problem.ifPresentOrElse(
         ( node ) -> clue( "yaml.error.tree.form", node ),
@@ -172,6 +189,29 @@ public final class DefinitionEditor extends BorderPane
     return result.toString();
   }
 
+  /**
+   * Copies the given hierarchy. The copy is detached from the view, so it
+   * can be read from any thread.
+   *
+   * @param item The hierarchy to copy.
+   * @return A new hierarchy having the same values.
+   */
+  private static TreeItem<String> copy( final TreeItem<String> item ) {
+    // Descendants that have yet to be presented are shared, not copied.
+    if( isStored( item ) ) {
+      return ((StoredTreeItem) item).copy();
+    }
+
+    final var copy = new TreeItem<>( item.getValue() );
+    final var children = copy.getChildren();
+
+    for( final var child : item.getChildren() ) {
+      children.add( copy( child ) );
+    }
+
+    return copy;
+  }
+
   @Override
   public File getFile() {
     return mFile;
@@ -220,49 +260,6 @@ public final class DefinitionEditor extends BorderPane
     return new TreeItemMapper().toMap( getTreeView().getRoot() );
   }
 
-  @Override
-  public Map<String, String> interpolate(
-    final Map<String, String> map, final Tokens tokens ) {
-
-    // Non-greedy match of key names delimited by definition tokens.
-    final var pattern = compile(
-      format( "(%s.*?%s)",
-              quote( tokens.getBegan() ),
-              quote( tokens.getEnded() )
-      )
-    );
-
-    map.replaceAll( ( k, v ) -> resolve( map, v, pattern ) );
-    return map;
-  }
-
-  /**
-   * Given a value with zero or more key references, this will resolve all
-   * the values, recursively. If a key cannot be de-referenced, the value will
-   * contain the key name.
-   *
-   * @param map     Map to search for keys when resolving key references.
-   * @param value   Value containing zero or more key references.
-   * @param pattern The regular expression pattern to match variable key names.
-   * @return The given value with all embedded key references interpolated.
-   */
-  private String resolve(
-    final Map<String, String> map, String value, final Pattern pattern ) {
-    final var matcher = pattern.matcher( value );
-
-    while( matcher.find() ) {
-      final var keyName = matcher.group( GROUP_DELIMITED );
-      final var mapValue = map.get( keyName );
-      final var keyValue = mapValue == null
-        ? keyName
-        : resolve( map, mapValue, pattern );
-
-      value = value.replace( keyName, keyValue );
-    }
-
-    return value;
-  }
-
 
   /**
    * Informs the caller of whenever any {@link TreeItem} in the {@link TreeView}
@@ -278,8 +275,16 @@ public final class DefinitionEditor extends BorderPane
   public void addTreeChangeHandler(
     final EventHandler<TreeItem.TreeModificationEvent<Event>> handler ) {
     final var root = getTreeView().getRoot();
+    // Presenting stored descendants does not change the definitions.
+    final EventHandler<TreeItem.TreeModificationEvent<Event>> edited =
+      event -> {
+        if( !isLoading( event.getTreeItem() ) ) {
+          handler.handle( event );
+        }
+      };
+
     root.addEventHandler( valueChangedEvent(), handler );
-    root.addEventHandler( childrenModificationEvent(), handler );
+    root.addEventHandler( childrenModificationEvent(), edited );
   }
 
   /**
@@ -296,8 +301,11 @@ public final class DefinitionEditor extends BorderPane
    * problematic child {@link TreeItem}.
    */
   public Optional<TreeItem<String>> isTreeWellFormed() {
-    final var root = getTreeView().getRoot();
+    return isTreeWellFormed( getTreeView().getRoot() );
+  }
 
+  private Optional<TreeItem<String>> isTreeWellFormed(
+    final TreeItem<String> root ) {
     for( final var child : root.getChildren() ) {
       final var problemChild = isWellFormed( child );
 
@@ -318,6 +326,11 @@ public final class DefinitionEditor extends BorderPane
    * problematic {@link TreeItem}.
    */
   private TreeItem<String> isWellFormed( final TreeItem<String> item ) {
+    // Avoid presenting stored descendants unless they have a problem to show.
+    if( isStored( item ) && ((StoredTreeItem) item).isWellFormed() ) {
+      return null;
+    }
+
     int childLeafs = 0;
     int childBranches = 0;
 
@@ -342,23 +355,23 @@ public final class DefinitionEditor extends BorderPane
 
   @Override
   public DefinitionTreeItem<String> findLeafExact( final String text ) {
-    return getTreeRoot().findLeafExact( text );
+    return mIndex.findExact( text );
   }
 
   @Override
   public DefinitionTreeItem<String> findLeafContains( final String text ) {
-    return getTreeRoot().findLeafContains( text );
+    return mIndex.findContains( text );
   }
 
   @Override
   public DefinitionTreeItem<String> findLeafContainsNoCase(
     final String text ) {
-    return getTreeRoot().findLeafContainsNoCase( text );
+    return mIndex.findContainsNoCase( text );
   }
 
   @Override
   public DefinitionTreeItem<String> findLeafStartsWith( final String text ) {
-    return getTreeRoot().findLeafStartsWith( text );
+    return mIndex.findStartsWith( text );
   }
 
   public void select( final TreeItem<String> item ) {
@@ -382,7 +395,11 @@ public final class DefinitionEditor extends BorderPane
   private <T> void collapse( final ObservableList<TreeItem<T>> nodes ) {
     for( final var node : nodes ) {
       node.setExpanded( false );
-      collapse( node.getChildren() );
+
+      // Descendants that have yet to be presented are already collapsed.
+      if( !isStored( node ) ) {
+        collapse( node.getChildren() );
+      }
     }
   }
 
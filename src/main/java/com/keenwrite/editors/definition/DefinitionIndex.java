@@ -0,0 +1,403 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.editors.definition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static com.keenwrite.editors.definition.StoredTreeItem.isStored;
+import static java.lang.Character.toLowerCase;
+import static java.text.Normalizer.Form.NFD;
+import static java.text.Normalizer.normalize;
+
+/**
+ * Responsible for finding definition leaves by value without traversing the
+ * definition hierarchy. Searching the hierarchy normalizes every leaf value
+ * for every search, which is slow for large definition files; this index
+ * normalizes each value once, then answers searches using:
+ * <ul>
+ *   <li>a hash table for exact matches;</li>
+ *   <li>values without diacritics, sorted, for matching beginnings; and</li>
+ *   <li>an index of three-character sequences (trigrams) of lowercase values
+ *   without diacritics, for matching containment.</li>
+ * </ul>
+ * <p>
+ * When several leaves match, the leaf returned is the same leaf that a
+ * depth-first search of the hierarchy (see
+ * {@link DefinitionTreeItem#findLeaf}) would have found. The index is
+ * rebuilt upon the first search after the hierarchy changes; values that
+ * did not change are not normalized again. Leaves of a {@link StoredTreeItem}
+ * that have yet to be presented are indexed from the store, and presented
+ * only when found.
+ * </p>
+ */
+final class DefinitionIndex {
+  private static final int GRAM = 3;
+  private static final int[] NO_POSTINGS = new int[ 0 ];
+  private static final int NO_NODE = -1;
+
+  /**
+   * Leaf ordinals, in ascending order, for a single trigram.
+   */
+  private static final class Postings {
+    private int[] mOrdinals = new int[ 4 ];
+    private int mSize;
+
+    private void add( final int ordinal ) {
+      if( mSize == mOrdinals.length ) {
+        mOrdinals = Arrays.copyOf( mOrdinals, mSize * 2 );
+      }
+
+      mOrdinals[ mSize++ ] = ordinal;
+    }
+
+    private int[] toArray() {
+      return Arrays.copyOf( mOrdinals, mSize );
+    }
+  }
+
+  private final DefinitionTreeItem<String> mRoot;
+
+  /**
+   * Leaves in search order, and their values parallel to the leaves. A leaf
+   * that has yet to be presented is recorded as the stored ancestor that
+   * would present it, along with the leaf's node number in the store.
+   */
+  private List<DefinitionTreeItem<String>> mLeaves;
+  private int[] mNodes;
+  private String[] mFolded;
+  private String[] mLowered;
+
+  /**
+   * Leaf values mapped to the first leaf having the value.
+   */
+  private Map<String, Integer> mExact;
+
+  /**
+   * Leaves ordered by value without diacritics, for matching beginnings.
+   */
+  private int[] mSorted;
+
+  /**
+   * Trigrams of lowercase values without diacritics mapped to the leaves
+   * that contain the trigram, in search order.
+   */
+  private Map<Long, int[]> mGrams;
+
+  /**
+   * Values mapped to their form without diacritics, retained between
+   * rebuilds.
+   */
+  private Map<String, String> mFoldings = new HashMap<>();
+
+  private boolean mDirty = true;
+
+  /**
+   * Creates an index of the leaves beneath the given root.
+   *
+   * @param root The root of the definition hierarchy.
+   */
+  DefinitionIndex( final DefinitionTreeItem<String> root ) {
+    assert root != null;
+    mRoot = root;
+  }
+
+  /**
+   * Notifies the index that the definition hierarchy has changed, so that
+   * the index is rebuilt before the next search.
+   */
+  void invalidate() {
+    mDirty = true;
+  }
+
+  /**
+   * Finds the first leaf whose value equals the given text.
+   *
+   * @param text The text to match, case-sensitively.
+   * @return The matching leaf, or {@code null} if none match.
+   */
+  DefinitionTreeItem<String> findExact( final String text ) {
+    if( text.isBlank() ) {
+      return null;
+    }
+
+    final var ordinal = index().mExact.get( text );
+    return ordinal == null ? null : leaf( ordinal );
+  }
+
+  /**
+   * Finds the first leaf whose value, without diacritics, starts with the
+   * given text.
+   *
+   * @param text The text to match, case-sensitively.
+   * @return The matching leaf, or {@code null} if none match.
+   */
+  DefinitionTreeItem<String> findStartsWith( final String text ) {
+    if( text.isBlank() ) {
+      return null;
+    }
+
+    final var sorted = index().mSorted;
+    var lo = 0;
+    var hi = sorted.length;
+
+    while( lo < hi ) {
+      final var mid = (lo + hi) >>> 1;
+
+      if( mFolded[ sorted[ mid ] ].compareTo( text ) < 0 ) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+
+    // Values starting with the text are adjacent; find the first in order.
+    var first = Integer.MAX_VALUE;
+
+    while( lo < sorted.length && mFolded[ sorted[ lo ] ].startsWith( text ) ) {
+      first = Math.min( first, sorted[ lo++ ] );
+    }
+
+    return first == Integer.MAX_VALUE ? null : leaf( first );
+  }
+
+  /**
+   * Finds the first leaf whose value, without diacritics, contains the
+   * given text.
+   *
+   * @param text The text to match, case-sensitively.
+   * @return The matching leaf, or {@code null} if none match.
+   */
+  DefinitionTreeItem<String> findContains( final String text ) {
+    return find( text, false );
+  }
+
+  /**
+   * Finds the first leaf whose value, without diacritics, contains the
+   * given text, ignoring case.
+   *
+   * @param text The text to match, case-insensitively.
+   * @return The matching leaf, or {@code null} if none match.
+   */
+  DefinitionTreeItem<String> findContainsNoCase( final String text ) {
+    return find( text, true );
+  }
+
+  private DefinitionTreeItem<String> find(
+    final String text, final boolean ignoreCase ) {
+    if( text.isBlank() ) {
+      return null;
+    }
+
+    index();
+
+    final var needle = ignoreCase ? text.toLowerCase() : text;
+    final var values = ignoreCase ? mLowered : mFolded;
+
+    // A value containing the text contains every trigram of the text, so
+    // only the leaves listed under the text's rarest trigram need be checked.
+    if( needle.length() >= GRAM ) {
+      int[] candidates = null;
+
+      for( var i = 0; i + GRAM <= needle.length(); i++ ) {
+        final var postings =
+          mGrams.getOrDefault( gram( needle, i ), NO_POSTINGS );
+
+        if( candidates == null || postings.length < candidates.length ) {
+          candidates = postings;
+        }
+      }
+
+      for( final var ordinal : candidates ) {
+        if( values[ ordinal ].contains( needle ) ) {
+          return leaf( ordinal );
+        }
+      }
+
+      return null;
+    }
+
+    for( var ordinal = 0; ordinal < values.length; ordinal++ ) {
+      if( values[ ordinal ].contains( needle ) ) {
+        return leaf( ordinal );
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the leaf having the given ordinal, presenting it if need be.
+   */
+  private DefinitionTreeItem<String> leaf( final int ordinal ) {
+    final var node = mNodes[ ordinal ];
+
+    if( node != NO_NODE ) {
+      mLeaves.set(
+        ordinal, ((StoredTreeItem) mLeaves.get( ordinal )).find( node ) );
+      mNodes[ ordinal ] = NO_NODE;
+    }
+
+    return mLeaves.get( ordinal );
+  }
+
+  /**
+   * Rebuilds the index if the hierarchy has changed.
+   *
+   * @return {@code this}
+   */
+  private DefinitionIndex index() {
+    if( mDirty ) {
+      rebuild();
+      mDirty = false;
+    }
+
+    return this;
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private void rebuild() {
+    final var leaves = new ArrayList<DefinitionTreeItem<String>>();
+    final var nodes = new ArrayList<Integer>();
+    final var values = new ArrayList<String>();
+    final var stack = new Stack<DefinitionTreeItem<String>>();
+    final var stackNodes = new Stack<Integer>();
+
+    // Visit leaves in the same order as DefinitionTreeItem.findLeaf. Stored
+    // descendants are visited in the store, without presenting them; each
+    // such leaf is recorded as its presented ancestor and its node number.
+    stack.push( mRoot );
+    stackNodes.push( NO_NODE );
+
+    while( !stack.isEmpty() ) {
+      final var parent = stack.pop();
+      var node = stackNodes.pop();
+
+      if( node == NO_NODE && isStored( parent ) ) {
+        node = ((StoredTreeItem) parent).getNode();
+      }
+
+      if( node == NO_NODE ) {
+        for( final var child : parent.getChildren() ) {
+          final var item = (DefinitionTreeItem<String>) child;
+
+          if( item.isLeaf() ) {
+            leaves.add( item );
+            nodes.add( NO_NODE );
+            values.add( item.getValue() );
+          }
+          else {
+            stack.push( item );
+            stackNodes.push( NO_NODE );
+          }
+        }
+      }
+      else {
+        final var store = ((StoredTreeItem) parent).getStore();
+
+        for( var c = store.getFirstChild( node ); c >= 0;
+             c = store.getNextSibling( c ) ) {
+          if( store.isLeaf( c ) ) {
+            leaves.add( parent );
+            nodes.add( c );
+            values.add( store.getValue( c ) );
+          }
+          else {
+            stack.push( parent );
+            stackNodes.push( c );
+          }
+        }
+      }
+    }
+
+    final var count = leaves.size();
+    final var foldings = new HashMap<String, String>( count * 2 );
+    final var exact = new HashMap<String, Integer>( count * 2 );
+    final var postings = new HashMap<Long, Postings>();
+
+    mLeaves = leaves;
+    mNodes = nodes.stream().mapToInt( Integer::intValue ).toArray();
+    mFolded = new String[ count ];
+    mLowered = new String[ count ];
+
+    for( var ordinal = 0; ordinal < count; ordinal++ ) {
+      final var value = values.get( ordinal );
+      var folded = mFoldings.get( value );
+
+      if( folded == null ) {
+        folded = fold( value );
+      }
+
+      foldings.put( value, folded );
+      exact.putIfAbsent( value, ordinal );
+
+      mFolded[ ordinal ] = folded;
+      mLowered[ ordinal ] = folded.toLowerCase();
+
+      for( final var gram : grams( mFolded[ ordinal ], mLowered[ ordinal ] ) ) {
+        postings.computeIfAbsent( gram, k -> new Postings() ).add( ordinal );
+      }
+    }
+
+    final var grams = new HashMap<Long, int[]>( postings.size() * 2 );
+    postings.forEach( ( gram, list ) -> grams.put( gram, list.toArray() ) );
+
+    mFoldings = foldings;
+    mExact = exact;
+    mGrams = grams;
+    mSorted = sort( mFolded );
+  }
+
+  /**
+   * Returns leaf ordinals ordered by the given values.
+   */
+  private static int[] sort( final String[] values ) {
+    return IntStream
+      .range( 0, values.length )
+      .boxed()
+      .sorted( ( a, b ) -> values[ a ].compareTo( values[ b ] ) )
+      .mapToInt( Integer::intValue )
+      .toArray();
+  }
+
+  /**
+   * Returns the distinct trigrams of the given values. Both the original and
+   * the lowercase form of a value are indexed because lowercasing a string
+   * is not always the same as lowercasing each of its characters.
+   */
+  private static long[] grams( final String folded, final String lowered ) {
+    return LongStream
+      .concat( grams( folded ), grams( lowered ) )
+      .distinct()
+      .toArray();
+  }
+
+  private static LongStream grams( final String value ) {
+    return IntStream
+      .rangeClosed( 0, value.length() - GRAM )
+      .mapToLong( i -> gram( value, i ) );
+  }
+
+  /**
+   * Packs three characters, each made lowercase, into a single number.
+   */
+  private static long gram( final String s, final int i ) {
+    return ((long) toLowerCase( s.charAt( i ) ) << 32) |
+      ((long) toLowerCase( s.charAt( i + 1 ) ) << 16) |
+      toLowerCase( s.charAt( i + 2 ) );
+  }
+
+  /**
+   * Removes diacritic marks from the given value, in the same way as
+   * {@link DefinitionTreeItem}.
+   */
+  private static String fold( final String value ) {
+    return normalize( value, NFD ).replaceAll( "\\p{M}", "" );
+  }
+}
@@ -0,0 +1,409 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.editors.definition;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static com.keenwrite.events.StatusEvent.clue;
+
+/**
+ * Responsible for replacing references to definition keys within definition
+ * values with the values of those keys, recursively. For example, given
+ * {@code {{a}}} is {@code "Hello, {{b}}"} and {@code {{b}}} is
+ * {@code "World"}, then {@code {{a}}} resolves to {@code "Hello, World"}.
+ * <p>
+ * Every value is parsed once into literal text and references. Values are
+ * then resolved in dependency order (a depth-first topological sort), so
+ * that each value is built exactly once from the already resolved values of
+ * the keys it references. The cost is therefore linear in the size of the
+ * definitions and their resolved values.
+ * </p>
+ * <p>
+ * The parsed definitions and the keys that depend on each key are retained,
+ * so that changing a single definition re-resolves only that definition and
+ * those that refer to it, directly or indirectly. Each change publishes a new
+ * {@link Definitions} snapshot. Instances are not thread-safe, but the
+ * snapshots they publish are.
+ * </p>
+ * <p>
+ * References to unknown keys are left as is. References that form a cycle
+ * (e.g., a key that refers to itself) are reported and left unresolved.
+ * </p>
+ */
+public final class DefinitionInterpolator {
+  private static final String MSG_CYCLE =
+    "Main.status.error.messages.recursion";
+
+  private static final int UNVISITED = 0;
+  private static final int VISITING = 1;
+  private static final int RESOLVED = 2;
+
+  private static final int[] NO_OFFSETS = new int[ 0 ];
+  private static final String[] NO_NAMES = new String[ 0 ];
+  private static final Definition[] NO_REFERENCES = new Definition[ 0 ];
+
+  /**
+   * A definition value, parsed into alternating literal text and references
+   * to other definitions.
+   */
+  private static final class Definition {
+    private final String mKey;
+    private String mValue;
+
+    /**
+     * Start and end offsets into {@link #mValue} of each reference.
+     */
+    private int[] mBegan = NO_OFFSETS;
+    private int[] mEnded = NO_OFFSETS;
+
+    /**
+     * Referenced keys, parallel to the offsets.
+     */
+    private String[] mNames = NO_NAMES;
+
+    /**
+     * Referenced definitions, parallel to the offsets; {@code null} for
+     * references to unknown keys.
+     */
+    private Definition[] mReferences = NO_REFERENCES;
+
+    private String mResolved;
+    private int mState = UNVISITED;
+
+    private Definition( final String key ) {
+      mKey = key;
+    }
+  }
+
+  private final String mBegan;
+  private final String mEnded;
+
+  /**
+   * Parsed definitions, by key.
+   */
+  private final Map<String, Definition> mDefinitions = new HashMap<>();
+
+  /**
+   * Definitions that refer to a key, by key, including keys that are not
+   * (yet) defined.
+   */
+  private final Map<String, Set<Definition>> mDependents = new HashMap<>();
+
+  private Definitions mSnapshot = Definitions.EMPTY;
+
+  /**
+   * Creates an interpolator for references delimited by the given tokens.
+   *
+   * @param began The token that starts a reference (e.g., {@code {{}).
+   * @param ended The token that ends a reference (e.g., {@code }}}).
+   */
+  public DefinitionInterpolator( final String began, final String ended ) {
+    assert began != null && !began.isEmpty();
+    assert ended != null && !ended.isEmpty();
+
+    mBegan = began;
+    mEnded = ended;
+  }
+
+  /**
+   * Discards all previous definitions, then resolves the given definitions.
+   *
+   * @param map Definition keys, including delimiters, mapped to values that
+   *            may reference other keys.
+   * @return A snapshot of the resolved definitions.
+   */
+  public Definitions resolve( final Map<String, String> map ) {
+    mDefinitions.clear();
+    mDependents.clear();
+
+    for( final var entry : map.entrySet() ) {
+      final var definition = new Definition( entry.getKey() );
+
+      parse( definition, entry.getValue() );
+      mDefinitions.put( definition.mKey, definition );
+    }
+
+    for( final var definition : mDefinitions.values() ) {
+      link( definition );
+    }
+
+    final var resolved = new HashMap<String, String>( map.size() * 2 );
+
+    for( final var definition : mDefinitions.values() ) {
+      resolve( definition );
+      resolved.put( definition.mKey, definition.mResolved );
+    }
+
+    return mSnapshot = Definitions.of( resolved );
+  }
+
+  /**
+   * Changes, adds, or removes a single definition, then re-resolves that
+   * definition and every definition that depends upon it.
+   *
+   * @param key   The definition key, including delimiters.
+   * @param value The new value, which may reference other keys, or
+   *              {@code null} to remove the definition.
+   * @return A snapshot of the resolved definitions, reflecting the change.
+   */
+  public Definitions update( final String key, final String value ) {
+    var definition = mDefinitions.get( key );
+    final var added = definition == null;
+
+    if( added && value == null ) {
+      return mSnapshot;
+    }
+
+    if( added ) {
+      definition = new Definition( key );
+      mDefinitions.put( key, definition );
+    }
+    else {
+      unlink( definition );
+    }
+
+    if( value == null ) {
+      mDefinitions.remove( key );
+    }
+    else {
+      parse( definition, value );
+      link( definition );
+    }
+
+    final var dependents = mDependents.getOrDefault( key, Set.of() );
+
+    // References to the key now resolve to a different definition, if any.
+    if( added || value == null ) {
+      for( final var dependent : dependents ) {
+        link( dependent );
+      }
+    }
+
+    final var affected = new ArrayList<Definition>();
+
+    if( value == null ) {
+      affected.addAll( dependents );
+    }
+    else {
+      affected.add( definition );
+    }
+
+    for( final var stale : affected ) {
+      stale.mState = UNVISITED;
+    }
+
+    // Breadth-first search for indirect dependents; the list is the queue.
+    for( var i = 0; i < affected.size(); i++ ) {
+      final var name = affected.get( i ).mKey;
+
+      for( final var dependent : mDependents.getOrDefault( name, Set.of() ) ) {
+        if( dependent.mState == RESOLVED ) {
+          dependent.mState = UNVISITED;
+          affected.add( dependent );
+        }
+      }
+    }
+
+    final var changes = new HashMap<String, String>( affected.size() * 2 );
+
+    for( final var stale : affected ) {
+      resolve( stale );
+      changes.put( stale.mKey, stale.mResolved );
+    }
+
+    if( value == null ) {
+      changes.put( key, null );
+    }
+
+    return mSnapshot = mSnapshot.with( changes );
+  }
+
+  /**
+   * Returns the most recently published snapshot.
+   *
+   * @return The resolved definitions, never {@code null}.
+   */
+  public Definitions getDefinitions() {
+    return mSnapshot;
+  }
+
+  /**
+   * Answers whether this interpolator finds references delimited by the
+   * given tokens.
+   *
+   * @param began The token that starts a reference.
+   * @param ended The token that ends a reference.
+   * @return {@code true} if the tokens are those given at construction.
+   */
+  public boolean isDelimitedBy( final String began, final String ended ) {
+    return mBegan.equals( began ) && mEnded.equals( ended );
+  }
+
+  /**
+   * Associates each reference with the definition it refers to and records
+   * the definition as a dependent of the keys it refers to.
+   */
+  private void link( final Definition definition ) {
+    final var names = definition.mNames;
+
+    for( var i = 0; i < names.length; i++ ) {
+      definition.mReferences[ i ] = mDefinitions.get( names[ i ] );
+      mDependents
+        .computeIfAbsent( names[ i ], k -> new HashSet<>() )
+        .add( definition );
+    }
+  }
+
+  /**
+   * Removes the definition as a dependent of the keys it refers to.
+   */
+  private void unlink( final Definition definition ) {
+    for( final var name : definition.mNames ) {
+      final var dependents = mDependents.get( name );
+
+      if( dependents != null && dependents.remove( definition ) &&
+        dependents.isEmpty() ) {
+        mDependents.remove( name );
+      }
+    }
+  }
+
+  /**
+   * Resolves the given definition and all the definitions it depends upon,
+   * using an explicit stack so that deep chains cannot overflow the call
+   * stack. Each definition is resolved after its references, and only once.
+   */
+  private void resolve( final Definition root ) {
+    if( root.mState == RESOLVED ) {
+      return;
+    }
+
+    final var stack = new ArrayDeque<Definition>();
+    stack.push( root );
+
+    while( !stack.isEmpty() ) {
+      final var definition = stack.peek();
+
+      if( definition.mState == UNVISITED ) {
+        definition.mState = VISITING;
+
+        for( final var reference : definition.mReferences ) {
+          if( reference == null ) {
+            continue;
+          }
+
+          if( reference.mState == UNVISITED ) {
+            stack.push( reference );
+          }
+          else if( reference.mState == VISITING ) {
+            // Visiting definitions are the ancestors of this definition.
+            clue( MSG_CYCLE, definition.mKey );
+          }
+        }
+      }
+      else {
+        stack.pop();
+
+        if( definition.mState == VISITING ) {
+          definition.mResolved = substitute( definition );
+          definition.mState = RESOLVED;
+        }
+      }
+    }
+  }
+
+  /**
+   * Concatenates the literal text of a definition with the resolved values
+   * of its references. References that are unknown or unresolved (due to a
+   * cycle) are kept verbatim.
+   */
+  private static String substitute( final Definition definition ) {
+    final var references = definition.mReferences;
+
+    if( references.length == 0 ) {
+      return definition.mValue;
+    }
+
+    final var value = definition.mValue;
+    final var sb = new StringBuilder( value.length() * 2 );
+    var prev = 0;
+
+    for( var i = 0; i < references.length; i++ ) {
+      final var reference = references[ i ];
+
+      sb.append( value, prev, definition.mBegan[ i ] );
+
+      if( reference != null && reference.mState == RESOLVED ) {
+        sb.append( reference.mResolved );
+      }
+      else {
+        sb.append( value, definition.mBegan[ i ], definition.mEnded[ i ] );
+      }
+
+      prev = definition.mEnded[ i ];
+    }
+
+    return sb.append( value, prev, value.length() ).toString();
+  }
+
+  /**
+   * Finds the references within a value. A reference is the shortest text
+   * starting with the opening token and ending with the closing token that
+   * does not span lines.
+   */
+  private void parse( final Definition definition, final String value ) {
+    final var began = new ArrayList<Integer>();
+    final var ended = new ArrayList<Integer>();
+    final var bLength = mBegan.length();
+    final var eLength = mEnded.length();
+    var bIndex = value.indexOf( mBegan );
+
+    // The closing token and newline that follow the opening token are only
+    // searched for again once passed, so each is found in a single scan.
+    var eIndex = -1;
+    var newline = bIndex < 0 ? -1 : value.indexOf( '\n', bIndex );
+
+    while( bIndex >= 0 ) {
+      if( eIndex < bIndex + bLength ) {
+        eIndex = value.indexOf( mEnded, bIndex + bLength );
+
+        if( eIndex < 0 ) {
+          break;
+        }
+      }
+
+      if( newline >= 0 && newline < bIndex ) {
+        newline = value.indexOf( '\n', bIndex );
+      }
+
+      if( newline >= 0 && newline < eIndex ) {
+        bIndex = value.indexOf( mBegan, bIndex + 1 );
+      }
+      else {
+        began.add( bIndex );
+        ended.add( eIndex + eLength );
+        bIndex = value.indexOf( mBegan, eIndex + eLength );
+      }
+    }
+
+    final var count = began.size();
+    final var names = new String[ count ];
+
+    definition.mValue = value;
+    definition.mBegan = new int[ count ];
+    definition.mEnded = new int[ count ];
+
+    for( var i = 0; i < count; i++ ) {
+      definition.mBegan[ i ] = began.get( i );
+      definition.mEnded[ i ] = ended.get( i );
+      names[ i ] = value.substring( began.get( i ), ended.get( i ) );
+    }
+
+    definition.mNames = names;
+    definition.mReferences = new Definition[ count ];
+  }
+}
@@ -0,0 +1,267 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.editors.definition;
+
+import javafx.scene.control.TreeItem;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores a definition hierarchy in arrays, rather than as {@link TreeItem}
+ * instances, which keeps large definition files light on memory. Nodes are
+ * numbered in document order, starting with the root at zero, such that the
+ * descendants of a node immediately follow it.
+ * <p>
+ * Instances are immutable, so may be read from any thread. Use
+ * {@link StoredTreeItem} to present a store in the user interface: it
+ * creates {@link TreeItem}s for a node's children only when they are needed.
+ * </p>
+ */
+public final class DefinitionStore {
+  private static final int NONE = -1;
+
+  /**
+   * Node names (keys) or values, by node number.
+   */
+  private final String[] mValues;
+
+  /**
+   * Number of nodes in the subtree rooted at each node, including the node.
+   */
+  private final int[] mSizes;
+
+  /**
+   * Node number of the next sibling of each node, or {@link #NONE}.
+   */
+  private final int[] mNext;
+
+  private DefinitionStore(
+    final String[] values, final int[] sizes, final int[] next ) {
+    mValues = values;
+    mSizes = sizes;
+    mNext = next;
+  }
+
+  /**
+   * Builds a {@link DefinitionStore} from a depth-first traversal of a
+   * hierarchy, such as the events produced by a streaming document parser.
+   */
+  public static final class Builder {
+    private String[] mValues = new String[ 1024 ];
+    private int[] mSizes = new int[ 1024 ];
+    private int[] mNext = new int[ 1024 ];
+    private int mCount;
+
+    /**
+     * Nodes that have been opened but not yet closed, and the last child
+     * added to each of those nodes.
+     */
+    private int[] mOpen = new int[ 16 ];
+    private int[] mLast = new int[ 16 ];
+    private int mDepth;
+
+    /**
+     * Shares key names that appear many times in a document.
+     */
+    private final Map<String, String> mNames = new HashMap<>();
+
+    /**
+     * Creates a builder having an open root node with the given value.
+     *
+     * @param root The root node's value, which is not part of the document.
+     */
+    public Builder( final String root ) {
+      open( root );
+    }
+
+    /**
+     * Adds a node as the last child of the most recently opened node, then
+     * opens the new node so that it receives subsequent children.
+     *
+     * @param name The new node's value, usually a key.
+     */
+    public void open( final String name ) {
+      final var node = add( mNames.computeIfAbsent( name, k -> k ) );
+
+      if( mDepth == mOpen.length ) {
+        mOpen = Arrays.copyOf( mOpen, mDepth * 2 );
+        mLast = Arrays.copyOf( mLast, mDepth * 2 );
+      }
+
+      mOpen[ mDepth ] = node;
+      mLast[ mDepth++ ] = NONE;
+    }
+
+    /**
+     * Closes the most recently opened node.
+     */
+    public void close() {
+      assert mDepth > 1;
+
+      final var node = mOpen[ --mDepth ];
+      mSizes[ node ] = mCount - node;
+    }
+
+    /**
+     * Adds a node without children to the most recently opened node.
+     *
+     * @param value The new node's value.
+     */
+    public void leaf( final String value ) {
+      mSizes[ add( value ) ] = 1;
+    }
+
+    /**
+     * Closes all open nodes and returns the hierarchy.
+     *
+     * @return The immutable hierarchy that was built.
+     */
+    public DefinitionStore build() {
+      while( mDepth > 0 ) {
+        final var node = mOpen[ --mDepth ];
+        mSizes[ node ] = mCount - node;
+      }
+
+      return new DefinitionStore(
+        Arrays.copyOf( mValues, mCount ),
+        Arrays.copyOf( mSizes, mCount ),
+        Arrays.copyOf( mNext, mCount )
+      );
+    }
+
+    private int add( final String value ) {
+      if( mCount == mValues.length ) {
+        mValues = Arrays.copyOf( mValues, mCount * 2 );
+        mSizes = Arrays.copyOf( mSizes, mCount * 2 );
+        mNext = Arrays.copyOf( mNext, mCount * 2 );
+      }
+
+      final var node = mCount++;
+      mValues[ node ] = value;
+      mNext[ node ] = NONE;
+
+      if( mDepth > 0 ) {
+        final var last = mLast[ mDepth - 1 ];
+
+        if( last != NONE ) {
+          mNext[ last ] = node;
+        }
+
+        mLast[ mDepth - 1 ] = node;
+      }
+
+      return node;
+    }
+  }
+
+  /**
+   * Returns the number of the root node.
+   *
+   * @return The root node, which contains the document's top-level nodes.
+   */
+  public int getRoot() {
+    return 0;
+  }
+
+  /**
+   * Returns the value (key name or definition value) of the given node.
+   *
+   * @param node The node number.
+   * @return The node's value.
+   */
+  public String getValue( final int node ) {
+    return mValues[ node ];
+  }
+
+  /**
+   * Answers whether the given node has no children.
+   *
+   * @param node The node number.
+   * @return {@code true} when the node has no children.
+   */
+  public boolean isLeaf( final int node ) {
+    return mSizes[ node ] == 1;
+  }
+
+  /**
+   * Returns the first child of the given node.
+   *
+   * @param node The node number.
+   * @return The first child's node number, or a negative number if the node
+   * has no children.
+   */
+  public int getFirstChild( final int node ) {
+    return isLeaf( node ) ? NONE : node + 1;
+  }
+
+  /**
+   * Returns the sibling that follows the given node.
+   *
+   * @param node The node number.
+   * @return The next sibling's node number, or a negative number if the node
+   * is its parent's last child.
+   */
+  public int getNextSibling( final int node ) {
+    return mNext[ node ];
+  }
+
+  /**
+   * Answers whether the second node is the first node or one of its
+   * descendants.
+   *
+   * @param node       The node that may be an ancestor.
+   * @param descendant The node that may be a descendant.
+   * @return {@code true} when the first node contains the second.
+   */
+  public boolean contains( final int node, final int descendant ) {
+    return node <= descendant && descendant < node + mSizes[ node ];
+  }
+
+  /**
+   * Answers whether the subtree rooted at the given node is well-formed,
+   * in the same way as the definition editor: every branch must have either
+   * only branches or a single leaf.
+   *
+   * @param node The subtree's root node number.
+   * @return {@code true} when the subtree is well-formed.
+   */
+  boolean isWellFormed( final int node ) {
+    var leaves = 0;
+    var branches = 0;
+
+    for( var c = getFirstChild( node ); c >= 0; c = getNextSibling( c ) ) {
+      if( isLeaf( c ) ) {
+        leaves++;
+      }
+      else if( isWellFormed( c ) ) {
+        branches++;
+      }
+      else {
+        return false;
+      }
+    }
+
+    return (branches > 0 && leaves == 0) || (branches == 0 && leaves <= 1);
+  }
+
+  /**
+   * Adds the definitions beneath the given node to a flat map, as
+   * {@link TreeItemMapper} does for {@link TreeItem}s.
+   *
+   * @param node The node whose descendants are added.
+   * @param path The key path of the given node.
+   * @param map  The map to receive keys and values.
+   */
+  void toMap(
+    final int node, final String path, final Map<String, String> map ) {
+    for( var c = getFirstChild( node ); c >= 0; c = getNextSibling( c ) ) {
+      if( isLeaf( c ) ) {
+        map.put( path, getValue( c ) );
+      }
+      else {
+        toMap( c, path + TreeItemMapper.SEPARATOR + getValue( c ), map );
+      }
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.editors.definition;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * An immutable snapshot of resolved definitions, identified by a version
+ * number that increases with every snapshot. Snapshots may be shared freely
+ * between threads; changing a definition publishes a new snapshot rather
+ * than modifying an existing one.
+ * <p>
+ * A snapshot derived from another shares the other's entries and records
+ * only the entries that changed, so publishing a change costs time
+ * proportional to the size of the change, not the number of definitions.
+ * Once the changes grow large relative to the shared entries, they are
+ * merged into a new set of shared entries.
+ * </p>
+ * <p>
+ * Besides the version, each snapshot has a key version, which changes only
+ * when keys are added or removed. Caches of data derived solely from the
+ * keys (e.g., search tries) can thereby survive changes to values.
+ * </p>
+ */
+public final class Definitions extends AbstractMap<String, String> {
+  private static final AtomicLong VERSIONS = new AtomicLong();
+
+  /**
+   * Snapshot having no definitions.
+   */
+  public static final Definitions EMPTY = new Definitions( Map.of() );
+
+  /**
+   * Changes are merged into the shared entries when there are more of them
+   * than this, or more than a fraction of the shared entries.
+   */
+  private static final int CHANGES_MIN = 64;
+
+  private final long mVersion = VERSIONS.incrementAndGet();
+  private final long mKeysVersion;
+
+  /**
+   * Entries that may be shared with other snapshots, never modified.
+   */
+  private final Map<String, String> mShared;
+
+  /**
+   * Entries that differ from {@link #mShared}, never modified; a
+   * {@code null} value indicates a removed entry.
+   */
+  private final Map<String, String> mChanges;
+
+  /**
+   * All entries, merged on demand.
+   */
+  private volatile Map<String, String> mMerged;
+
+  private Definitions( final Map<String, String> entries ) {
+    this( unmodifiableMap( new HashMap<>( entries ) ), Map.of(), 0 );
+  }
+
+  /**
+   * @param keysVersion The key version of the snapshot having the same keys
+   *                    as this snapshot, or {@code 0} if the keys differ.
+   */
+  private Definitions(
+    final Map<String, String> shared,
+    final Map<String, String> changes,
+    final long keysVersion ) {
+    mKeysVersion = keysVersion == 0 ? mVersion : keysVersion;
+    mShared = shared;
+    mChanges = changes;
+    mMerged = changes.isEmpty() ? shared : null;
+  }
+
+  /**
+   * Creates a new snapshot of the given definitions.
+   *
+   * @param entries The resolved definitions, which are copied.
+   * @return An immutable snapshot having a new version number.
+   */
+  public static Definitions of( final Map<String, String> entries ) {
+    return new Definitions( entries );
+  }
+
+  /**
+   * Creates a new snapshot that has the given changes applied to this
+   * snapshot. This snapshot is unaffected.
+   *
+   * @param changes Keys mapped to their new values, or to {@code null} for
+   *                keys that are to be removed.
+   * @return An immutable snapshot having a new version number.
+   */
+  public Definitions with( final Map<String, String> changes ) {
+    final var merged = new HashMap<>( mChanges );
+    var keysVersion = mKeysVersion;
+
+    for( final var entry : changes.entrySet() ) {
+      final var key = entry.getKey();
+      final var value = entry.getValue();
+
+      // Adding or removing a key changes the keys.
+      if( (value == null) == containsKey( key ) ) {
+        keysVersion = 0;
+      }
+
+      merged.put( key, value );
+    }
+
+    if( merged.size() > Math.max( CHANGES_MIN, mShared.size() >> 4 ) ) {
+      return new Definitions( apply( mShared, merged ), Map.of(), keysVersion );
+    }
+
+    return new Definitions( mShared, merged, keysVersion );
+  }
+
+  /**
+   * Returns a number that identifies this snapshot. Later snapshots have
+   * greater version numbers, so caches may use the version to determine
+   * whether definitions have changed.
+   *
+   * @return The version number for this snapshot.
+   */
+  public long getVersion() {
+    return mVersion;
+  }
+
+  /**
+   * Returns a number that identifies the keys of this snapshot. Snapshots
+   * having the same key version have the same keys, though their values may
+   * differ.
+   *
+   * @return The version number for this snapshot's keys.
+   */
+  public long getKeysVersion() {
+    return mKeysVersion;
+  }
+
+  @Override
+  public String get( final Object key ) {
+    return mChanges.containsKey( key )
+      ? mChanges.get( key )
+      : mShared.get( key );
+  }
+
+  @Override
+  public boolean containsKey( final Object key ) {
+    return mChanges.containsKey( key )
+      ? mChanges.get( key ) != null
+      : mShared.containsKey( key );
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return mChanges.isEmpty() ? mShared.isEmpty() : super.isEmpty();
+  }
+
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    return merge().entrySet();
+  }
+
+  private Map<String, String> merge() {
+    var merged = mMerged;
+
+    if( merged == null ) {
+      mMerged = merged = apply( mShared, mChanges );
+    }
+
+    return merged;
+  }
+
+  private static Map<String, String> apply(
+    final Map<String, String> shared, final Map<String, String> changes ) {
+    final var entries = new HashMap<>( shared );
+
+    changes.forEach( ( k, v ) -> {
+      if( v == null ) {
+        entries.remove( k );
+      }
+      else {
+        entries.put( k, v );
+      }
+    } );
+
+    return unmodifiableMap( entries );
+  }
+}
@@ -0,0 +1,212 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.editors.definition;
+
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeView;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Presents a node from a {@link DefinitionStore} in a {@link TreeView}.
+ * The item's children are created from the store the first time they are
+ * requested, which typically happens when the user expands the item. Until
+ * then, the item's descendants exist only in the store, so opening a large
+ * definition file creates few {@link TreeItem}s.
+ * <p>
+ * Once created, the children are ordinary {@link TreeItem}s that may be
+ * edited; the store itself is never modified.
+ * </p>
+ */
+public final class StoredTreeItem extends DefinitionTreeItem<String> {
+  private final DefinitionStore mStore;
+  private final int mNode;
+
+  /**
+   * Set once the children have been created from the store.
+   */
+  private boolean mLoaded;
+
+  /**
+   * Set while the children are being created, to distinguish the resulting
+   * tree modification events from edits.
+   */
+  private boolean mLoading;
+
+  /**
+   * Creates an item for the given node, which has the node's value.
+   *
+   * @param store The hierarchy containing the node.
+   * @param node  The node number within the store.
+   */
+  public StoredTreeItem( final DefinitionStore store, final int node ) {
+    this( store, node, store.getValue( node ) );
+  }
+
+  private StoredTreeItem(
+    final DefinitionStore store, final int node, final String value ) {
+    super( value );
+    mStore = store;
+    mNode = node;
+  }
+
+  @Override
+  public ObservableList<TreeItem<String>> getChildren() {
+    final var children = super.getChildren();
+
+    if( !mLoaded ) {
+      mLoaded = true;
+      mLoading = true;
+
+      try {
+        final var items = new ArrayList<StoredTreeItem>();
+        final var store = mStore;
+
+        for( var c = store.getFirstChild( mNode ); c >= 0;
+             c = store.getNextSibling( c ) ) {
+          items.add( new StoredTreeItem( store, c ) );
+        }
+
+        children.setAll( items );
+      } finally {
+        mLoading = false;
+      }
+    }
+
+    return children;
+  }
+
+  @Override
+  public boolean isLeaf() {
+    return mLoaded ? super.isLeaf() : mStore.isLeaf( mNode );
+  }
+
+  /**
+   * Answers whether this item's children have yet to be created, in which
+   * case its descendants may be read from the store without creating
+   * {@link TreeItem}s.
+   *
+   * @return {@code true} when the descendants exist only in the store.
+   */
+  public boolean isStored() {
+    return !mLoaded;
+  }
+
+  /**
+   * Answers whether the given item's descendants exist only in a store.
+   *
+   * @param item The item to check.
+   * @return {@code true} when the item is a {@link StoredTreeItem} whose
+   * children have yet to be created.
+   */
+  public static boolean isStored( final TreeItem<?> item ) {
+    return item instanceof StoredTreeItem &&
+      ((StoredTreeItem) item).isStored();
+  }
+
+  /**
+   * Answers whether this item's children are being created from the store.
+   * Tree modification events raised in the meantime are not edits.
+   *
+   * @return {@code true} while the children are being created.
+   */
+  public boolean isLoading() {
+    return mLoading;
+  }
+
+  /**
+   * Answers whether the given item's children are being created from a
+   * store.
+   *
+   * @param item The item to check.
+   * @return {@code true} when the item is a {@link StoredTreeItem} whose
+   * children are being created.
+   */
+  public static boolean isLoading( final TreeItem<?> item ) {
+    return item instanceof StoredTreeItem &&
+      ((StoredTreeItem) item).isLoading();
+  }
+
+  /**
+   * Returns the hierarchy that contains this item's node.
+   *
+   * @return The store for this item.
+   */
+  public DefinitionStore getStore() {
+    return mStore;
+  }
+
+  /**
+   * Returns the node number that this item presents.
+   *
+   * @return The node number within the store.
+   */
+  public int getNode() {
+    return mNode;
+  }
+
+  /**
+   * Copies this item, which must be stored, without creating any items for
+   * its descendants. The copy has this item's current value.
+   *
+   * @return A detached item that shares this item's store.
+   */
+  StoredTreeItem copy() {
+    assert isStored();
+    return new StoredTreeItem( mStore, mNode, getValue() );
+  }
+
+  /**
+   * Creates the items leading to the given descendant, returning the
+   * descendant's item.
+   *
+   * @param node The node number of this item or one of its descendants.
+   * @return The item that presents the given node.
+   */
+  StoredTreeItem find( final int node ) {
+    var item = this;
+
+    while( item.mNode != node ) {
+      StoredTreeItem next = null;
+
+      for( final var child : item.getChildren() ) {
+        if( child instanceof StoredTreeItem ) {
+          final var stored = (StoredTreeItem) child;
+
+          if( mStore.contains( stored.mNode, node ) ) {
+            next = stored;
+            break;
+          }
+        }
+      }
+
+      if( next == null ) {
+        return null;
+      }
+
+      item = next;
+    }
+
+    return item;
+  }
+
+  /**
+   * Answers whether this item's stored descendants are well-formed.
+   *
+   * @return {@code true} when the descendants need no further checking.
+   */
+  boolean isWellFormed() {
+    return mStore.isWellFormed( mNode );
+  }
+
+  /**
+   * Adds this item's stored definitions to the given map.
+   *
+   * @param path The key path of this item.
+   * @param map  The map to receive keys and values.
+   */
+  void toMap( final String path, final Map<String, String> map ) {
+    mStore.toMap( mNode, path, map );
+  }
+}
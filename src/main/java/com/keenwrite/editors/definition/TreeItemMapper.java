@@ -12,6 +12,7 @@ import java.util.Map;
 import java.util.Stack;
 
 import static com.keenwrite.Constants.MAP_SIZE_DEFAULT;
+import static com.keenwrite.editors.definition.StoredTreeItem.isStored;
 
 /**
  * Given a {@link TreeItem}, this will generate a flat map with all the
@@ -66,7 +67,11 @@ public final class TreeItemMapper {
     @Override
     public TreeItem<String> next() {
       final TreeItem<String> next = mStack.pop();
-      next.getChildren().forEach( mStack::push );
+
+      // Stored descendants are read from the store, not presented.
+      if( !isStored( next ) ) {
+        next.getChildren().forEach( mStack::push );
+      }
 
       return next;
     }
@@ -87,6 +92,9 @@ public final class TreeItemMapper {
       if( item.isLeaf() ) {
         map.put( toPath( item.getParent() ), item.getValue() );
       }
+      else if( isStored( item ) ) {
+        ((StoredTreeItem) item).toMap( toPath( item ), map );
+      }
     } );
 
     return map;
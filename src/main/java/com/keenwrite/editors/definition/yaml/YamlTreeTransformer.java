@@ -1,20 +1,24 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.editors.definition.yaml;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
-import com.keenwrite.editors.definition.DefinitionTreeItem;
+import com.keenwrite.editors.definition.DefinitionStore;
+import com.keenwrite.editors.definition.StoredTreeItem;
 import com.keenwrite.editors.definition.TreeTransformer;
 import javafx.scene.control.TreeItem;
-import javafx.scene.control.TreeView;
 
-import java.util.Map.Entry;
+import java.io.IOException;
 
+import static com.fasterxml.jackson.core.JsonToken.FIELD_NAME;
+import static com.fasterxml.jackson.core.JsonToken.START_OBJECT;
 import static com.fasterxml.jackson.dataformat.yaml.YAMLGenerator.Feature.MINIMIZE_QUOTES;
 import static com.fasterxml.jackson.dataformat.yaml.YAMLGenerator.Feature.SPLIT_LINES;
+import static com.keenwrite.editors.definition.StoredTreeItem.isStored;
 import static com.keenwrite.events.StatusEvent.clue;
 
 /**
@@ -60,31 +64,80 @@ public final class YamlTreeTransformer implements TreeTransformer {
 
   /**
    * Converts a YAML document to a {@link TreeItem} based on the document
-   * keys.
+   * keys. The document is read as a stream of parser events into a
+   * {@link DefinitionStore}; {@link TreeItem}s are created from the store
+   * only as the user expands the hierarchy.
    *
    * @param document The YAML document to convert to a hierarchy of
    *                 {@link TreeItem} instances.
-   * @throws StackOverflowError If infinite recursion is encountered.
    */
   @Override
   public TreeItem<String> transform( final String document ) {
-    final var jsonNode = toJson( document );
-    final var rootItem = createTreeItem( "root" );
+    final var store = toStore( document );
+    return new StoredTreeItem( store, store.getRoot() );
+  }
 
-    transform( jsonNode, rootItem );
+  private DefinitionStore toStore( final String yaml ) {
+    try( final var parser = sFactory.createParser( yaml ) ) {
+      final var builder = new DefinitionStore.Builder( "root" );
 
-    return rootItem;
-  }
+      // Only a document having keys at the top level can be presented.
+      if( parser.nextToken() == START_OBJECT ) {
+        transform( parser, builder );
+      }
 
-  private JsonNode toJson( final String yaml ) {
-    try {
-      return new ObjectMapper( sFactory ).readTree( yaml );
+      return builder.build();
     } catch( final Exception ex ) {
       // Ensure that a document root node exists.
-      return new ObjectMapper().createObjectNode();
+      return new DefinitionStore.Builder( "root" ).build();
+    }
+  }
+
+  /**
+   * Adds each field of the object at the parser's position to the builder,
+   * stopping at the end of the object.
+   *
+   * @param parser  The document parser, positioned at the start of an object.
+   * @param builder Receives each key and value.
+   * @throws IOException Could not read the document.
+   */
+  private void transform(
+    final JsonParser parser, final DefinitionStore.Builder builder )
+    throws IOException {
+    while( parser.nextToken() == FIELD_NAME ) {
+      builder.open( parser.getCurrentName() );
+
+      final var token = parser.nextToken();
+
+      if( token == START_OBJECT ) {
+        transform( parser, builder );
+      }
+      else if( token.isScalarValue() ) {
+        builder.leaf( toText( parser, token ) );
+      }
+      else {
+        // Sequences have no representation in the tree.
+        parser.skipChildren();
+      }
+
+      builder.close();
     }
   }
 
+  /**
+   * Returns the text for a scalar value, formatted as it would be by a
+   * {@link JsonNode}.
+   */
+  private String toText( final JsonParser parser, final JsonToken token )
+    throws IOException {
+    return switch( token ) {
+      case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT ->
+        String.valueOf( parser.getNumberValue() );
+      case VALUE_TRUE, VALUE_FALSE, VALUE_NULL -> token.asString();
+      default -> parser.getText();
+    };
+  }
+
   /**
    * Recursive method to generate an object hierarchy that represents the
    * given {@link TreeItem} hierarchy.
@@ -94,6 +147,12 @@ public final class YamlTreeTransformer implements TreeTransformer {
    *             {@link TreeItem} hierarchy.
    */
   private void transform( final TreeItem<String> item, ObjectNode node ) {
+    if( isStored( item ) ) {
+      final var stored = (StoredTreeItem) item;
+      transform( stored.getStore(), stored.getNode(), item.getValue(), node );
+      return;
+    }
+
     final var children = item.getChildren();
 
     // If the current item has more than one non-leaf child, it's an
@@ -113,48 +172,33 @@ public final class YamlTreeTransformer implements TreeTransformer {
   }
 
   /**
-   * Iterate over a given root node (at any level of the tree) and adapt each
-   * leaf node.
-   *
-   * @param node A JSON node (YAML node) to adapt.
-   * @param item The tree item to use as the root when processing the node.
-   * @throws StackOverflowError If infinite recursion is encountered.
-   */
-  private void transform( final JsonNode node, final TreeItem<String> item ) {
-    node.fields().forEachRemaining( leaf -> transform( leaf, item ) );
-  }
-
-  /**
-   * Recursively adapt each rootNode to a corresponding rootItem.
+   * Generates an object hierarchy for a node whose descendants have not been
+   * presented, reading the descendants from the store.
    *
-   * @param node The node to adapt.
-   * @param item The item to adapt using the node's key.
-   * @throws StackOverflowError If infinite recursion is encountered.
+   * @param store The hierarchy containing the node.
+   * @param item  The node to reproduce as an object hierarchy.
+   * @param key   The node's current value, which may have been edited.
+   * @param node  The {@link ObjectNode} to update.
    */
   private void transform(
-    final Entry<String, JsonNode> node, final TreeItem<String> item ) {
-    final var leafNode = node.getValue();
-    final var key = node.getKey();
-    final var leaf = createTreeItem( key );
-
-    if( leafNode.isValueNode() ) {
-      leaf.getChildren().add( createTreeItem( node.getValue().asText() ) );
+    final DefinitionStore store,
+    final int item,
+    final String key,
+    ObjectNode node ) {
+    final var first = store.getFirstChild( item );
+
+    if( !(first >= 0 && store.getNextSibling( first ) < 0 &&
+      store.isLeaf( first )) ) {
+      node = node.putObject( key );
     }
 
-    item.getChildren().add( leaf );
-
-    if( leafNode.isObject() ) {
-      transform( leafNode, leaf );
+    for( var c = first; c >= 0; c = store.getNextSibling( c ) ) {
+      if( store.isLeaf( c ) ) {
+        node.put( key, store.getValue( c ) );
+      }
+      else {
+        transform( store, c, store.getValue( c ), node );
+      }
     }
   }
-
-  /**
-   * Creates a new {@link TreeItem} that can be added to the {@link TreeView}.
-   *
-   * @param value The node's value.
-   * @return A new {@link TreeItem}, never {@code null}.
-   */
-  private TreeItem<String> createTreeItem( final String value ) {
-    return new DefinitionTreeItem<>( value );
-  }
 }
@@ -87,8 +87,8 @@ public final class MarkdownEditor extends BorderPane implements TextEditor {
   private File mFile;
 
   /**
-   * Set to {@code true} upon text or caret position changes. Value is {@code
-   * false} by default.
+   * Set to {@code true} upon text changes. Value is {@code false} by default.
+   * Caret position changes are observed through {@link #getCaret()}.
    */
   private final BooleanProperty mDirty = new SimpleBooleanProperty();
 
@@ -128,17 +128,9 @@ public final class MarkdownEditor extends BorderPane implements TextEditor {
     textArea.textProperty().addListener( ( c, o, n ) -> {
       // Fire, regardless of whether the caret position has changed.
       mDirty.set( false );
-
-      // Prevent a caret position change from raising the dirty bits.
       mDirty.set( true );
     } );
 
-    textArea.caretPositionProperty().addListener( ( c, o, n ) -> {
-      // Fire when the caret position has changed and the text has not.
-      mDirty.set( true );
-      mDirty.set( false );
-    } );
-
     textArea.focusedProperty().addListener( ( c, o, n ) -> {
       if( n != null && n ) {
         fireTextEditorFocus( this );
@@ -558,8 +550,8 @@ public final class MarkdownEditor extends BorderPane implements TextEditor {
 
   /**
    * Observers may listen for changes to the property returned from this method
-   * to receive notifications when either the text or caret have changed. This
-   * should not be used to track whether the text has been modified.
+   * to receive notifications when the text has changed. This should not be
+   * used to track whether the text has been modified.
    */
   public void addDirtyListener( ChangeListener<Boolean> listener ) {
     mDirty.addListener( listener );
@@ -0,0 +1,35 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.events;
+
+import java.nio.file.Path;
+
+/**
+ * Collates information about a document whose R statements have finished
+ * evaluating after the document was rendered.
+ */
+public class RResultEvent implements AppEvent {
+  private final Path mPath;
+
+  private RResultEvent( final Path path ) {
+    mPath = path;
+  }
+
+  /**
+   * Informs subscribers that the given document may be rendered again to
+   * show the results of its R statements.
+   *
+   * @param path The document containing the R statements.
+   */
+  public static void fireRResultEvent( final Path path ) {
+    new RResultEvent( path ).fire();
+  }
+
+  /**
+   * Returns the document containing the evaluated R statements.
+   *
+   * @return The path to the document.
+   */
+  public Path getPath() {
+    return mPath;
+  }
+}
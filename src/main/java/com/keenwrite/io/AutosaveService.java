@@ -0,0 +1,256 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.io;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Supplier;
+
+import static com.keenwrite.events.StatusEvent.clue;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Responsible for saving files in the background. A request to save a file
+ * only marks the file as needing to be saved; each further request for the
+ * same file restarts the delay before saving. Once requests stop arriving, a
+ * single snapshot of the file's contents is taken on the snapshot executor
+ * (e.g., the JavaFX application thread) and converted to text on a
+ * background thread, which keeps serialization off the JavaFX application
+ * thread.
+ * <p>
+ * Files are written to a temporary file in the same directory, which is
+ * then moved over the original file. Should writing fail, the original file
+ * is left intact. The temporary file is given the original file's
+ * permissions, and when the original file is a symbolic link, the file that
+ * it links to is replaced.
+ * </p>
+ */
+public final class AutosaveService {
+  /**
+   * Milliseconds to wait for further requests before saving.
+   */
+  private static final long DELAY = 250;
+
+  /**
+   * A request to save text to a file.
+   */
+  private static final class Request {
+    private final Supplier<Supplier<String>> mSnapshot;
+    private final Charset mEncoding;
+    private final Runnable mSaved;
+    private ScheduledFuture<?> mExpiry;
+
+    private Request(
+      final Supplier<Supplier<String>> snapshot,
+      final Charset encoding,
+      final Runnable saved ) {
+      mSnapshot = snapshot;
+      mEncoding = encoding;
+      mSaved = saved;
+    }
+  }
+
+  private final Map<Path, Request> mPending = new ConcurrentHashMap<>();
+
+  private final Executor mSnapshots;
+
+  /**
+   * Delays requests and writes files.
+   */
+  private final ScheduledExecutorService mExecutor;
+
+  /**
+   * Creates a service that takes snapshots on its background thread.
+   */
+  public AutosaveService() {
+    this( Runnable::run );
+  }
+
+  /**
+   * Creates a service that takes snapshots using the given executor.
+   *
+   * @param snapshots Runs tasks that take snapshots (e.g.,
+   *                  {@code Platform::runLater}).
+   */
+  public AutosaveService( final Executor snapshots ) {
+    this( snapshots, newSingleThreadScheduledExecutor( r -> {
+      final var thread = new Thread( r, "autosave" );
+      thread.setDaemon( true );
+      return thread;
+    } ) );
+  }
+
+  /**
+   * Creates a service that takes snapshots using the given executor, and
+   * that waits for further requests and writes files using the other.
+   *
+   * @param snapshots Runs tasks that take snapshots.
+   * @param executor  Delays requests then writes files, on a single thread.
+   */
+  AutosaveService(
+    final Executor snapshots, final ScheduledExecutorService executor ) {
+    assert snapshots != null;
+    assert executor != null;
+
+    mSnapshots = snapshots;
+    mExecutor = executor;
+  }
+
+  /**
+   * Requests that the given file be saved, replacing any request to save
+   * the same file that has not yet been written and restarting the delay
+   * before saving.
+   *
+   * @param path     The file to write.
+   * @param snapshot Captures the file's contents, called by the snapshot
+   *                 executor once requests stop arriving; returns the text
+   *                 to write, which is called on a background thread. Blank
+   *                 text is not written.
+   * @param encoding The character encoding for the file.
+   * @param saved    Called on a background thread after the file is
+   *                 written, provided no newer request is pending.
+   */
+  public void submit(
+    final Path path,
+    final Supplier<Supplier<String>> snapshot,
+    final Charset encoding,
+    final Runnable saved ) {
+    assert path != null;
+    assert snapshot != null;
+    assert encoding != null;
+    assert saved != null;
+
+    final var request = new Request( snapshot, encoding, saved );
+
+    mPending.compute( path, ( p, prior ) -> {
+      if( prior != null ) {
+        prior.mExpiry.cancel( false );
+      }
+
+      request.mExpiry = mExecutor.schedule(
+        () -> mSnapshots.execute( () -> expire( path, request ) ),
+        DELAY, MILLISECONDS );
+
+      return request;
+    } );
+  }
+
+  /**
+   * Writes all pending requests, blocking until they are written. Snapshots
+   * are taken on the calling thread, which must be able to take them (e.g.,
+   * the JavaFX application thread). Call this before exiting the application.
+   */
+  public void flush() {
+    for( final var path : mPending.keySet() ) {
+      final var request = mPending.remove( path );
+
+      if( request != null ) {
+        request.mExpiry.cancel( false );
+        snapshot( path, request );
+      }
+    }
+
+    try {
+      mExecutor.submit( () -> { } ).get();
+    } catch( final Exception ex ) {
+      clue( ex );
+    }
+  }
+
+  /**
+   * Called by the snapshot executor after no further requests to save the
+   * given file have arrived. A request replaced in the meantime is ignored
+   * because the replacement will take its own snapshot.
+   */
+  private void expire( final Path path, final Request request ) {
+    if( mPending.remove( path, request ) ) {
+      snapshot( path, request );
+    }
+  }
+
+  private void snapshot( final Path path, final Request request ) {
+    try {
+      final var text = request.mSnapshot.get();
+
+      mExecutor.execute( () -> save( path, request, text ) );
+    } catch( final Exception ex ) {
+      clue( ex );
+    }
+  }
+
+  private void save(
+    final Path path, final Request request, final Supplier<String> snapshot ) {
+    try {
+      final var text = snapshot.get();
+
+      // Text cannot be produced for malformed definitions; keep the file.
+      if( !text.isBlank() ) {
+        write( path, text.getBytes( request.mEncoding ) );
+
+        if( !mPending.containsKey( path ) ) {
+          request.mSaved.run();
+        }
+      }
+    } catch( final Exception ex ) {
+      clue( ex );
+    }
+  }
+
+  /**
+   * Writes the given bytes to a temporary file, then replaces the given
+   * file with the temporary file.
+   *
+   * @param path  The file to replace.
+   * @param bytes The file's new contents.
+   * @throws IOException Could not write or replace the file.
+   */
+  static void write( final Path path, final byte[] bytes )
+    throws IOException {
+    final var exists = Files.exists( path );
+    final var file = exists ? path.toRealPath() : path.toAbsolutePath();
+    final var temp = Files.createTempFile(
+      file.getParent(), file.getFileName().toString(), ".tmp" );
+
+    try {
+      Files.write( temp, bytes );
+
+      if( exists ) {
+        copyPermissions( file, temp );
+      }
+
+      try {
+        Files.move( temp, file, ATOMIC_MOVE, REPLACE_EXISTING );
+      } catch( final AtomicMoveNotSupportedException ex ) {
+        Files.move( temp, file, REPLACE_EXISTING );
+      }
+    } finally {
+      Files.deleteIfExists( temp );
+    }
+  }
+
+  /**
+   * Gives the target file the same permissions as the source file, on file
+   * systems that support POSIX permissions.
+   */
+  private static void copyPermissions( final Path source, final Path target )
+    throws IOException {
+    final var view = Files.getFileAttributeView(
+      source, PosixFileAttributeView.class );
+
+    if( view != null ) {
+      Files.setPosixFilePermissions(
+        target, view.readAttributes().permissions() );
+    }
+  }
+}
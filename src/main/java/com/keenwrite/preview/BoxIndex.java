@@ -0,0 +1,138 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import org.xhtmlrenderer.layout.LayoutContext;
+import org.xhtmlrenderer.layout.SharedContext;
+
+import java.awt.*;
+import java.util.Arrays;
+
+import static com.keenwrite.preview.OffsetIndex.toId;
+import static java.util.Arrays.binarySearch;
+
+/**
+ * Responsible for mapping offsets into the source document to the laid out
+ * positions of the preview's elements. An index is built once after each
+ * layout, which makes synchronized scrolling a binary search rather than a
+ * search through the box tree.
+ */
+final class BoxIndex {
+  /**
+   * Source offsets of laid out elements, in ascending order.
+   */
+  private final int[] mOffsets;
+
+  /**
+   * Horizontal positions, parallel to {@link #mOffsets}.
+   */
+  private final int[] mXs;
+
+  /**
+   * Vertical positions, parallel to {@link #mOffsets}.
+   */
+  private final int[] mYs;
+
+  private BoxIndex( final int[] offsets, final int[] xs, final int[] ys ) {
+    mOffsets = offsets;
+    mXs = xs;
+    mYs = ys;
+  }
+
+  /**
+   * Creates an index of the positions for all elements in the given
+   * {@link OffsetIndex}. This must be called after layout has completed.
+   *
+   * @param index  Offsets of the elements in the displayed document.
+   * @param shared Provides the laid out boxes for element identifiers.
+   * @param layout Provides the context to compute box margins.
+   * @return An index of element positions by source offset.
+   */
+  static BoxIndex of(
+    final OffsetIndex index,
+    final SharedContext shared,
+    final LayoutContext layout ) {
+    final var size = index.size();
+    final var offsets = new int[ size ];
+    final var xs = new int[ size ];
+    final var ys = new int[ size ];
+    var count = 0;
+
+    for( var i = 0; i < size; i++ ) {
+      final var offset = index.getOffset( i );
+      final var box = shared.getBoxById( toId( offset ) );
+
+      if( box != null ) {
+        var x = box.getAbsX();
+        var y = box.getAbsY();
+
+        if( !box.getStyle().isInline() ) {
+          final var margin = box.getMargin( layout );
+          x += margin.left();
+          y += margin.top();
+        }
+
+        offsets[ count ] = offset;
+        xs[ count ] = x;
+        ys[ count ] = y;
+        count++;
+      }
+    }
+
+    return new BoxIndex(
+      Arrays.copyOf( offsets, count ),
+      Arrays.copyOf( xs, count ),
+      Arrays.copyOf( ys, count ) );
+  }
+
+  /**
+   * Returns the position of the element whose source text begins at or
+   * most closely precedes the given offset.
+   *
+   * @param offset Offset into the source document.
+   * @return The top-left corner of the nearest element, or {@code null} if
+   * the index is empty.
+   */
+  Point find( final int offset ) {
+    final var i = indexOf( offset );
+    return i < 0 ? null : new Point( mXs[ i ], mYs[ i ] );
+  }
+
+  /**
+   * Returns the vertical position that corresponds to the given offset. The
+   * position is interpolated between the nearest preceding element and the
+   * element that follows it, so that scrolling through a long paragraph in
+   * the source document scrolls smoothly through its rendered counterpart.
+   *
+   * @param offset Offset into the source document.
+   * @return The vertical position for the offset, or {@code -1} if the index
+   * is empty.
+   */
+  int findY( final int offset ) {
+    final var i = indexOf( offset );
+
+    if( i < 0 ) {
+      return -1;
+    }
+
+    final var y = mYs[ i ];
+
+    if( i + 1 < mOffsets.length && offset > mOffsets[ i ] ) {
+      final var span = mOffsets[ i + 1 ] - mOffsets[ i ];
+      final var ratio = (offset - mOffsets[ i ]) / (double) span;
+      return y + (int) ((mYs[ i + 1 ] - y) * Math.min( ratio, 1 ));
+    }
+
+    return y;
+  }
+
+  private int indexOf( final int offset ) {
+    if( mOffsets.length == 0 ) {
+      return -1;
+    }
+
+    final var i = binarySearch( mOffsets, offset );
+
+    // Not found: the insertion point is after the closest preceding offset.
+    return i < 0 ? Math.max( -i - 2, 0 ) : i;
+  }
+}
@@ -1,91 +1,254 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.preview;
 
-import org.jsoup.helper.W3CDom;
+import org.jsoup.nodes.Comment;
+import org.jsoup.nodes.DataNode;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
 import org.jsoup.select.NodeVisitor;
 import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import java.util.LinkedHashMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Map;
 
 import static com.keenwrite.events.StatusEvent.clue;
-import static com.keenwrite.processors.text.TextReplacementFactory.replace;
+import static com.keenwrite.preview.LigatureSubstituter.substitute;
 
 /**
  * Responsible for converting JSoup document object model (DOM) to a W3C DOM.
- * Provides a lighter implementation than the superclass by overriding the
- * {@link #fromJsoup(org.jsoup.nodes.Document)} method to reuse factories,
- * builders, and implementations.
+ * The W3C DOM is built in a single pass over the JSoup DOM, substituting
+ * ligatures as text nodes are created. This leaves the JSoup DOM unchanged,
+ * so it may be shared with other consumers (e.g., word counting), and avoids
+ * replacing every text node of the JSoup DOM before copying it.
+ * <p>
+ * The document's head and body may be converted from separate JSoup
+ * documents (see {@link #fromJsoup(org.jsoup.nodes.Document,
+ * org.jsoup.nodes.Element)}), so that the head need not be concatenated with,
+ * and parsed along with, the body for every update.
+ * </p>
  */
-final class DomConverter extends W3CDom {
-  /**
-   * Retain insertion order using an instance of {@link LinkedHashMap} so
-   * that ligature substitution uses longer ligatures ahead of shorter
-   * ligatures. The word "ruffian" should use the "ffi" ligature, not the "ff"
-   * ligature.
-   */
-  private static final Map<String, String> LIGATURES = new LinkedHashMap<>();
+final class DomConverter {
+  private static final String XMLNS = "xmlns";
+  private static final String XMLNS_PREFIX = "xmlns:";
+
+  private static final DocumentBuilderFactory DOCUMENT_FACTORY;
+  private static DocumentBuilder DOCUMENT_BUILDER;
+  private static DOMImplementation DOM_IMPL;
 
   static {
-    LIGATURES.put( "ffi", "\uFB03" );
-    LIGATURES.put( "ffl", "\uFB04" );
-    LIGATURES.put( "ff", "\uFB00" );
-    LIGATURES.put( "fi", "\uFB01" );
-    LIGATURES.put( "fl", "\uFB02" );
+    DOCUMENT_FACTORY = DocumentBuilderFactory.newInstance();
+    DOCUMENT_FACTORY.setNamespaceAware( true );
+
+    try {
+      DOCUMENT_BUILDER = DOCUMENT_FACTORY.newDocumentBuilder();
+      DOM_IMPL = DOCUMENT_BUILDER.getDOMImplementation();
+    } catch( final Exception ex ) {
+      clue( ex );
+    }
   }
 
-  private static final NodeVisitor LIGATURE_VISITOR = new NodeVisitor() {
+  /**
+   * Copies JSoup nodes into a W3C document, one node at a time. Elements
+   * inherit namespaces declared by their ancestors. Text nodes are given
+   * ligatures unless they are within preformatted or code elements.
+   */
+  private static final class Builder implements NodeVisitor {
+    private final Document mDocument;
+    private final Deque<Map<String, String>> mNamespaces = new ArrayDeque<>();
+    private org.w3c.dom.Node mParent;
+
+    /**
+     * Number of open preformatted or code elements; ligatures are only
+     * substituted when zero.
+     */
+    private int mVerbatim;
+
+    private Builder( final Document document, final org.w3c.dom.Node parent ) {
+      mDocument = document;
+      mParent = parent;
+      mNamespaces.push( new HashMap<>() );
+    }
+
     @Override
     public void head( final Node node, final int depth ) {
-      if( node instanceof TextNode ) {
-        final var parent = node.parentNode();
-        final var name = parent == null ? "root" : parent.nodeName();
-
-        if( !("pre".equalsIgnoreCase( name ) ||
-          "code".equalsIgnoreCase( name ) ||
-          "tt".equalsIgnoreCase( name )) ) {
-          // Calling getWholeText() will return newlines, which must be kept
-          // to ensure that preformatted text maintains its formatting.
-          final var textNode = (TextNode) node;
-          textNode.text( replace( textNode.getWholeText(), LIGATURES ) );
+      if( node instanceof org.jsoup.nodes.Element ) {
+        final var source = (org.jsoup.nodes.Element) node;
+        final var namespaces = updateNamespaces( source );
+        final var name = source.tagName();
+        final var colon = name.indexOf( ':' );
+        final var namespace =
+          namespaces.get( colon < 0 ? "" : name.substring( 0, colon ) );
+        final var element = mDocument.createElementNS(
+          namespace == null && colon >= 0 ? "" : namespace, name );
+
+        copyAttributes( source, element );
+        mParent.appendChild( element );
+        mParent = element;
+
+        if( isVerbatim( name ) ) {
+          mVerbatim++;
         }
       }
+      else if( node instanceof TextNode ) {
+        // Calling getWholeText() will return newlines, which must be kept
+        // to ensure that preformatted text maintains its formatting.
+        final var content = ((TextNode) node).getWholeText();
+
+        mParent.appendChild( mDocument.createTextNode(
+          mVerbatim == 0 ? substitute( content ) : content ) );
+      }
+      else if( node instanceof DataNode ) {
+        final var data = ((DataNode) node).getWholeData();
+        mParent.appendChild( mDocument.createTextNode( data ) );
+      }
+      else if( node instanceof Comment ) {
+        final var data = ((Comment) node).getData();
+        mParent.appendChild( mDocument.createComment( data ) );
+      }
     }
 
     @Override
     public void tail( final Node node, final int depth ) {
+      if( node instanceof org.jsoup.nodes.Element ) {
+        if( isVerbatim( ((org.jsoup.nodes.Element) node).tagName() ) ) {
+          mVerbatim--;
+        }
+
+        mNamespaces.pop();
+        mParent = mParent.getParentNode();
+      }
     }
-  };
 
-  private static final DocumentBuilderFactory DOCUMENT_FACTORY;
-  private static DocumentBuilder DOCUMENT_BUILDER;
-  private static DOMImplementation DOM_IMPL;
+    /**
+     * Pushes the namespaces in scope for the given element, copying the
+     * enclosing scope only when the element declares a namespace.
+     */
+    private Map<String, String> updateNamespaces(
+      final org.jsoup.nodes.Element element ) {
+      var namespaces = mNamespaces.peek();
+      assert namespaces != null;
 
-  static {
-    DOCUMENT_FACTORY = DocumentBuilderFactory.newInstance();
-    DOCUMENT_FACTORY.setNamespaceAware( true );
+      for( final var attribute : element.attributes() ) {
+        final var key = attribute.getKey();
+        final String prefix;
 
-    try {
-      DOCUMENT_BUILDER = DOCUMENT_FACTORY.newDocumentBuilder();
-      DOM_IMPL = DOCUMENT_BUILDER.getDOMImplementation();
-    } catch( final Exception ex ) {
-      clue( ex );
+        if( key.equals( XMLNS ) ) {
+          prefix = "";
+        }
+        else if( key.startsWith( XMLNS_PREFIX ) ) {
+          prefix = key.substring( XMLNS_PREFIX.length() );
+        }
+        else {
+          continue;
+        }
+
+        if( namespaces == mNamespaces.peek() ) {
+          namespaces = new HashMap<>( namespaces );
+        }
+
+        namespaces.put( prefix, attribute.getValue() );
+      }
+
+      mNamespaces.push( namespaces );
+      return namespaces;
+    }
+
+    private static void copyAttributes(
+      final org.jsoup.nodes.Element source, final Element element ) {
+      for( final var attribute : source.attributes() ) {
+        final var key = attribute.getKey();
+
+        if( isName( key ) ) {
+          element.setAttribute( key, attribute.getValue() );
+        }
+        else {
+          final var name = key.replaceAll( "[^-a-zA-Z0-9_:.]", "" );
+
+          if( isName( name ) ) {
+            element.setAttribute( name, attribute.getValue() );
+          }
+        }
+      }
+    }
+
+    /**
+     * Answers whether the given attribute name is valid XML, without
+     * resorting to regular expressions for the usual case.
+     */
+    private static boolean isName( final String name ) {
+      final var length = name.length();
+
+      if( length == 0 ) {
+        return false;
+      }
+
+      final var first = name.charAt( 0 );
+
+      if( !(isAsciiLetter( first ) || first == '_' || first == ':') ) {
+        return false;
+      }
+
+      for( var i = 1; i < length; i++ ) {
+        final var c = name.charAt( i );
+
+        if( !(isAsciiLetter( c ) || (c >= '0' && c <= '9') ||
+          c == '-' || c == '_' || c == ':' || c == '.') ) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    private static boolean isAsciiLetter( final char c ) {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isVerbatim( final String name ) {
+      return "pre".equalsIgnoreCase( name ) ||
+        "code".equalsIgnoreCase( name ) ||
+        "tt".equalsIgnoreCase( name );
     }
   }
 
-  @Override
+  /**
+   * Converts a complete JSoup document to a W3C document.
+   *
+   * @param in The document to convert, which is not modified.
+   * @return The W3C equivalent of the given document.
+   */
   public Document fromJsoup( final org.jsoup.nodes.Document in ) {
     assert in != null;
+
+    return fromJsoup( in, in.body() );
+  }
+
+  /**
+   * Converts a JSoup document to a W3C document, replacing its body with
+   * the given body. This allows a document's head to be parsed once and
+   * reused for any number of bodies.
+   *
+   * @param shell The doctype, root element, and head to convert, which is
+   *              not modified.
+   * @param body  The body to convert, which is not modified.
+   * @return The W3C equivalent of the given head and body.
+   */
+  public Document fromJsoup(
+    final org.jsoup.nodes.Document shell,
+    final org.jsoup.nodes.Element body ) {
+    assert shell != null;
+    assert body != null;
     assert DOCUMENT_BUILDER != null;
     assert DOM_IMPL != null;
 
     final var out = DOCUMENT_BUILDER.newDocument();
-    final org.jsoup.nodes.DocumentType doctype = in.documentType();
+    final var doctype = shell.documentType();
 
     if( doctype != null ) {
       out.appendChild(
@@ -98,8 +261,16 @@ final class DomConverter extends W3CDom {
     }
 
     out.setXmlStandalone( true );
-    in.traverse( LIGATURE_VISITOR );
-    convert( in, out );
+
+    final var root = shell.child( 0 );
+    final var builder = new Builder( out, out );
+
+    // Convert the root element without its children, then its head and the
+    // replacement body within the root's namespace scope.
+    builder.head( root, 0 );
+    shell.head().traverse( builder );
+    body.traverse( builder );
+    builder.tail( root, 0 );
 
     return out;
   }
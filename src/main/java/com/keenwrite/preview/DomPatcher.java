@@ -0,0 +1,332 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xhtmlrenderer.layout.SharedContext;
+import org.xhtmlrenderer.render.Box;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.keenwrite.Constants.CARET_ID;
+
+/**
+ * Responsible for updating the document displayed by the preview in place,
+ * rather than replacing it. The children of the new document's body are
+ * compared against the displayed document's body from both ends; only the
+ * differing run of children is replaced. Replacing the displayed document
+ * would otherwise discard the parsed stylesheets, computed styles, and
+ * replaced elements (e.g., images) for every element on every keystroke.
+ * <p>
+ * Flying Saucer cannot lay out part of a document, so a patched document is
+ * laid out again in full. However, the stylesheets are kept and only the
+ * styles of the replaced elements and their immediate siblings, whose styles
+ * may depend on sibling selectors, are computed again.
+ * </p>
+ * <p>
+ * Elements are identified by the source offset where they begin, so an edit
+ * changes the identifiers of every element that follows it. Identifiers that
+ * encode offsets are therefore ignored when comparing elements, and are
+ * updated in place for the elements that are kept, along with the laid out
+ * boxes registered under them.
+ * </p>
+ */
+final class DomPatcher {
+  /**
+   * Prefix for element identifiers that encode source offsets.
+   */
+  private static final String PREFIX = CARET_ID + '-';
+
+  /**
+   * Describes how patching changed the displayed document.
+   */
+  enum Change {
+    /**
+     * The document is unchanged.
+     */
+    NONE,
+
+    /**
+     * Only identifiers encoding source offsets changed; the layout remains
+     * valid, but anything indexed by those identifiers must be rebuilt.
+     */
+    RENUMBERED,
+
+    /**
+     * Elements were replaced; the document must be laid out again.
+     */
+    REPLACED
+  }
+
+  private DomPatcher() {
+  }
+
+  /**
+   * Answers whether the displayed document may be patched to match the new
+   * document. Documents may be patched when their heads are identical, which
+   * means the stylesheets are unchanged.
+   *
+   * @param live The document being displayed.
+   * @param next The document to display.
+   * @return {@code true} if {@link #patch(Document, Document, SharedContext)}
+   * may be called.
+   */
+  static boolean isPatchable( final Document live, final Document next ) {
+    if( live == null || next == null ) {
+      return false;
+    }
+
+    final var liveHead = getElement( live, "head" );
+    final var nextHead = getElement( next, "head" );
+
+    return liveHead != null && nextHead != null &&
+      getElement( live, "body" ) != null &&
+      getElement( next, "body" ) != null &&
+      liveHead.isEqualNode( nextHead );
+  }
+
+  /**
+   * Changes the displayed document's body to match the new document's body.
+   * The new document's differing nodes are moved into the displayed
+   * document, so the new document must not be used afterwards.
+   *
+   * @param live    The document being displayed, modified in place.
+   * @param next    The document to display.
+   * @param context Caches styles and boxes by element, which are evicted for
+   *                elements that are removed or whose siblings changed.
+   * @return How the displayed document changed.
+   */
+  static Change patch(
+    final Document live, final Document next, final SharedContext context ) {
+    final var liveBody = getElement( live, "body" );
+    final var nextBody = getElement( next, "body" );
+    final var olds = children( liveBody );
+    final var news = children( nextBody );
+    final var oldSize = olds.size();
+    final var newSize = news.size();
+
+    var head = 0;
+
+    while( head < oldSize && head < newSize &&
+      isEqual( olds, head, news, head ) ) {
+      head++;
+    }
+
+    var tail = 0;
+
+    while( tail < oldSize - head && tail < newSize - head &&
+      isEqual( olds, oldSize - 1 - tail, news, newSize - 1 - tail ) ) {
+      tail++;
+    }
+
+    // Kept elements must be identified by their new source offsets. Boxes
+    // are registered under their new identifiers only after all the old
+    // identifiers are removed, because the two sets overlap.
+    final var boxes = new HashMap<String, Box>();
+
+    for( var i = 0; i < head; i++ ) {
+      renumber( olds.get( i ), news.get( i ), context, boxes );
+    }
+
+    for( var i = 1; i <= tail; i++ ) {
+      renumber(
+        olds.get( oldSize - i ), news.get( newSize - i ), context, boxes );
+    }
+
+    boxes.forEach( ( id, box ) -> {
+      if( box != null ) {
+        context.addBoxId( id, box );
+      }
+    } );
+
+    if( head + tail == oldSize && head + tail == newSize ) {
+      return boxes.isEmpty() ? Change.NONE : Change.RENUMBERED;
+    }
+
+    final var anchor = tail > 0 ? olds.get( oldSize - tail ) : null;
+
+    for( var i = head; i < oldSize - tail; i++ ) {
+      final var node = olds.get( i );
+      evict( node, context );
+      liveBody.removeChild( node );
+    }
+
+    for( var i = head; i < newSize - tail; i++ ) {
+      liveBody.insertBefore( adopt( live, news.get( i ) ), anchor );
+    }
+
+    // Sibling selectors (e.g., h1+p, :first-child, :last-child) may change
+    // the styles of the elements that surround the replaced elements.
+    for( var n = head > 0 ? olds.get( head - 1 ) : null; n != null;
+         n = n.getPreviousSibling() ) {
+      if( evict( n, context ) ) {
+        break;
+      }
+    }
+
+    for( var n = anchor; n != null; n = n.getNextSibling() ) {
+      if( evict( n, context ) ) {
+        break;
+      }
+    }
+
+    return Change.REPLACED;
+  }
+
+  private static boolean isEqual(
+    final List<Node> olds, final int i, final List<Node> news, final int j ) {
+    return isEqual( olds.get( i ), news.get( j ) );
+  }
+
+  /**
+   * Answers whether the given nodes are equal, in the same way as
+   * {@link Node#isEqualNode(Node)}, except that identifiers encoding source
+   * offsets are not compared.
+   */
+  private static boolean isEqual( final Node a, final Node b ) {
+    if( a.getNodeType() != b.getNodeType() ||
+      !Objects.equals( a.getNodeName(), b.getNodeName() ) ||
+      !Objects.equals( a.getNodeValue(), b.getNodeValue() ) ) {
+      return false;
+    }
+
+    if( a instanceof Element && !isEqualAttributes( a, b ) ) {
+      return false;
+    }
+
+    var c = a.getFirstChild();
+    var d = b.getFirstChild();
+
+    while( c != null && d != null ) {
+      if( !isEqual( c, d ) ) {
+        return false;
+      }
+
+      c = c.getNextSibling();
+      d = d.getNextSibling();
+    }
+
+    return c == null && d == null;
+  }
+
+  private static boolean isEqualAttributes( final Node a, final Node b ) {
+    final var aAttrs = a.getAttributes();
+    final var bAttrs = b.getAttributes();
+    final var length = aAttrs.getLength();
+
+    if( length != bAttrs.getLength() ) {
+      return false;
+    }
+
+    for( var i = 0; i < length; i++ ) {
+      final var attr = (Attr) aAttrs.item( i );
+      final var other = (Attr) bAttrs.getNamedItem( attr.getName() );
+
+      if( other == null ) {
+        return false;
+      }
+
+      final var value = attr.getValue();
+      final var otherValue = other.getValue();
+
+      if( !value.equals( otherValue ) &&
+        !(isOffsetId( attr ) && isOffsetId( other )) ) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean isOffsetId( final Attr attr ) {
+    return "id".equals( attr.getName() ) &&
+      attr.getValue().startsWith( PREFIX );
+  }
+
+  /**
+   * Copies the identifiers encoding source offsets from the new node to the
+   * equal node that is being displayed.
+   *
+   * @param live    The displayed node, modified in place.
+   * @param next    The new node, which {@link #isEqual(Node, Node)} the live
+   *                one.
+   * @param context Registers laid out boxes by identifier; boxes of
+   *                renumbered elements are unregistered.
+   * @param boxes   Receives the boxes of renumbered elements, or
+   *                {@code null} for those not laid out, by new identifier.
+   */
+  private static void renumber(
+    final Node live,
+    final Node next,
+    final SharedContext context,
+    final Map<String, Box> boxes ) {
+    if( live instanceof Element ) {
+      final var element = (Element) live;
+      final var id = ((Element) next).getAttribute( "id" );
+      final var old = element.getAttribute( "id" );
+
+      if( id.startsWith( PREFIX ) && !id.equals( old ) ) {
+        boxes.put( id, context.getBoxById( old ) );
+        context.removeBoxId( old );
+        element.setAttribute( "id", id );
+      }
+    }
+
+    var c = live.getFirstChild();
+    var d = next.getFirstChild();
+
+    while( c != null && d != null ) {
+      renumber( c, d, context, boxes );
+      c = c.getNextSibling();
+      d = d.getNextSibling();
+    }
+  }
+
+  /**
+   * Moves the given node into the given document, copying it only when the
+   * node cannot be moved.
+   */
+  private static Node adopt( final Document document, final Node node ) {
+    final var adopted = document.adoptNode( node );
+    return adopted == null ? document.importNode( node, true ) : adopted;
+  }
+
+  /**
+   * Removes cached styles, boxes, and replaced elements for the given node.
+   *
+   * @return {@code true} if the node is an element.
+   */
+  private static boolean evict(
+    final Node node, final SharedContext context ) {
+    if( node instanceof Element ) {
+      context.removeElementReferences( (Element) node );
+      return true;
+    }
+
+    return false;
+  }
+
+  private static List<Node> children( final Node parent ) {
+    final var nodes = parent.getChildNodes();
+    final var length = nodes.getLength();
+    final var children = new ArrayList<Node>( length );
+
+    for( var i = 0; i < length; i++ ) {
+      children.add( nodes.item( i ) );
+    }
+
+    return children;
+  }
+
+  private static Element getElement(
+    final Document document, final String tag ) {
+    final var elements = document.getElementsByTagName( tag );
+    return elements.getLength() > 0 ? (Element) elements.item( 0 ) : null;
+  }
+}
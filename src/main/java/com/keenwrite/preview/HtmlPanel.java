@@ -2,10 +2,6 @@
 package com.keenwrite.preview;
 
 import com.keenwrite.ui.adapters.DocumentAdapter;
-import javafx.beans.property.BooleanProperty;
-import javafx.beans.property.SimpleBooleanProperty;
-import org.xhtmlrenderer.layout.SharedContext;
-import org.xhtmlrenderer.render.Box;
 import org.xhtmlrenderer.simple.XHTMLPanel;
 import org.xhtmlrenderer.simple.extend.XhtmlNamespaceHandler;
 import org.xhtmlrenderer.swing.BasicPanel;
@@ -20,14 +16,15 @@ import java.net.URI;
 import static com.keenwrite.events.FileOpenEvent.fireFileOpenEvent;
 import static com.keenwrite.events.DocumentChangedEvent.fireDocumentChangedEvent;
 import static com.keenwrite.events.StatusEvent.clue;
+import static com.keenwrite.preview.DomPatcher.Change.RENUMBERED;
+import static com.keenwrite.preview.DomPatcher.Change.REPLACED;
 import static com.keenwrite.util.ProtocolScheme.getProtocol;
 import static java.awt.Desktop.Action.BROWSE;
 import static java.awt.Desktop.getDesktop;
-import static java.lang.Boolean.FALSE;
-import static java.lang.Boolean.TRUE;
 import static javax.swing.SwingUtilities.invokeLater;
 import static javax.swing.SwingUtilities.isEventDispatchThread;
 import static org.jsoup.Jsoup.parse;
+import static org.jsoup.Jsoup.parseBodyFragment;
 
 /**
  * Responsible for configuring FlyingSaucer's {@link XHTMLPanel}.
@@ -35,19 +32,21 @@ import static org.jsoup.Jsoup.parse;
 public final class HtmlPanel extends XHTMLPanel {
 
   /**
-   * Suppresses scroll attempts until after the document has loaded.
+   * Indexes the laid out element positions once the document has loaded,
+   * then notifies the layout listener. Until then, scroll attempts are
+   * deferred rather than retried.
    */
-  private static final class DocumentEventHandler extends DocumentAdapter {
-    private final BooleanProperty mReadyProperty = new SimpleBooleanProperty();
-
+  private final class DocumentEventHandler extends DocumentAdapter {
     @Override
     public void documentStarted() {
-      mReadyProperty.setValue( FALSE );
+      mBoxIndex = null;
     }
 
     @Override
     public void documentLoaded() {
-      mReadyProperty.setValue( TRUE );
+      mBoxIndex = BoxIndex.of(
+        mOffsetIndex, getSharedContext(), getLayoutContext() );
+      mLayoutListener.run();
     }
   }
 
@@ -88,9 +87,51 @@ public final class HtmlPanel extends XHTMLPanel {
     }
   }
 
+  /**
+   * Retains the parsed doctype, root element, and head between renders,
+   * which change only when the preview's settings change.
+   */
+  private static final class Shell {
+    private final String mHtml;
+    private final org.jsoup.nodes.Document mDocument;
+
+    private Shell( final String html ) {
+      mHtml = html;
+      mDocument = parse( html );
+    }
+  }
+
   private static final DomConverter CONVERTER = new DomConverter();
   private static final XhtmlNamespaceHandler XNH = new XhtmlNamespaceHandler();
 
+  /**
+   * Maps source offsets to the elements of the document being displayed.
+   */
+  private volatile OffsetIndex mOffsetIndex = OffsetIndex.EMPTY;
+
+  /**
+   * Maps source offsets to element positions, {@code null} until the
+   * document being displayed has been laid out. Accessed from the Swing
+   * event dispatch thread only.
+   */
+  private BoxIndex mBoxIndex;
+
+  /**
+   * Called on the Swing event dispatch thread after each layout.
+   */
+  private Runnable mLayoutListener = () -> {};
+
+  /**
+   * Base URI of the document being displayed, {@code null} until a document
+   * is displayed. Accessed from the Swing event dispatch thread only.
+   */
+  private String mBaseUri;
+
+  /**
+   * The most recently parsed head, shared by the render threads.
+   */
+  private volatile Shell mShell = new Shell( "" );
+
   public HtmlPanel() {
     addDocumentListener( new DocumentEventHandler() );
     removeMouseTrackingListeners();
@@ -100,15 +141,54 @@ public final class HtmlPanel extends XHTMLPanel {
 
   /**
    * Updates the document model displayed by the renderer. Effectively, this
-   * updates the HTML document to provide new content.
+   * updates the HTML document to provide new content. When only the body
+   * has changed, the displayed document is patched in place (see
+   * {@link DomPatcher}) so that stylesheets, computed styles, and images
+   * are retained; the document is not laid out again if nothing changed.
    *
-   * @param html    A complete HTML5 document, including doctype.
+   * <p>
+   * The head is parsed only when it differs from the previous head; the
+   * body is parsed as a fragment, so the two are never concatenated.
+   * </p>
+   *
+   * @param head    The doctype, root element, and head of an HTML5 document.
+   * @param body    The content of the document's body element.
    * @param baseUri URI to use for finding relative files, such as images.
    */
-  public void render( final String html, final String baseUri ) {
-    final var soup = parse( html );
-    final var doc = CONVERTER.fromJsoup( soup );
-    final Runnable renderDocument = () -> setDocument( doc, baseUri, XNH );
+  public void render(
+    final String head, final String body, final String baseUri ) {
+    var shell = mShell;
+
+    if( !shell.mHtml.equals( head ) ) {
+      mShell = shell = new Shell( head );
+    }
+
+    final var soup = parseBodyFragment( body, baseUri );
+    final var doc = CONVERTER.fromJsoup( shell.mDocument, soup.body() );
+    final var index = OffsetIndex.of( soup );
+    final Runnable renderDocument = () -> {
+      final var live = getDocument();
+      mOffsetIndex = index;
+
+      if( baseUri.equals( mBaseUri ) && DomPatcher.isPatchable( live, doc ) ) {
+        final var change = DomPatcher.patch( live, doc, getSharedContext() );
+
+        if( change == REPLACED ) {
+          mBoxIndex = null;
+          relayout();
+        }
+        else if( change == RENUMBERED ) {
+          // The boxes have not moved, but are found by their new offsets.
+          mBoxIndex = BoxIndex.of(
+            index, getSharedContext(), getLayoutContext() );
+        }
+      }
+      else {
+        mBaseUri = baseUri;
+        mBoxIndex = null;
+        setDocument( doc, baseUri, XNH );
+      }
+    };
 
     // Access to a Swing component must occur from the Event Dispatch
     // Thread (EDT) according to Swing threading restrictions. Setting a new
@@ -126,14 +206,26 @@ public final class HtmlPanel extends XHTMLPanel {
   }
 
   /**
-   * Delegates to the {@link SharedContext}.
+   * Returns the index of element positions from the most recent layout.
+   * This must be called from the Swing event dispatch thread.
+   *
+   * @return The positions of the displayed document's elements, or
+   * {@code null} if the document has not been laid out.
+   */
+  BoxIndex getBoxIndex() {
+    return mBoxIndex;
+  }
+
+  /**
+   * Sets the action to perform on the Swing event dispatch thread after
+   * each layout, such as scrolling to a position that was requested before
+   * the document was laid out.
    *
-   * @param id The HTML element identifier to retrieve in {@link Box} form.
-   * @return The {@link Box} that corresponds to the given element ID, or
-   * {@code null} if none found.
+   * @param listener The action to perform once element positions are known.
    */
-  public Box getBoxById( final String id ) {
-    return getSharedContext().getBoxById( id );
+  void setLayoutListener( final Runnable listener ) {
+    assert listener != null;
+    mLayoutListener = listener;
   }
 
   /**
@@ -4,12 +4,10 @@ package com.keenwrite.preview;
 import com.keenwrite.events.ScrollLockEvent;
 import com.keenwrite.preferences.LocaleProperty;
 import com.keenwrite.preferences.Workspace;
-import javafx.application.Platform;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.StringProperty;
 import javafx.embed.swing.SwingNode;
 import org.greenrobot.eventbus.Subscribe;
-import org.xhtmlrenderer.render.Box;
 import org.xhtmlrenderer.swing.SwingReplacedElementFactory;
 
 import javax.swing.*;
@@ -22,14 +20,11 @@ import static com.keenwrite.Constants.*;
 import static com.keenwrite.Messages.get;
 import static com.keenwrite.events.Bus.register;
 import static com.keenwrite.events.ScrollLockEvent.fireScrollLockEvent;
-import static com.keenwrite.events.StatusEvent.clue;
 import static com.keenwrite.preferences.WorkspaceKeys.*;
 import static com.keenwrite.ui.fonts.IconFactory.getIconFont;
 import static java.awt.BorderLayout.*;
 import static java.lang.Math.max;
 import static java.lang.String.format;
-import static java.lang.Thread.sleep;
-import static javafx.application.Platform.runLater;
 import static javafx.scene.CacheHint.SPEED;
 import static javax.swing.SwingUtilities.invokeLater;
 import static org.controlsfx.glyphfont.FontAwesome.Glyph.LOCK;
@@ -82,22 +77,31 @@ public final class HtmlPreview extends SwingNode {
       %s%s<style>body{font-family:'%s';font-size: %dpx;}</style>%s</head><body>
       """;
 
-  private static final String HTML_TAIL = "</body></html>";
-
   private static final URL HTML_STYLE_PREVIEW = toUrl( STYLESHEET_PREVIEW );
 
   /**
-   * Reusing this buffer prevents repetitious memory re-allocations.
+   * Assigned on the Swing event dispatch thread, but read from the render
+   * thread, so must be visible across threads.
    */
-  private final StringBuilder mDocument = new StringBuilder( 65536 );
-
-
-  private HtmlPanel mView;
+  private volatile HtmlPanel mView;
   private JScrollPane mScrollPane;
-  private String mBaseUriPath = "";
-  private String mHead = "";
+  private volatile String mBaseUriPath = "";
+  private volatile String mHead = "";
+
+  /**
+   * The most recently rendered HTML body, retained for re-rendering when
+   * settings that affect the head change.
+   */
+  private volatile String mBody = "";
 
   private boolean mLocked;
+
+  /**
+   * Source offset to scroll to once the document is laid out, or {@code -1}
+   * when no scroll is pending. Accessed from the Swing event dispatch thread
+   * only.
+   */
+  private int mScrollOffset = -1;
   private final JButton mScrollLockButton = new JButton();
 
   private final Workspace mWorkspace;
@@ -146,6 +150,12 @@ public final class HtmlPreview extends SwingNode {
       localeProperty().addListener( ( c, o, n ) -> rerender() );
       fontFamilyProperty().addListener( ( c, o, n ) -> rerender() );
       fontSizeProperty().addListener( ( c, o, n ) -> rerender() );
+
+      // Scrolls requested before layout completes are applied afterwards.
+      mView.setLayoutListener( this::scrollToOffset );
+
+      // Show any document that was rendered before the view was ready.
+      rerender();
     } );
 
     register( this );
@@ -158,12 +168,23 @@ public final class HtmlPreview extends SwingNode {
   }
 
   /**
-   * Updates the internal HTML source shown in the preview pane.
+   * Updates the internal HTML source shown in the preview pane. This is
+   * typically called from the render thread; the HTML is parsed and converted
+   * to a document object model on the calling thread and only the resulting
+   * document is passed to the Swing event dispatch thread.
    *
-   * @param html The new HTML document to display.
+   * @param html The new HTML document body to display.
    */
   public void render( final String html ) {
-    mView.render( decorate( html ), getBaseUri() );
+    mBody = html;
+
+    final var view = mView;
+
+    // Until the view is created, retain the document for the initial render.
+    // The head and body are parsed separately, rather than concatenated.
+    if( view != null ) {
+      view.render( mHead, html, getBaseUri() );
+    }
   }
 
   /**
@@ -179,22 +200,7 @@ public final class HtmlPreview extends SwingNode {
    */
   private void rerender() {
     mHead = generateHead();
-    render( mDocument.toString() );
-  }
-
-  /**
-   * Attaches the HTML head prefix and HTML tail suffix to the given HTML
-   * string.
-   *
-   * @param html The HTML to adorn with opening and closing tags.
-   * @return A complete HTML document, ready for rendering.
-   */
-  private String decorate( final String html ) {
-    mDocument.setLength( 0 );
-    mDocument.append( html );
-
-    // Head and tail must be separate from document due to re-rendering.
-    return mHead + mDocument.toString() + HTML_TAIL;
+    render( mBody );
   }
 
   /**
@@ -239,87 +245,66 @@ public final class HtmlPreview extends SwingNode {
   }
 
   /**
-   * Scrolls to the closest element matching the given identifier without
-   * waiting for the document to be ready.
+   * Scrolls to the element nearest the given offset into the source
+   * document. This uses the element positions from the most recent layout,
+   * so moving the caret does not require processing the document. When the
+   * document has yet to be laid out, scrolling is deferred until layout
+   * completes, rather than polling for the element.
    *
-   * @param id Scroll the preview pane to this unique paragraph identifier.
+   * @param offset Offset into the source document, usually the caret.
    */
-  public void scrollTo( final String id ) {
+  public void scrollTo( final int offset ) {
     if( mLocked ) {
       return;
     }
 
-    final Runnable scrollToBox = () -> {
-      int iter = 0;
-      Box box = null;
-
-      while( iter++ < 3 && ((box = mView.getBoxById( id )) == null) ) {
-        try {
-          sleep( 10 );
-        } catch( final Exception ex ) {
-          clue( ex );
-        }
-      }
-
-      scrollTo( box );
-    };
-
-    if( Platform.isFxApplicationThread() ) {
-      scrollToBox.run();
-    }
-    else {
-      runLater( scrollToBox );
-    }
+    invokeLater( () -> {
+      mScrollOffset = offset;
+      scrollToOffset();
+    } );
   }
 
   /**
-   * Scrolls to the location specified by the {@link Box} that corresponds
-   * to a point somewhere in the preview pane. If there is no caret, then
-   * this will not change the scroll position. Changing the scroll position
-   * to the top if the {@link Box} instance is {@code null} will result in
-   * jumping around a lot and inconsistent synchronization issues.
+   * Returns the vertical position in the preview that corresponds to the
+   * given offset into the source document. This must be called from the
+   * Swing event dispatch thread.
    *
-   * @param box The rectangular region containing the caret, or {@code null}
-   *            if the HTML does not have a caret.
+   * @param offset Offset into the source document.
+   * @return The vertical position, or {@code -1} if the document has not
+   * been laid out or has no elements that map to source offsets.
    */
-  private void scrollTo( final Box box ) {
-    if( box != null ) {
-      scrollTo( createPoint( box ) );
-    }
-  }
+  public int getOffsetY( final int offset ) {
+    final var view = mView;
+    final var index = view == null ? null : view.getBoxIndex();
 
-  private void scrollTo( final Point point ) {
-    invokeLater( () -> {
-      mView.scrollTo( point );
-      getScrollPane().repaint();
-    } );
+    return index == null ? -1 : index.findY( offset );
   }
 
   /**
-   * Creates a {@link Point} to use as a reference for scrolling to the area
-   * described by the given {@link Box}. The {@link Box} coordinates are used
-   * to populate the {@link Point}'s location, with minor adjustments for
-   * vertical centering.
-   *
-   * @param box The {@link Box} that represents a scrolling anchor reference.
-   * @return A coordinate suitable for scrolling to.
+   * Scrolls to the pending offset, provided the document has been laid out.
+   * Called on the Swing event dispatch thread after scroll requests and
+   * after each layout.
    */
-  private Point createPoint( final Box box ) {
-    assert box != null;
-
-    // Scroll back up by half the height of the scroll bar to keep the typing
-    // area within the view port. Otherwise the view port will have jumped too
-    // high up and the most recently typed letters won't be visible.
-    int y = max( box.getAbsY() - getVerticalScrollBarHeight() / 2, 0 );
-    int x = box.getAbsX();
-
-    if( !box.getStyle().isInline() ) {
-      final var margin = box.getMargin( mView.getLayoutContext() );
-      y += margin.top();
-      x += margin.left();
+  private void scrollToOffset() {
+    final var index = mView.getBoxIndex();
+
+    if( index == null || mScrollOffset < 0 ) {
+      return;
     }
 
-    return new Point( x, y );
+    final var point = index.find( mScrollOffset );
+    mScrollOffset = -1;
+
+    if( point != null ) {
+      // Scroll back up by half the height of the scroll bar to keep the
+      // typing area within the view port. Otherwise the view port will have
+      // jumped too high up and the most recently typed letters won't be
+      // visible.
+      point.y = max( point.y - getVerticalScrollBarHeight() / 2, 0 );
+
+      mView.scrollTo( point );
+      getScrollPane().repaint();
+    }
   }
 
   private String getBaseUri() {
@@ -0,0 +1,99 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+/**
+ * Responsible for substituting typographic ligatures (ff, fi, fl, ffi, ffl)
+ * into text. Every ligature begins with "f", so the set of ligatures is
+ * compiled into a fixed decision tree rather than being searched for one
+ * at a time. Text is scanned once; longer ligatures take precedence, so
+ * that "ruffian" uses the "ffi" ligature, not the "ff" ligature.
+ * <p>
+ * Text without ligatures, which is most text, is returned without
+ * allocating memory. Otherwise, a single array is allocated for the result.
+ * </p>
+ */
+final class LigatureSubstituter {
+  private static final char FF = '\uFB00';
+  private static final char FI = '\uFB01';
+  private static final char FL = '\uFB02';
+  private static final char FFI = '\uFB03';
+  private static final char FFL = '\uFB04';
+
+  private LigatureSubstituter() {
+  }
+
+  /**
+   * Replaces letter sequences with their equivalent ligatures.
+   *
+   * @param text The text to scan for ligatures.
+   * @return The given text instance if no ligatures were found, otherwise
+   * new text having all ligatures substituted.
+   */
+  static String substitute( final String text ) {
+    final var length = text.length();
+    var i = text.indexOf( 'f' );
+
+    // Find the first ligature without allocating.
+    while( i >= 0 && i + 1 < length && !isLigature( text.charAt( i + 1 ) ) ) {
+      i = text.indexOf( 'f', i + 1 );
+    }
+
+    if( i < 0 || i + 1 >= length ) {
+      return text;
+    }
+
+    final var result = new char[ length ];
+    text.getChars( 0, i, result, 0 );
+    var j = i;
+
+    while( i < length ) {
+      final var c = text.charAt( i );
+
+      if( c == 'f' && i + 1 < length ) {
+        final var next = text.charAt( i + 1 );
+
+        if( next == 'f' ) {
+          final var last = i + 2 < length ? text.charAt( i + 2 ) : 0;
+
+          if( last == 'i' ) {
+            result[ j++ ] = FFI;
+            i += 3;
+          }
+          else if( last == 'l' ) {
+            result[ j++ ] = FFL;
+            i += 3;
+          }
+          else {
+            result[ j++ ] = FF;
+            i += 2;
+          }
+
+          continue;
+        }
+        else if( next == 'i' ) {
+          result[ j++ ] = FI;
+          i += 2;
+          continue;
+        }
+        else if( next == 'l' ) {
+          result[ j++ ] = FL;
+          i += 2;
+          continue;
+        }
+      }
+
+      result[ j++ ] = c;
+      i++;
+    }
+
+    return new String( result, 0, j );
+  }
+
+  /**
+   * Answers whether the given character, following an "f", begins a
+   * ligature.
+   */
+  private static boolean isLigature( final char c ) {
+    return c == 'f' || c == 'i' || c == 'l';
+  }
+}
@@ -0,0 +1,102 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import org.jsoup.nodes.Document;
+
+import java.util.Arrays;
+
+import static com.keenwrite.Constants.CARET_ID;
+
+/**
+ * Responsible for mapping offsets into the source document to the
+ * identifiers of the preview's elements. Elements are identified by the
+ * offset where their source text begins (see {@link #toId(int)}). Once
+ * the document is laid out, the offsets are resolved to positions (see
+ * {@link BoxIndex}), which allows scrolling the preview to the caret without
+ * processing the document again.
+ */
+public final class OffsetIndex {
+  /**
+   * Prefix for element identifiers that encode source offsets.
+   */
+  private static final String PREFIX = CARET_ID + '-';
+
+  /**
+   * Index for documents without any identifiable elements.
+   */
+  public static final OffsetIndex EMPTY = new OffsetIndex( new int[ 0 ] );
+
+  /**
+   * Sorted source offsets of all identified elements.
+   */
+  private final int[] mOffsets;
+
+  private OffsetIndex( final int[] offsets ) {
+    mOffsets = offsets;
+  }
+
+  /**
+   * Creates an index of all elements having an identifier that encodes a
+   * source offset.
+   *
+   * @param document The HTML document to index.
+   * @return An index of the document's source offsets.
+   */
+  public static OffsetIndex of( final Document document ) {
+    final var elements =
+      document.getElementsByAttributeValueStarting( "id", PREFIX );
+    final var offsets = new int[ elements.size() ];
+    var count = 0;
+
+    for( final var element : elements ) {
+      final var offset = toOffset( element.id() );
+
+      if( offset >= 0 ) {
+        offsets[ count++ ] = offset;
+      }
+    }
+
+    final var sorted = Arrays.copyOf( offsets, count );
+    Arrays.sort( sorted );
+
+    return new OffsetIndex( sorted );
+  }
+
+  /**
+   * Returns the number of identified elements.
+   *
+   * @return The number of source offsets in this index.
+   */
+  int size() {
+    return mOffsets.length;
+  }
+
+  /**
+   * Returns the source offset for the element at the given index.
+   *
+   * @param index The element's position in this index, in ascending offset
+   *              order.
+   * @return The offset into the source document for the element.
+   */
+  int getOffset( final int index ) {
+    return mOffsets[ index ];
+  }
+
+  /**
+   * Returns an element identifier that encodes the given source offset.
+   *
+   * @param offset Offset into the source document.
+   * @return A unique identifier for an HTML element.
+   */
+  public static String toId( final int offset ) {
+    return PREFIX + offset;
+  }
+
+  private static int toOffset( final String id ) {
+    try {
+      return Integer.parseInt( id, PREFIX.length(), id.length(), 10 );
+    } catch( final NumberFormatException ex ) {
+      return -1;
+    }
+  }
+}
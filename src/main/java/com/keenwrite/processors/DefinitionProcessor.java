@@ -1,9 +1,14 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.processors;
 
-import java.util.Map;
+import com.keenwrite.editors.definition.Definitions;
+import com.keenwrite.processors.text.OffsetMap;
+import com.keenwrite.processors.text.SigilReplacer;
 
-import static com.keenwrite.processors.text.TextReplacementFactory.replace;
+import java.util.function.Supplier;
+
+import static com.keenwrite.preferences.WorkspaceKeys.KEY_DEF_DELIM_BEGAN;
+import static com.keenwrite.preferences.WorkspaceKeys.KEY_DEF_DELIM_ENDED;
 
 /**
  * Processes interpolated string definitions in the document and inserts
@@ -12,7 +17,14 @@ import static com.keenwrite.processors.text.TextReplacementFactory.replace;
  */
 public class DefinitionProcessor extends ExecutorProcessor<String> {
 
-  private final Map<String, String> mDefinitions;
+  private final ProcessorContext mContext;
+  private final SigilReplacer mReplacer;
+
+  /**
+   * Maps offsets in the most recently processed text back to the source
+   * text, {@code null} unless tracking offsets.
+   */
+  private volatile OffsetMap mOffsetMap;
 
   /**
    * Constructs a processor capable of interpolating string definitions.
@@ -24,7 +36,9 @@ public class DefinitionProcessor extends ExecutorProcessor<String> {
       final Processor<String> successor,
       final ProcessorContext context ) {
     super( successor );
-    mDefinitions = context.getResolvedMap();
+    mContext = context;
+    mReplacer = new SigilReplacer( context.getWorkspace().toTokens(
+      KEY_DEF_DELIM_BEGAN, KEY_DEF_DELIM_ENDED ) );
   }
 
   /**
@@ -36,15 +50,40 @@ public class DefinitionProcessor extends ExecutorProcessor<String> {
    */
   @Override
   public String apply( final String text ) {
-    return replace( text, getDefinitions() );
+    final var definitions = getDefinitions();
+
+    if( mOffsetMap == null ) {
+      return mReplacer.replace( text, definitions );
+    }
+
+    final var offsets = new OffsetMap.Builder();
+    final var result = mReplacer.replace( text, definitions, offsets );
+    mOffsetMap = offsets.build();
+
+    return result;
+  }
+
+  /**
+   * Records where definitions are substituted in subsequently processed text,
+   * so that successors can translate positions in the text they receive
+   * (e.g., of syntax errors) to positions in the text being edited.
+   *
+   * @return Supplies the offset map for the most recently processed text.
+   */
+  public Supplier<OffsetMap> trackOffsets() {
+    if( mOffsetMap == null ) {
+      mOffsetMap = OffsetMap.IDENTITY;
+    }
+
+    return () -> mOffsetMap;
   }
 
   /**
    * Returns the map to use for variable substitution.
    *
-   * @return A map of variable names to values.
+   * @return An immutable map of variable names to values.
    */
-  protected Map<String, String> getDefinitions() {
-    return mDefinitions;
+  protected Definitions getDefinitions() {
+    return mContext.getResolvedMap();
   }
 }
@@ -4,12 +4,13 @@ package com.keenwrite.processors;
 import com.keenwrite.Caret;
 import com.keenwrite.Constants;
 import com.keenwrite.ExportFormat;
+import com.keenwrite.editors.definition.Definitions;
 import com.keenwrite.io.FileType;
 import com.keenwrite.preferences.Workspace;
 import com.keenwrite.preview.HtmlPreview;
 
 import java.nio.file.Path;
-import java.util.Map;
+import java.util.function.Supplier;
 
 import static com.keenwrite.AbstractFileFactory.lookup;
 import static com.keenwrite.Constants.DEFAULT_DIRECTORY;
@@ -19,7 +20,7 @@ import static com.keenwrite.Constants.DEFAULT_DIRECTORY;
  */
 public final class ProcessorContext {
   private final HtmlPreview mHtmlPreview;
-  private final Map<String, String> mResolvedMap;
+  private final Supplier<Definitions> mDefinitions;
   private final Path mDocumentPath;
   private final Caret mCaret;
   private final ExportFormat mExportFormat;
@@ -32,7 +33,7 @@ public final class ProcessorContext {
    * all parameters.
    *
    * @param htmlPreview  Where to display the final (HTML) output.
-   * @param resolvedMap  Fully expanded interpolated strings.
+   * @param definitions  Supplies the most recently resolved definitions.
    * @param documentPath Path to the document to process.
    * @param caret        Location of the caret in the edited document, which is
    *                     used to synchronize the scrollbars.
@@ -40,20 +41,20 @@ public final class ProcessorContext {
    */
   public ProcessorContext(
     final HtmlPreview htmlPreview,
-    final Map<String, String> resolvedMap,
+    final Supplier<Definitions> definitions,
     final Path documentPath,
     final Caret caret,
     final ExportFormat exportFormat,
     final Workspace workspace ) {
     assert htmlPreview != null;
-    assert resolvedMap != null;
+    assert definitions != null;
     assert documentPath != null;
     assert caret != null;
     assert exportFormat != null;
     assert workspace != null;
 
     mHtmlPreview = htmlPreview;
-    mResolvedMap = resolvedMap;
+    mDefinitions = definitions;
     mDocumentPath = documentPath;
     mCaret = caret;
     mExportFormat = exportFormat;
@@ -69,12 +70,25 @@ public final class ProcessorContext {
   }
 
   /**
-   * Returns the variable map of interpolated definitions.
+   * Returns the most recently resolved definitions. The definitions may
+   * change between calls, so processors should call this once per document
+   * and use the same snapshot throughout.
    *
-   * @return A map to help dereference variables.
+   * @return An immutable snapshot to help dereference variables.
    */
-  Map<String, String> getResolvedMap() {
-    return mResolvedMap;
+  Definitions getResolvedMap() {
+    return mDefinitions.get();
+  }
+
+  /**
+   * Returns a value that changes whenever the interpolated definitions
+   * change. Processors that retain output derived from definitions use this
+   * to discard stale results.
+   *
+   * @return A stamp identifying the current set of definitions.
+   */
+  public long getDefinitionsVersion() {
+    return getResolvedMap().getVersion();
   }
 
   public ExportFormat getExportFormat() {
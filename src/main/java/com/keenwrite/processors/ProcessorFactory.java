@@ -127,8 +127,14 @@ public final class ProcessorFactory extends AbstractFileFactory {
 
   private Processor<String> createXmlProcessor(
     final Processor<String> successor ) {
-    final var xmlp = new XmlProcessor( successor, getProcessorContext() );
-    return createDefinitionProcessor( xmlp );
+    final var context = getProcessorContext();
+    final var xmlp = new XmlProcessor( successor, context );
+    final var dp = new DefinitionProcessor( xmlp, context );
+
+    // Report XML errors at their positions within the edited text.
+    xmlp.setOffsetMap( dp.trackOffsets() );
+
+    return dp;
   }
 
   private Processor<String> createPreformattedProcessor(
@@ -0,0 +1,235 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.keenwrite.events.StatusEvent.clue;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Responsible for coalescing render requests such that only the most recent
+ * request for a given key (typically a text editor) is executed. Requests
+ * that arrive while a render is in flight replace any pending request, so
+ * that at most one render is running and at most one render is waiting per
+ * key. Superseded requests are dropped without being run.
+ * <p>
+ * The delay before running a pending request adapts to the measured cost
+ * of previous renders: cheap documents render almost immediately, whereas
+ * expensive documents wait long enough for bursts of keystrokes to settle.
+ * </p>
+ */
+public final class RenderScheduler {
+  /**
+   * Shortest delay (in milliseconds) before a pending render is executed.
+   */
+  private static final long DELAY_MIN = 5;
+
+  /**
+   * Longest delay (in milliseconds) before a pending render is executed.
+   */
+  private static final long DELAY_MAX = 500;
+
+  /**
+   * Weight given to the most recent render duration when computing the
+   * moving average of render costs.
+   */
+  private static final double COST_WEIGHT = 0.3;
+
+  /**
+   * Tracks the pending render and cost statistics for a single key.
+   */
+  private final class Slot {
+    private final AtomicReference<Runnable> mPending = new AtomicReference<>();
+    private final AtomicBoolean mRunning = new AtomicBoolean();
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    /**
+     * Exponentially weighted moving average of render durations, in
+     * milliseconds.
+     */
+    private volatile double mCost;
+
+    /**
+     * Replaces any pending render with the given render, then arranges for
+     * the pending render to run after the debounce delay.
+     *
+     * @param render The latest render request, supersedes all prior requests.
+     */
+    private void submit( final Runnable render ) {
+      mPending.set( render );
+      schedule();
+    }
+
+    private void schedule() {
+      if( mScheduled.compareAndSet( false, true ) ) {
+        mTimer.schedule( () -> {
+          mScheduled.set( false );
+          drain();
+        }, getDelay(), MILLISECONDS );
+      }
+    }
+
+    /**
+     * Runs the most recent pending render, provided no render is in flight.
+     * When a render completes and another request arrived in the meantime,
+     * the newer request is scheduled.
+     */
+    private void drain() {
+      if( !mRunning.compareAndSet( false, true ) ) {
+        // The in-flight render will reschedule upon completion.
+        return;
+      }
+
+      final var render = mPending.getAndSet( null );
+
+      if( render == null ) {
+        mRunning.set( false );
+        return;
+      }
+
+      try {
+        mExecutor.execute( () -> {
+          final var began = nanoTime();
+
+          try {
+            render.run();
+          } catch( final Exception ex ) {
+            clue( ex );
+          } finally {
+            measure( nanoTime() - began );
+            mRunning.set( false );
+
+            if( mPending.get() != null ) {
+              schedule();
+            }
+          }
+        } );
+      } catch( final Exception ex ) {
+        mRunning.set( false );
+        clue( ex );
+      }
+    }
+
+    private void measure( final long elapsed ) {
+      final var millis = NANOSECONDS.toMillis( elapsed );
+      mCost = mCost * (1 - COST_WEIGHT) + millis * COST_WEIGHT;
+    }
+
+    /**
+     * Returns the number of milliseconds to wait before rendering. The delay
+     * equals the moving average render cost, so that while typing, each
+     * render is followed by a wait about as long as the render itself.
+     * Cheap renders still wait {@link #DELAY_MIN}, and renders costing more
+     * than {@link #DELAY_MAX} wait no longer, to keep the preview responsive.
+     *
+     * @return A value between {@link #DELAY_MIN} and {@link #DELAY_MAX}.
+     */
+    private long getDelay() {
+      return min( max( (long) mCost, DELAY_MIN ), DELAY_MAX );
+    }
+  }
+
+  /**
+   * Maps keys (e.g., text editors) to their render state.
+   */
+  private final Map<Object, Slot> mSlots = new ConcurrentHashMap<>();
+
+  /**
+   * Runs the render tasks.
+   */
+  private final Executor mExecutor;
+
+  /**
+   * Delays render tasks until the debounce window has elapsed.
+   */
+  private final ScheduledExecutorService mTimer =
+    newSingleThreadScheduledExecutor( r -> createThread( r, "render-timer" ) );
+
+  /**
+   * Creates a new scheduler that runs coalesced render requests on a
+   * dedicated background thread. Parsing, substitution, and conversion to
+   * a document object model therefore happen outside of both the JavaFX
+   * application thread and the Swing event dispatch thread.
+   */
+  public RenderScheduler() {
+    this( newSingleThreadExecutor( r -> createThread( r, "render" ) ) );
+  }
+
+  /**
+   * Creates a new scheduler that runs coalesced render requests using the
+   * given {@link Executor}.
+   *
+   * @param executor Responsible for running the render requests.
+   */
+  public RenderScheduler( final Executor executor ) {
+    assert executor != null;
+    mExecutor = executor;
+  }
+
+  /**
+   * Requests that the given render task be executed on behalf of the given
+   * key. Any pending (not yet started) render task for the same key is
+   * discarded.
+   *
+   * @param key    Identifies the source of the render request.
+   * @param render The render task to execute.
+   */
+  public void submit( final Object key, final Runnable render ) {
+    assert key != null;
+    assert render != null;
+
+    mSlots.computeIfAbsent( key, k -> new Slot() ).submit( render );
+  }
+
+  /**
+   * Discards any state associated with the given key, such as when an editor
+   * is closed. A render that is in flight will run to completion.
+   *
+   * @param key Identifies the source of prior render requests.
+   */
+  public void remove( final Object key ) {
+    final var slot = mSlots.remove( key );
+
+    if( slot != null ) {
+      slot.mPending.set( null );
+    }
+  }
+
+  /**
+   * Returns the average cost of rendering documents for the given key.
+   *
+   * @param key Identifies the source of prior render requests.
+   * @return The moving average render duration, in milliseconds, or zero if
+   * nothing has been rendered for the key.
+   */
+  public double getCost( final Object key ) {
+    final var slot = mSlots.get( key );
+    return slot == null ? 0 : slot.mCost;
+  }
+
+  /**
+   * Creates a daemon thread so that pending renders do not prevent the
+   * application from exiting.
+   *
+   * @param runnable The task for the thread to run.
+   * @param name     The thread name, helpful when profiling.
+   * @return A new, unstarted daemon thread.
+   */
+  private static Thread createThread(
+    final Runnable runnable, final String name ) {
+    final var thread = new Thread( runnable, name );
+    thread.setDaemon( true );
+    return thread;
+  }
+}
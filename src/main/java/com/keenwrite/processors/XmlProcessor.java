@@ -1,6 +1,7 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.processors;
 
+import com.keenwrite.processors.text.OffsetMap;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.TransformerFactoryImpl;
 import net.sf.saxon.om.IgnorableSpaceStrippingRule;
@@ -18,7 +19,9 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.function.Supplier;
 
+import static com.keenwrite.Constants.STATUS_PARSE_ERROR;
 import static com.keenwrite.events.StatusEvent.clue;
 import static javax.xml.stream.XMLInputFactory.newInstance;
 import static net.sf.saxon.tree.util.ProcInstParser.getPseudoAttribute;
@@ -45,6 +48,17 @@ public final class XmlProcessor extends ExecutorProcessor<String>
 
   private final Path mPath;
 
+  /**
+   * Maps offsets in the text being transformed to offsets in the text being
+   * edited, which differ after definitions are substituted.
+   */
+  private Supplier<OffsetMap> mOffsetMap = () -> OffsetMap.IDENTITY;
+
+  /**
+   * The text being transformed, used to locate errors.
+   */
+  private volatile String mText = "";
+
   /**
    * Constructs an XML processor that can transform an XML document into another
    * format based on the XSL file specified as a processing instruction. The
@@ -94,6 +108,8 @@ public final class XmlProcessor extends ExecutorProcessor<String>
     try(
       final var output = new StringWriter( text.length() );
       final var input = new StringReader( text ) ) {
+      mText = text;
+
       // Extract the XML stylesheet processing instruction.
       final var template = getXsltFilename( text );
       final var xsl = getXslPath( template );
@@ -192,6 +208,56 @@ public final class XmlProcessor extends ExecutorProcessor<String>
     return mXmlInputFactory.createXMLEventReader( reader );
   }
 
+  /**
+   * Sets the source of offset maps that translate positions in the
+   * transformed text to positions in the edited text.
+   *
+   * @param offsetMap Supplies the map for the most recently substituted text.
+   */
+  public void setOffsetMap( final Supplier<OffsetMap> offsetMap ) {
+    assert offsetMap != null;
+    mOffsetMap = offsetMap;
+  }
+
+  /**
+   * Informs the user of a problem, at its position in the edited text when
+   * the position is known.
+   *
+   * @param ex The problem the transformer encountered.
+   */
+  private void report( final TransformerException ex ) {
+    final var locator = ex.getLocator();
+    final var text = mText;
+
+    if( locator == null || locator.getLineNumber() < 1 ) {
+      clue( ex );
+    }
+    else {
+      final var offset = toOffset(
+        text, locator.getLineNumber(), locator.getColumnNumber() );
+
+      clue( STATUS_PARSE_ERROR,
+            ex.getMessage(), mOffsetMap.get().toSource( offset ) );
+    }
+  }
+
+  /**
+   * Converts a one-based line and column number into an offset.
+   */
+  private static int toOffset(
+    final String text, final int line, final int column ) {
+    var offset = 0;
+
+    for( var i = 1; i < line && offset >= 0; i++ ) {
+      offset = text.indexOf( '\n', offset );
+      offset = offset < 0 ? -1 : offset + 1;
+    }
+
+    return offset < 0
+      ? text.length()
+      : Math.min( offset + Math.max( column - 1, 0 ), text.length() );
+  }
+
   private synchronized TransformerFactory getTransformerFactory() {
     return mTransformerFactory;
   }
@@ -203,7 +269,7 @@ public final class XmlProcessor extends ExecutorProcessor<String>
    */
   @Override
   public void warning( final TransformerException ex ) {
-    clue( ex );
+    report( ex );
   }
 
   /**
@@ -213,7 +279,7 @@ public final class XmlProcessor extends ExecutorProcessor<String>
    */
   @Override
   public void error( final TransformerException ex ) {
-    clue( ex );
+    report( ex );
   }
 
   /**
@@ -224,6 +290,6 @@ public final class XmlProcessor extends ExecutorProcessor<String>
    */
   @Override
   public void fatalError( final TransformerException ex ) {
-    clue( ex );
+    report( ex );
   }
 }
@@ -4,6 +4,8 @@ package com.keenwrite.processors.markdown;
 import com.keenwrite.processors.ExecutorProcessor;
 import com.keenwrite.processors.Processor;
 import com.keenwrite.processors.ProcessorContext;
+import com.keenwrite.processors.markdown.extensions.CaretExtension;
+import com.keenwrite.processors.markdown.extensions.DocumentOutlineExtension;
 import com.keenwrite.processors.markdown.extensions.fences.FencedDivExtension;
 import com.keenwrite.processors.markdown.extensions.r.RExtension;
 import com.vladsch.flexmark.ext.definition.DefinitionExtension;
@@ -20,6 +22,9 @@ import com.vladsch.flexmark.util.misc.Extension;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
+
+import static com.keenwrite.ExportFormat.NONE;
 
 /**
  * Responsible for parsing and rendering Markdown into HTML. This is required
@@ -31,6 +36,12 @@ public class BaseMarkdownProcessor extends ExecutorProcessor<String> {
   private final IParse mParser;
   private final IRender mRenderer;
 
+  /**
+   * Renders the preview incrementally; {@code null} when every call must
+   * parse and render the entire document.
+   */
+  private final Function<String, String> mBlockRenderer;
+
   public BaseMarkdownProcessor(
     final Processor<String> successor, final ProcessorContext context ) {
     super( successor );
@@ -39,6 +50,49 @@ public class BaseMarkdownProcessor extends ExecutorProcessor<String> {
 
     mParser = Parser.builder().extensions( extensions ).build();
     mRenderer = HtmlRenderer.builder().extensions( extensions ).build();
+    mBlockRenderer = isIncremental( context, extensions )
+      ? createBlockRenderer( context, extensions )
+      : null;
+  }
+
+  /**
+   * Answers whether the document may be rendered incrementally. Only the
+   * preview is rendered incrementally because exports happen once. R
+   * expressions are evaluated in document order while parsing, which
+   * requires parsing the whole document.
+   */
+  private boolean isIncremental(
+    final ProcessorContext context, final List<Extension> extensions ) {
+    return context.isExportFormat( NONE ) &&
+      extensions.stream().noneMatch( e -> e instanceof RExtension );
+  }
+
+  /**
+   * Creates a {@link BlockRenderer} that parses blocks without announcing
+   * a new document outline for each block. Instead, the outline is rebuilt
+   * from all blocks after rendering. Similarly, blocks are rendered without
+   * offset identifiers, which the {@link BlockRenderer} adds itself.
+   */
+  private Function<String, String> createBlockRenderer(
+    final ProcessorContext context, final List<Extension> extensions ) {
+    DocumentOutlineExtension outline = null;
+    final var blockExtensions = new ArrayList<Extension>( extensions.size() );
+
+    for( final var extension : extensions ) {
+      if( extension instanceof DocumentOutlineExtension ) {
+        outline = (DocumentOutlineExtension) extension;
+      }
+      else if( !(extension instanceof CaretExtension) ) {
+        blockExtensions.add( extension );
+      }
+    }
+
+    final var parser = Parser.builder().extensions( blockExtensions ).build();
+    final var renderer =
+      HtmlRenderer.builder().extensions( blockExtensions ).build();
+
+    return new BlockRenderer(
+      parser, renderer, outline, context, text -> toHtml( parse( text ) ) );
   }
 
   /**
@@ -73,7 +127,9 @@ public class BaseMarkdownProcessor extends ExecutorProcessor<String> {
    */
   @Override
   public String apply( final String markdown ) {
-    return toHtml( parse( markdown ) );
+    return mBlockRenderer == null
+      ? toHtml( parse( markdown ) )
+      : mBlockRenderer.apply( markdown );
   }
 
   /**
@@ -0,0 +1,303 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.markdown;
+
+import com.keenwrite.processors.ProcessorContext;
+import com.keenwrite.processors.markdown.extensions.DocumentOutlineExtension;
+import com.keenwrite.util.BoundedCache;
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.IParse;
+import com.vladsch.flexmark.util.ast.IRender;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static com.keenwrite.events.ParseHeadingEvent.fireNewOutlineEvent;
+import static com.keenwrite.preview.OffsetIndex.toId;
+import static com.keenwrite.processors.markdown.BlockSplitter.isSplittable;
+import static com.keenwrite.processors.markdown.BlockSplitter.split;
+import static com.keenwrite.util.MurmurHash.hash32;
+
+/**
+ * Responsible for converting Markdown to HTML incrementally. The document
+ * is divided into top-level blocks (see {@link BlockSplitter}), each of which
+ * retains its abstract syntax tree and HTML between calls. Only the blocks
+ * that differ from the previously rendered document are parsed again, so
+ * the cost of rendering tracks the size of an edit rather than the length
+ * of the document.
+ * <p>
+ * The edited region is found by comparing the new document against the
+ * retained blocks from both ends. This tolerates any number of edits having
+ * been coalesced into a single render request.
+ * </p>
+ * <p>
+ * Blocks that fall within the edited region are looked up in a cache keyed
+ * by a hash of their text, seeded with the definitions' version, before
+ * being parsed. This reuses the HTML for blocks that were moved, restored
+ * (e.g., by undo), or merged back after a structural edit, such as opening
+ * and closing a code fence.
+ * </p>
+ * <p>
+ * Blocks are rendered without any reference to their position within the
+ * document. Instead, the first element of every block is given an identifier
+ * that encodes the block's current offset while the HTML is assembled. This
+ * keeps the retained HTML valid when preceding blocks change length and lets
+ * the preview scroll to the caret without rendering again.
+ * </p>
+ */
+final class BlockRenderer implements Function<String, String> {
+  /**
+   * Maximum number of parsed blocks to retain for reuse.
+   */
+  private static final int CACHE_SIZE = 8192;
+
+  /**
+   * A top-level fragment of the document, parsed independently.
+   */
+  private final class Block {
+    private final String mText;
+    private final Document mDocument;
+    private final boolean mHeadings;
+    private final String mHtml;
+    private int mOffset;
+
+    private Block( final String text, final int offset ) {
+      mText = text;
+      mOffset = offset;
+      mDocument = (Document) mParser.parse( text );
+      mHeadings = hasHeadings( mDocument );
+      mHtml = mRenderer.render( mDocument );
+    }
+
+    /**
+     * Reuses the parsed document and HTML from a block having identical
+     * text, which is safe because neither depends on the block's offset.
+     */
+    private Block( final Block block, final int offset ) {
+      mText = block.mText;
+      mOffset = offset;
+      mDocument = block.mDocument;
+      mHeadings = block.mHeadings;
+      mHtml = block.mHtml;
+    }
+
+    private boolean matches( final String text, final int began ) {
+      return text.regionMatches( began, mText, 0, mText.length() );
+    }
+
+    private int length() {
+      return mText.length();
+    }
+  }
+
+  private final IParse mParser;
+  private final IRender mRenderer;
+  private final DocumentOutlineExtension mOutline;
+  private final ProcessorContext mContext;
+  private final Function<String, String> mFallback;
+
+  /**
+   * Parsed blocks keyed by a hash of their text, seeded with the version of
+   * the definitions that were in effect when the block was rendered.
+   */
+  private final Map<Integer, Block> mCache = new BoundedCache<>( CACHE_SIZE );
+
+  private List<Block> mBlocks = new ArrayList<>();
+  private long mVersion;
+
+  /**
+   * Creates a new incremental renderer.
+   *
+   * @param parser   Parses individual blocks, must not fire outline events.
+   * @param renderer Converts parsed blocks to HTML.
+   * @param outline  Fires outline events for headings, may be {@code null}.
+   * @param context  Provides the definitions' version.
+   * @param fallback Renders documents that cannot be divided into blocks.
+   */
+  BlockRenderer(
+    final IParse parser,
+    final IRender renderer,
+    final DocumentOutlineExtension outline,
+    final ProcessorContext context,
+    final Function<String, String> fallback ) {
+    mParser = parser;
+    mRenderer = renderer;
+    mOutline = outline;
+    mContext = context;
+    mFallback = fallback;
+  }
+
+  /**
+   * Converts the given Markdown document into HTML, reusing the HTML for
+   * blocks that have not changed since the previous call.
+   *
+   * @param text The Markdown document to convert.
+   * @return The HTML representation of the given document.
+   */
+  @Override
+  public String apply( final String text ) {
+    final var version = mContext.getDefinitionsVersion();
+
+    // Extensions interpolate definitions into the blocks' HTML.
+    if( version != mVersion ) {
+      mVersion = version;
+      mBlocks.clear();
+    }
+
+    if( !isSplittable( text ) ) {
+      mBlocks.clear();
+      return mFallback.apply( text );
+    }
+
+    final var offsets = split( text );
+    final var total = text.length();
+    final var prev = mBlocks;
+    final var n = offsets.length;
+    final var m = prev.size();
+
+    var head = 0;
+
+    while( head < n && head < m &&
+      isSame( prev.get( head ), text, offsets, head, total ) ) {
+      head++;
+    }
+
+    var tail = 0;
+
+    while( tail < n - head && tail < m - head &&
+      isSame( prev.get( m - 1 - tail ), text, offsets, n - 1 - tail, total ) ) {
+      tail++;
+    }
+
+    final var blocks = new ArrayList<Block>( n );
+    var capacity = 0;
+
+    for( var i = 0; i < n; i++ ) {
+      final var began = offsets[ i ];
+      final var ended = i + 1 < n ? offsets[ i + 1 ] : total;
+      final Block block;
+
+      if( i < head || i >= n - tail ) {
+        block = prev.get( i < head ? i : i - n + m );
+        block.mOffset = began;
+      }
+      else {
+        block = lookup( text, began, ended );
+      }
+
+      blocks.add( block );
+      capacity += block.mHtml.length() + 16;
+    }
+
+    mBlocks = blocks;
+    fireOutline( blocks );
+
+    final var html = new StringBuilder( capacity );
+
+    for( final var block : blocks ) {
+      append( html, block );
+    }
+
+    return html.toString();
+  }
+
+  /**
+   * Appends the block's HTML, identifying the block's first element by its
+   * current offset into the document. Elements that already have an
+   * identifier, or blocks that do not start with an element, are appended
+   * unchanged.
+   */
+  private void append( final StringBuilder html, final Block block ) {
+    final var text = block.mHtml;
+    final var length = text.length();
+
+    if( length > 1 && text.charAt( 0 ) == '<' &&
+      Character.isLetter( text.charAt( 1 ) ) ) {
+      var i = 2;
+
+      while( i < length && Character.isLetterOrDigit( text.charAt( i ) ) ) {
+        i++;
+      }
+
+      final var close = text.indexOf( '>', i );
+
+      if( close > 0 && !hasId( text, i, close ) ) {
+        html.append( text, 0, i )
+            .append( " id=\"" )
+            .append( toId( block.mOffset ) )
+            .append( '"' )
+            .append( text, i, length );
+        return;
+      }
+    }
+
+    html.append( text );
+  }
+
+  private static boolean hasId(
+    final String text, final int began, final int ended ) {
+    final var i = text.indexOf( " id=", began );
+    return i >= 0 && i < ended;
+  }
+
+  /**
+   * Returns the block for the given range of text, reusing the parsed
+   * document and HTML from the cache when possible.
+   */
+  private Block lookup( final String text, final int began, final int ended ) {
+    final var length = ended - began;
+    final var key = hash32( text, began, length, Long.hashCode( mVersion ) );
+    final var cached = mCache.get( key );
+    final Block block;
+
+    if( cached != null &&
+      cached.length() == length && cached.matches( text, began ) ) {
+      block = new Block( cached, began );
+    }
+    else {
+      block = new Block( text.substring( began, ended ), began );
+      mCache.put( key, block );
+    }
+
+    return block;
+  }
+
+  private boolean isSame(
+    final Block block,
+    final String text,
+    final int[] offsets,
+    final int index,
+    final int total ) {
+    final var began = offsets[ index ];
+    final var ended = index + 1 < offsets.length ? offsets[ index + 1 ] : total;
+
+    return block.length() == ended - began && block.matches( text, began );
+  }
+
+  /**
+   * Rebuilds the document outline using the headings of all blocks.
+   */
+  private void fireOutline( final List<Block> blocks ) {
+    if( mOutline != null ) {
+      fireNewOutlineEvent();
+
+      for( final var block : blocks ) {
+        if( block.mHeadings ) {
+          mOutline.fireHeadings( block.mDocument, block.mOffset );
+        }
+      }
+    }
+  }
+
+  private static boolean hasHeadings( final Document document ) {
+    for( final var node : document.getDescendants() ) {
+      if( node instanceof Heading ) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
@@ -0,0 +1,255 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.markdown;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import static java.lang.Character.isWhitespace;
+
+/**
+ * Responsible for dividing a Markdown document into top-level blocks that
+ * can be parsed independently of each other. A block boundary is placed only
+ * at a blank line that no Markdown construct can span, so that parsing each
+ * block in isolation produces the same result as parsing the whole document.
+ * When in doubt, adjacent blocks are kept together.
+ */
+final class BlockSplitter {
+  /**
+   * Link reference definitions may be referenced from anywhere in the
+   * document, which means blocks cannot be parsed in isolation.
+   */
+  private static final Pattern PATTERN_REFERENCE =
+    Pattern.compile( "^ {0,3}\\[[^]]+]:", Pattern.MULTILINE );
+
+  /**
+   * HTML elements that may contain blank lines.
+   */
+  private static final String[] HTML_RAW = {"pre", "script", "style",
+    "textarea"};
+
+  private BlockSplitter() {
+  }
+
+  /**
+   * Answers whether the given document may be split into blocks.
+   *
+   * @param text The document to split.
+   * @return {@code false} if a block's parsed result may depend on content
+   * from another block.
+   */
+  static boolean isSplittable( final String text ) {
+    return !PATTERN_REFERENCE.matcher( text ).find();
+  }
+
+  /**
+   * Returns the offsets into the given text where each block begins. The
+   * first offset is always zero; each block ends where the next begins, or
+   * at the end of the text. Blank lines belong to the preceding block.
+   *
+   * @param text The document to split.
+   * @return The starting offset of every block, in ascending order.
+   */
+  static int[] split( final String text ) {
+    final var length = text.length();
+    var offsets = new int[ 64 ];
+    var count = 1;
+
+    // Characters that close the current fenced code block, if any.
+    String fence = null;
+
+    // Text that closes the current raw HTML block, if any.
+    String raw = null;
+
+    var blank = false;
+    var began = 0;
+
+    while( began < length ) {
+      var ended = text.indexOf( '\n', began );
+      ended = ended < 0 ? length : ended + 1;
+
+      if( fence != null ) {
+        if( isFence( text, began, ended, fence ) ) {
+          fence = null;
+        }
+      }
+      else if( raw != null ) {
+        if( indexOf( text, raw, began, ended ) >= 0 ) {
+          raw = null;
+        }
+      }
+      else if( isBlank( text, began, ended ) ) {
+        blank = true;
+      }
+      else {
+        if( blank && began > 0 && isBoundary( text, began, ended ) ) {
+          if( count == offsets.length ) {
+            offsets = Arrays.copyOf( offsets, count << 1 );
+          }
+
+          offsets[ count++ ] = began;
+        }
+
+        blank = false;
+        fence = openFence( text, began, ended );
+
+        if( fence == null ) {
+          raw = openRaw( text, began, ended );
+        }
+      }
+
+      began = ended;
+    }
+
+    return Arrays.copyOf( offsets, count );
+  }
+
+  /**
+   * Answers whether a new block may start with the given line, which
+   * follows a blank line. Indented lines, list items, definitions, and
+   * HTML may continue a preceding block, so they never start a new block.
+   */
+  private static boolean isBoundary(
+    final String text, final int began, final int ended ) {
+    final var ch = text.charAt( began );
+
+    if( isWhitespace( ch ) || ch == '<' ) {
+      return false;
+    }
+
+    final var next = began + 1 < ended ? text.charAt( began + 1 ) : '\n';
+
+    return switch( ch ) {
+      case ':', '~' -> !(next == ' ' || next == '\t');
+      case '-', '*', '+' -> !(next == ' ' || next == '\t' || next == '\n' ||
+        next == '\r');
+      case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' ->
+        !isOrderedListItem( text, began, ended );
+      default -> true;
+    };
+  }
+
+  private static boolean isOrderedListItem(
+    final String text, int i, final int ended ) {
+    while( i < ended && Character.isDigit( text.charAt( i ) ) ) {
+      i++;
+    }
+
+    return i < ended && (text.charAt( i ) == '.' || text.charAt( i ) == ')');
+  }
+
+  /**
+   * Returns the fence characters that open a fenced code block.
+   *
+   * @return {@code null} if the line does not open a fenced code block.
+   */
+  private static String openFence(
+    final String text, final int began, final int ended ) {
+    var i = skipIndent( text, began, ended );
+
+    if( i >= ended ) {
+      return null;
+    }
+
+    final var ch = text.charAt( i );
+
+    if( ch != '`' && ch != '~' ) {
+      return null;
+    }
+
+    final var start = i;
+
+    while( i < ended && text.charAt( i ) == ch ) {
+      i++;
+    }
+
+    return i - start >= 3 ? text.substring( start, i ) : null;
+  }
+
+  /**
+   * Answers whether the given line closes the given fenced code block.
+   */
+  private static boolean isFence(
+    final String text, final int began, final int ended, final String fence ) {
+    final var ch = fence.charAt( 0 );
+    var i = skipIndent( text, began, ended );
+    final var start = i;
+
+    while( i < ended && text.charAt( i ) == ch ) {
+      i++;
+    }
+
+    return i - start >= fence.length() && isBlank( text, i, ended );
+  }
+
+  /**
+   * Returns the closing tag for an HTML element that may contain blank
+   * lines, or the end of an HTML comment.
+   *
+   * @return {@code null} if the line does not open such an element, or the
+   * element is closed on the same line.
+   */
+  private static String openRaw(
+    final String text, final int began, final int ended ) {
+    final var i = skipIndent( text, began, ended );
+
+    if( i >= ended || text.charAt( i ) != '<' ) {
+      return null;
+    }
+
+    String close = null;
+
+    if( text.startsWith( "<!--", i ) ) {
+      close = "-->";
+    }
+    else {
+      for( final var tag : HTML_RAW ) {
+        if( text.regionMatches( true, i + 1, tag, 0, tag.length() ) ) {
+          close = "</" + tag;
+          break;
+        }
+      }
+    }
+
+    return close == null || indexOf( text, close, i + 1, ended ) >= 0
+      ? null
+      : close;
+  }
+
+  private static int skipIndent(
+    final String text, final int began, final int ended ) {
+    var i = began;
+
+    while( i < ended && i - began < 3 && text.charAt( i ) == ' ' ) {
+      i++;
+    }
+
+    return i;
+  }
+
+  private static boolean isBlank(
+    final String text, final int began, final int ended ) {
+    for( var i = began; i < ended; i++ ) {
+      if( !isWhitespace( text.charAt( i ) ) ) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Case-insensitive search for the given needle within a line.
+   */
+  private static int indexOf(
+    final String text, final String needle, final int began, final int ended ) {
+    final var last = ended - needle.length();
+
+    for( var i = began; i <= last; i++ ) {
+      if( text.regionMatches( true, i, needle, 0, needle.length() ) ) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+}
@@ -1,8 +1,7 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.processors.markdown.extensions;
 
-import com.keenwrite.Caret;
-import com.keenwrite.Constants;
+import com.keenwrite.preview.OffsetIndex;
 import com.keenwrite.processors.ProcessorContext;
 import com.vladsch.flexmark.ext.tables.TableBlock;
 import com.vladsch.flexmark.html.AttributeProvider;
@@ -10,56 +9,50 @@ import com.vladsch.flexmark.html.AttributeProviderFactory;
 import com.vladsch.flexmark.html.IndependentAttributeProviderFactory;
 import com.vladsch.flexmark.html.renderer.AttributablePart;
 import com.vladsch.flexmark.html.renderer.LinkResolverContext;
+import com.vladsch.flexmark.util.ast.Document;
 import com.vladsch.flexmark.util.ast.Node;
 import com.vladsch.flexmark.util.html.AttributeImpl;
 import com.vladsch.flexmark.util.html.MutableAttributes;
 import org.jetbrains.annotations.NotNull;
 
-import static com.keenwrite.Constants.CARET_ID;
+import static com.keenwrite.preview.OffsetIndex.toId;
 import static com.keenwrite.processors.markdown.extensions.EmptyNode.EMPTY_NODE;
 import static com.vladsch.flexmark.html.HtmlRenderer.Builder;
+import static com.vladsch.flexmark.html.renderer.AttributablePart.NODE;
 
 /**
- * Responsible for giving most block-level elements a unique identifier
- * attribute. The identifier is used to coordinate scrolling.
+ * Responsible for giving top-level block elements a unique identifier
+ * attribute that encodes the element's offset into the source document. The
+ * identifier is used to coordinate scrolling: the preview finds the element
+ * nearest the caret using an {@link OffsetIndex}. Because the identifiers do
+ * not depend on the caret position, moving the caret does not require
+ * processing the document again.
  */
 public class CaretExtension extends HtmlRendererAdapter {
 
-  private final Caret mCaret;
-
-  private CaretExtension( final ProcessorContext context ) {
-    mCaret = context.getCaret();
+  private CaretExtension() {
   }
 
   public static CaretExtension create( final ProcessorContext context ) {
-    return new CaretExtension( context );
+    return new CaretExtension();
   }
 
   @Override
   public void extend(
     final Builder builder, @NotNull final String rendererType ) {
-    builder.attributeProviderFactory(
-      IdAttributeProvider.createFactory( mCaret ) );
+    builder.attributeProviderFactory( IdAttributeProvider.createFactory() );
   }
 
   /**
-   * Responsible for creating the id attribute. This class is instantiated
-   * once: for the HTML element containing the {@link Constants#CARET_ID}.
+   * Responsible for creating the id attribute.
    */
   public static class IdAttributeProvider implements AttributeProvider {
-    private final Caret mCaret;
-    private boolean mAdded;
-
-    public IdAttributeProvider( final Caret caret ) {
-      mCaret = caret;
-    }
-
-    private static AttributeProviderFactory createFactory( final Caret caret ) {
+    private static AttributeProviderFactory createFactory() {
       return new IndependentAttributeProviderFactory() {
         @Override
         public @NotNull AttributeProvider apply(
           @NotNull final LinkResolverContext context ) {
-          return new IdAttributeProvider( caret );
+          return new IdAttributeProvider();
         }
       };
     }
@@ -68,8 +61,9 @@ public class CaretExtension extends HtmlRendererAdapter {
     public void setAttributes( @NotNull Node curr,
                                @NotNull AttributablePart part,
                                @NotNull MutableAttributes attributes ) {
-      // Optimization: if a caret is inserted, don't try to find another.
-      if( mAdded ) {
+      // Only top-level elements are identified, once each.
+      if( part != NODE || !(curr.getParent() instanceof Document) ||
+        attributes.contains( "id" ) ) {
         return;
       }
 
@@ -80,34 +74,13 @@ public class CaretExtension extends HtmlRendererAdapter {
       // happens with tables, but in theory any Markdown generated from an
       // external source (e.g., an R script) could produce text that has no
       // caret position that can be calculated.
-      var table = curr;
-
-      if( !(curr instanceof TableBlock) ) {
-        table = curr.getAncestorOfType( TableBlock.class );
-      }
-
-      // The table was generated outside the document
-      if( table != null && table.getLastChild() == EMPTY_NODE ) {
+      if( curr instanceof TableBlock && curr.getLastChild() == EMPTY_NODE ) {
         return;
       }
 
-      final var outside = mCaret.isAfterText() ? 1 : 0;
-      final var began = curr.getStartOffset();
-      final var ended = curr.getEndOffset() + outside;
-      final var prev = curr.getPrevious();
-
-      // If the caret is within the bounds of the current node or the
-      // caret is within the bounds of the end of the previous node and
-      // the start of the current node, then mark the current node with
-      // a caret indicator.
-      if( mCaret.isBetweenText( began, ended ) ||
-        prev != null && mCaret.isBetweenText( prev.getEndOffset(), began ) ) {
-        // This line empowers synchronizing the text editor with the preview.
-        attributes.addValue( AttributeImpl.of( "id", CARET_ID ) );
-
-        // We're done until the user moves the caret (micro-optimization)
-        mAdded = true;
-      }
+      // This line empowers synchronizing the text editor with the preview.
+      attributes.addValue(
+        AttributeImpl.of( "id", toId( curr.getStartOffset() ) ) );
     }
   }
 }
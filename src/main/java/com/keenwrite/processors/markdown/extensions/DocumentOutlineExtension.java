@@ -39,19 +39,39 @@ public final class DocumentOutlineExtension implements ParserExtension {
     return new DocumentOutlineExtension( processor );
   }
 
+  /**
+   * Fires a heading event for every heading within the given document. This
+   * is used to build the outline from documents that were parsed without
+   * this extension, such as fragments of a larger document.
+   *
+   * @param document The document containing zero or more headings.
+   * @param offset   Offset into the edited document where the parsed
+   *                 document's text begins.
+   */
+  public void fireHeadings( final Node document, final int offset ) {
+    for( final var node : document.getDescendants() ) {
+      if( node instanceof Heading ) {
+        fireHeading( node, offset );
+      }
+    }
+  }
+
+  private void fireHeading( final Node node, final int offset ) {
+    final var heading = mProcessor.apply( node.getChars().toString() );
+    final var matcher = sRegex.matcher( heading );
+
+    if( matcher.find() ) {
+      final var level = matcher.group().length();
+      final var text = heading.substring( level );
+      fireNewHeadingEvent( level, text, node.getStartOffset() + offset );
+    }
+  }
+
   private class HeadingNodePostProcessor extends NodePostProcessor {
     @Override
     public void process(
       @NotNull final NodeTracker state, @NotNull final Node node ) {
-      final var heading = mProcessor.apply( node.getChars().toString() );
-      final var matcher = sRegex.matcher( heading );
-
-      if( matcher.find() ) {
-        final var level = matcher.group().length();
-        final var text = heading.substring( level );
-        final var offset = node.getStartOffset();
-        fireNewHeadingEvent( level, text, offset );
-      }
+      fireHeading( node, 0 );
     }
   }
 
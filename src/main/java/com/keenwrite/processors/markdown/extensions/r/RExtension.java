@@ -15,12 +15,20 @@ import com.vladsch.flexmark.parser.delimiter.DelimiterProcessor;
 import com.vladsch.flexmark.parser.internal.InlineParserImpl;
 import com.vladsch.flexmark.parser.internal.LinkRefProcessorData;
 import com.vladsch.flexmark.util.data.DataHolder;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
 import com.vladsch.flexmark.util.data.MutableDataHolder;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+import org.jetbrains.annotations.NotNull;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 
+import static com.keenwrite.ExportFormat.NONE;
+import static com.keenwrite.events.RResultEvent.fireRResultEvent;
 import static com.keenwrite.processors.IdentityProcessor.IDENTITY;
 import static com.keenwrite.processors.markdown.extensions.EmptyNode.EMPTY_NODE;
 import static com.vladsch.flexmark.parser.Parser.Builder;
@@ -35,14 +43,28 @@ import static com.vladsch.flexmark.parser.Parser.ParserExtension;
  * reason, some pre-conversion is necessary.
  */
 public final class RExtension implements ParserExtension {
+  /**
+   * Shown in the preview in place of results that are being evaluated.
+   */
+  private static final String PENDING = "\u2026";
+
   private final InlineParserFactory INLINE_FACTORY = InlineParser::new;
   private final RProcessor mProcessor;
   private final BaseMarkdownProcessor mMarkdownProcessor;
+  private final Path mPath;
+
+  /**
+   * Set when rendering for the preview, which shows placeholders rather
+   * than waiting for R statements to be evaluated.
+   */
+  private final boolean mPreview;
 
   private RExtension(
     final RProcessor processor, final ProcessorContext context ) {
     mProcessor = processor;
     mMarkdownProcessor = new BaseMarkdownProcessor( IDENTITY, context );
+    mPath = context.getDocumentPath();
+    mPreview = context.isExportFormat( NONE );
   }
 
   /**
@@ -76,6 +98,13 @@ public final class RExtension implements ParserExtension {
    * </p>
    */
   private class InlineParser extends InlineParserImpl {
+    /**
+     * R statements found while parsing, in document order, and the nodes
+     * that mark where their results belong.
+     */
+    private final List<String> mStatements = new ArrayList<>();
+    private final List<Node> mPlaceholders = new ArrayList<>();
+
     private InlineParser(
       final DataHolder options,
       final BitSet specialCharacters,
@@ -89,7 +118,6 @@ public final class RExtension implements ParserExtension {
              delimiterProcessors,
              referenceLinkProcessors,
              inlineParserExtensions );
-      mProcessor.init();
     }
 
     /**
@@ -98,6 +126,11 @@ public final class RExtension implements ParserExtension {
      * {@link RSigilOperator#PREFIX}, so that subsequent processing can
      * invoke R. If other languages are added, the {@link InlineParser} will
      * have to be rewritten to identify more than merely R.
+     * <p>
+     * The R code is replaced with a placeholder, which is replaced with the
+     * code's result once every R statement in the document has been
+     * evaluated (see {@link #finalizeDocument(Document)}).
+     * </p>
      *
      * @return The return value from {@link super#parseBackticks()}.
      * @inheritDoc
@@ -106,37 +139,106 @@ public final class RExtension implements ParserExtension {
     protected final boolean parseBackticks() {
       final var foundTicks = super.parseBackticks();
 
-      if( foundTicks && mProcessor.isReady() ) {
+      if( foundTicks ) {
         final var blockNode = getBlock();
         final var codeNode = blockNode.getLastChild();
 
         if( codeNode != null ) {
           final var code = codeNode.getChars().toString();
 
-          if( code.startsWith( RSigilOperator.PREFIX ) ) {
+          // Initialize R only for documents that contain R statements.
+          if( code.startsWith( RSigilOperator.PREFIX ) &&
+            mProcessor.isReady() ) {
+            final var placeholder = new Placeholder();
+
             codeNode.unlink();
-            final var rText = mProcessor.apply( code );
-            var node = mMarkdownProcessor.toNode( rText );
-
-            if( node.getFirstChild() instanceof Paragraph ) {
-              node = new Text( rText );
-            }
-            else {
-              node = node.getFirstChild();
-
-              if( node != null ) {
-                // Mark the node as being generated code, such as text returned
-                // from an R function.
-                node.appendChild( EMPTY_NODE );
-              }
-            }
-
-            blockNode.appendChild( node );
+            blockNode.appendChild( placeholder );
+            mStatements.add( code );
+            mPlaceholders.add( placeholder );
           }
         }
       }
 
       return foundTicks;
     }
+
+    /**
+     * Evaluates the R statements found in the document together, which
+     * allows independent statements to be evaluated concurrently, then
+     * replaces each placeholder with its statement's result.
+     * <p>
+     * When rendering for the preview, statements that have yet to be
+     * evaluated are shown as {@link #PENDING}; the document is rendered
+     * again once their results are available.
+     * </p>
+     *
+     * @param document The parsed document.
+     */
+    @Override
+    public void finalizeDocument( final Document document ) {
+      super.finalizeDocument( document );
+
+      if( mStatements.isEmpty() ) {
+        return;
+      }
+
+      final var results = mPreview
+        ? mProcessor.apply( mStatements, () -> fireRResultEvent( mPath ) )
+        : mProcessor.apply( mStatements );
+
+      for( var i = 0; i < results.size(); i++ ) {
+        final var rText = results.get( i );
+        final var placeholder = mPlaceholders.get( i );
+        final var node = rText == null ? new Text( PENDING ) : toNode( rText );
+
+        if( node != null ) {
+          placeholder.insertBefore( node );
+        }
+
+        placeholder.unlink();
+      }
+
+      mStatements.clear();
+      mPlaceholders.clear();
+    }
+
+    /**
+     * Converts the result of an R statement into a node for the document.
+     *
+     * @param rText The result of evaluating an R statement.
+     * @return The node to insert, or {@code null} if there is nothing to
+     * insert.
+     */
+    private Node toNode( final String rText ) {
+      var node = mMarkdownProcessor.toNode( rText );
+
+      if( node.getFirstChild() instanceof Paragraph ) {
+        node = new Text( rText );
+      }
+      else {
+        node = node.getFirstChild();
+
+        if( node != null ) {
+          // Mark the node as being generated code, such as text returned
+          // from an R function.
+          node.appendChild( EMPTY_NODE );
+        }
+      }
+
+      return node;
+    }
+  }
+
+  /**
+   * Marks where the result of an R statement belongs while the document is
+   * being parsed.
+   */
+  private static final class Placeholder extends Node {
+    private static final BasedSequence[] BASE_SEQ = new BasedSequence[ 0 ];
+
+    @Override
+    public @NotNull BasedSequence[] getSegments() {
+      return BASE_SEQ;
+    }
   }
 }
@@ -1,53 +1,61 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.processors.r;
 
+import com.keenwrite.editors.definition.Definitions;
 import com.keenwrite.preferences.Workspace;
 import com.keenwrite.processors.DefinitionProcessor;
 import com.keenwrite.processors.Processor;
 import com.keenwrite.processors.ProcessorContext;
 import com.keenwrite.processors.markdown.extensions.r.ROutputProcessor;
-import com.keenwrite.util.BoundedCache;
 import javafx.beans.property.Property;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 import java.io.File;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
 
-import static com.keenwrite.Constants.STATUS_PARSE_ERROR;
-import static com.keenwrite.Messages.get;
+import static com.keenwrite.Constants.CACHE_DIRECTORY;
 import static com.keenwrite.events.StatusEvent.clue;
 import static com.keenwrite.preferences.WorkspaceKeys.*;
+import static com.keenwrite.processors.r.RResultCache.digest;
 import static com.keenwrite.processors.text.TextReplacementFactory.replace;
-import static com.keenwrite.sigils.RSigilOperator.PREFIX;
-import static com.keenwrite.sigils.RSigilOperator.SUFFIX;
 import static java.lang.Math.max;
-import static java.lang.Math.min;
 import static java.lang.String.format;
 
 /**
  * Transforms a document containing R statements into Markdown.
  */
 public final class InlineRProcessor extends DefinitionProcessor {
-  private final Processor<String> mPostProcessor = new ROutputProcessor();
+  /**
+   * Evaluates R statements concurrently, shared by all documents.
+   */
+  private static final REnginePool POOL = new REnginePool();
 
   /**
-   * Where to put document inline evaluated R expressions, constrained to
-   * avoid running out of memory.
+   * Keeps evaluated R expressions between sessions, shared by all documents.
    */
-  private final Map<String, String> mEvalCache =
-    new BoundedCache<>( 512 );
+  private static final RResultCache CACHE =
+    new RResultCache( CACHE_DIRECTORY.resolve( "r" ) );
 
-  private static final ScriptEngine ENGINE =
-    (new ScriptEngineManager()).getEngineByName( "Renjin" );
+  /**
+   * Decides when the bootstrap script is given to the {@link #POOL}.
+   */
+  private static final RBootstrap BOOTSTRAP = new RBootstrap();
 
-  private static final int PREFIX_LENGTH = PREFIX.length();
+  private final Workspace mWorkspace;
 
-  private final AtomicBoolean mDirty = new AtomicBoolean( false );
+  /**
+   * Variables referenced by each statement in the text that is to be
+   * processed next, provided by {@link RVariableProcessor}.
+   */
+  private List<Map<String, String>> mReferences;
 
-  private final Workspace mWorkspace;
+  /**
+   * Replaces R statements with their values, remembering the values of
+   * statements evaluated for this processor.
+   */
+  private final REvaluator mEvaluator =
+    new REvaluator( POOL, CACHE, new ROutputProcessor()::apply );
 
   /**
    * Constructs a processor capable of evaluating R statements.
@@ -61,45 +69,42 @@ public final class InlineRProcessor extends DefinitionProcessor {
     super( successor, context );
 
     mWorkspace = context.getWorkspace();
-
-    bootstrapScriptProperty().addListener(
-      ( __, oldScript, newScript ) -> setDirty( true ) );
-    workingDirectoryProperty().addListener(
-      ( __, oldScript, newScript ) -> setDirty( true ) );
-
-    // TODO: Watch the "R" property keys in the workspace, directly.
-
-    // If the user saves the preferences, make sure that any R-related settings
-    // changes are applied.
-//    getWorkspace().addSaveEventHandler( ( handler ) -> {
-//      if( isDirty() ) {
-//        init();
-//        setDirty( false );
-//      }
-//    } );
-
-    init();
   }
 
   /**
    * Initialises the R code so that R can find imported libraries. Note that
    * any existing R functionality will not be overwritten if this method is
    * called multiple times.
+   * <p>
+   * The bootstrap script is evaluated only when the script, the working
+   * directory, or the definitions it references have changed since the
+   * script was last evaluated, so this may be called for every parse.
+   * </p>
    *
    * @return {@code true} if initialization completed and all variables were
    * replaced; {@code false} if any variables remain.
    */
   public boolean init() {
     final var bootstrap = getBootstrapScript();
+    final var dir = getWorkingDirectory().toString().replace( '\\', '/' );
+    final var definitions = getDefinitions();
+
+    return BOOTSTRAP.init(
+      bootstrap, dir, definitions.getVersion(),
+      () -> bootstrap( bootstrap, dir, definitions ) );
+  }
 
+  /**
+   * Replaces the variables in the bootstrap script, then evaluates the
+   * script, unless the same script was evaluated previously.
+   */
+  private boolean bootstrap(
+    final String bootstrap, final String dir, final Definitions definitions ) {
     if( !bootstrap.isBlank() ) {
-      final var wd = getWorkingDirectory();
-      final var dir = wd.toString().replace( '\\', '/' );
-      final var map = getDefinitions();
       final var defBegan = mWorkspace.toString( KEY_DEF_DELIM_BEGAN );
       final var defEnded = mWorkspace.toString( KEY_DEF_DELIM_ENDED );
-
-      map.put( defBegan + "application.r.working.directory" + defEnded, dir );
+      final var map = definitions.with( Map.of(
+        defBegan + "application.r.working.directory" + defEnded, dir ) );
 
       final var replaced = replace( bootstrap, map );
       final var bIndex = replaced.indexOf( defBegan );
@@ -117,39 +122,46 @@ public final class InlineRProcessor extends DefinitionProcessor {
 
         return false;
       }
-      else {
-        eval( replaced );
-      }
+
+      BOOTSTRAP.evaluate( replaced, POOL::setBootstrap );
     }
 
     return true;
   }
 
   /**
-   * Empties the cache.
+   * Returns the number of times the bootstrap script has been evaluated.
+   *
+   * @return The number of bootstrap script evaluations.
    */
-  public void clear() {
-    mEvalCache.clear();
+  public static long getBootstrapEvaluations() {
+    return BOOTSTRAP.getEvaluations();
   }
 
   /**
-   * Sets the dirty flag to indicate that the bootstrap script or working
-   * directory has been modified. Upon saving the preferences, if this flag
-   * is true, then {@link #init()} will be called to reload the R environment.
+   * Returns the number of times that evaluating the bootstrap script was
+   * avoided because its settings had not changed.
    *
-   * @param dirty Set to true to reload changes upon closing preferences.
+   * @return The number of bootstrap script evaluations avoided.
    */
-  private void setDirty( final boolean dirty ) {
-    mDirty.set( dirty );
+  public static long getBootstrapsAvoided() {
+    return BOOTSTRAP.getAvoided();
   }
 
   /**
-   * Answers whether R-related settings have been modified.
-   *
-   * @return {@code true} when the settings have changed.
+   * Blocks until all evaluated R expressions have been written to disk, so
+   * that they are available to the next session. Call this before exiting
+   * the application.
    */
-  private boolean isDirty() {
-    return mDirty.get();
+  public static void flush() {
+    CACHE.flush();
+  }
+
+  /**
+   * Empties the cache.
+   */
+  public void clear() {
+    mEvaluator.clear();
   }
 
   /**
@@ -163,93 +175,103 @@ public final class InlineRProcessor extends DefinitionProcessor {
    */
   @Override
   public String apply( final String text ) {
-    final int length = text.length();
-
-    // The * 2 is a wild guess at the ratio of R statements to the length
-    // of text produced by those statements.
-    final StringBuilder sb = new StringBuilder( length * 2 );
-
-    int prevIndex = 0;
-    int currIndex = text.indexOf( PREFIX );
-
-    while( currIndex >= 0 ) {
-      // Copy everything up to, but not including, the opening token.
-      sb.append( text, prevIndex, currIndex );
-
-      // Jump to the start of the R statement.
-      prevIndex = currIndex + PREFIX_LENGTH;
-
-      // Find the closing token, without indexing past the text boundary.
-      currIndex = text.indexOf( SUFFIX, min( currIndex + 1, length ) );
-
-      // Only evaluate inline R statements that have end delimiters.
-      if( currIndex > 1 ) {
-        // Extract the inline R statement to be evaluated.
-        final var r = text.substring( prevIndex, currIndex );
-
-        // Pass the R statement into the R engine for evaluation.
-        try {
-          // Append the string representation of the result into the text.
-          sb.append( evalCached( r ) );
-        } catch( final Exception ex ) {
-          // Inform the user that there was a problem.
-          clue( STATUS_PARSE_ERROR, ex.getMessage(), currIndex );
+    final var references = mReferences;
+    mReferences = null;
 
-          // If the string couldn't be parsed using R, append the statement
-          // that failed to parse, instead of its evaluated value.
-          sb.append( PREFIX ).append( r ).append( SUFFIX );
-        }
-
-        // Retain the R statement's ending position in the text.
-        prevIndex = currIndex + 1;
-      }
+    return apply( List.of( text ), references ).get( 0 );
+  }
 
-      // Find the start of the next inline R statement.
-      currIndex = text.indexOf( PREFIX, min( currIndex + 1, length ) );
-    }
+  /**
+   * Sets the variables referenced by each statement in the text that is to
+   * be processed next by {@link #apply(String)}.
+   *
+   * @param references The variables that each statement references.
+   */
+  void setReferences( final List<Map<String, String>> references ) {
+    mReferences = references;
+  }
 
-    // Copy from the previous index to the end of the string.
-    return sb.append( text.substring( min( prevIndex, length ) ) ).toString();
+  /**
+   * Evaluates all R statements in the given texts, concurrently where
+   * possible, and inserts the calculated values into the generated texts.
+   * The statements are treated as being in document order, from the first
+   * text to the last, so that statements see variables assigned by the
+   * statements that precede them.
+   *
+   * @param texts The document fragments that include R statements.
+   * @return The generated fragments, in the same order as the given texts.
+   */
+  public List<String> apply( final List<String> texts ) {
+    return apply( texts, null );
   }
 
   /**
-   * Look up an R expression from the cache then return the resulting object.
-   * If the R expression hasn't been cached, it'll first be evaluated.
+   * Evaluates all R statements in the given texts, re-evaluating only those
+   * statements whose inputs have changed since they were last evaluated.
    *
-   * @param r The expression to evaluate.
-   * @return The object resulting from the evaluation.
+   * @param texts      The document fragments that include R statements.
+   * @param references The variables referenced by each statement, in
+   *                   document order, mapped to their values; {@code null}
+   *                   if unknown, in which case a change to any definition
+   *                   re-evaluates every statement.
+   * @return The generated fragments, in the same order as the given texts.
    */
-  private String evalCached( final String r ) {
-    return mEvalCache.computeIfAbsent( r, __ -> evalHtml( r ) );
+  List<String> apply(
+    final List<String> texts, final List<Map<String, String>> references ) {
+    return apply( texts, references, null );
   }
 
   /**
-   * Converts the given string to HTML, trimming new lines, and inlining
-   * the text if it is a paragraph. Otherwise, the resulting HTML is most likely
-   * complex (e.g., a Markdown table) and should be rendered as its HTML
-   * equivalent.
+   * Evaluates all R statements in the given texts, optionally without
+   * waiting for statements that have yet to be evaluated. When not waiting,
+   * statements from a previous call that are absent from the given texts
+   * are no longer evaluated, because the text that contained them changed.
    *
-   * @param r The R expression to evaluate then convert to HTML.
-   * @return The result from the R expression as an HTML element.
+   * @param texts      The document fragments that include R statements.
+   * @param references The variables referenced by each statement, in
+   *                   document order, or {@code null} if unknown.
+   * @param completed  Called on an arbitrary thread once every statement
+   *                   that was not yet evaluated has been evaluated or has
+   *                   taken too long to wait for, unless superseded by a
+   *                   subsequent call; called again for each statement that
+   *                   took too long once it is evaluated. {@code null} to
+   *                   wait for all statements to be evaluated, however long
+   *                   they take.
+   * @return The generated fragments, in the same order as the given texts;
+   * when not waiting, {@code null} for fragments having statements that are
+   * being evaluated, and no value for statements that took too long.
    */
-  private String evalHtml( final String r ) {
-    return mPostProcessor.apply( eval( r ) );
+  List<String> apply(
+    final List<String> texts,
+    final List<Map<String, String>> references,
+    final Runnable completed ) {
+    return mEvaluator.apply(
+      texts, statements -> keys( statements, references ), completed );
   }
 
   /**
-   * Evaluate an R expression and return the resulting object.
+   * Returns the keys for caching the results of R expressions. Results are
+   * cached by expression, by the state-changing expressions that precede
+   * the expression, by the bootstrap script, and by the variables and
+   * contents of the files that these expressions and the bootstrap script
+   * reference. Changing a definition thereby causes only the expressions
+   * that depend on the definition to be evaluated.
    *
-   * @param r The expression to evaluate.
-   * @return The object resulting from the evaluation.
+   * @param statements The expressions to evaluate, in document order.
+   * @param references The variables each expression references, or
+   *                   {@code null} to depend on all definitions.
+   * @return The key for each expression, in the same order.
    */
-  private String eval( final String r ) {
-    try {
-      return ENGINE.eval( r ).toString();
-    } catch( final Exception ex ) {
-      final var expr = r.substring( 0, min( r.length(), 50 ) );
-      clue( get( "Main.status.error.r", expr, ex.getMessage() ), ex );
-      return "";
-    }
+  private List<String> keys(
+    final List<String> statements,
+    final List<Map<String, String>> references ) {
+    final var dir = getWorkingDirectory();
+    final var bootstrap = BOOTSTRAP.getEvaluated();
+    final var context = digest(
+      bootstrap, dir.toString(), CACHE.fingerprint( bootstrap, dir ) );
+
+    return CACHE.keys(
+      context, statements, references, getDefinitions(), dir );
   }
 
   /**
@@ -0,0 +1,111 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.r;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Responsible for evaluating the bootstrap script only when it could produce
+ * a different result. Initialization is skipped while the script, the
+ * working directory, and the definitions remain unchanged; evaluation is
+ * skipped when the script, having its variables replaced, is the same as
+ * the script evaluated previously. Both are counted as avoided evaluations.
+ */
+final class RBootstrap {
+  /**
+   * Settings from which the engines were most recently initialized.
+   */
+  private String mScript;
+  private String mDirectory;
+  private long mVersion;
+
+  /**
+   * Bootstrap script most recently evaluated, having all variables
+   * replaced, and whether every variable was bound.
+   */
+  private String mEvaluated;
+  private boolean mReady;
+
+  private long mEvaluations;
+  private long mAvoided;
+
+  /**
+   * Initializes the engines unless the given settings are the same as those
+   * from which they were most recently initialized.
+   *
+   * @param script    The bootstrap script, having variables.
+   * @param dir       The R working directory.
+   * @param version   The version of the definitions the script may use.
+   * @param bootstrap Initializes the engines, answering whether all
+   *                  variables were replaced; may call
+   *                  {@link #evaluate(String, Consumer)}.
+   * @return The answer from the most recent initialization.
+   */
+  synchronized boolean init(
+    final String script,
+    final String dir,
+    final long version,
+    final BooleanSupplier bootstrap ) {
+    if( script.equals( mScript ) && dir.equals( mDirectory ) &&
+      version == mVersion ) {
+      mAvoided++;
+    }
+    else {
+      mScript = script;
+      mDirectory = dir;
+      mVersion = version;
+      mReady = bootstrap.getAsBoolean();
+    }
+
+    return mReady;
+  }
+
+  /**
+   * Evaluates the given script unless it is the same as the script evaluated
+   * previously, which happens when definitions that the script does not
+   * reference have changed.
+   *
+   * @param replaced The bootstrap script having all variables replaced.
+   * @param evaluate Evaluates the script.
+   */
+  synchronized void evaluate(
+    final String replaced, final Consumer<String> evaluate ) {
+    if( replaced.equals( mEvaluated ) ) {
+      mAvoided++;
+    }
+    else {
+      evaluate.accept( replaced );
+      mEvaluated = replaced;
+      mEvaluations++;
+    }
+  }
+
+  /**
+   * Returns the bootstrap script most recently evaluated.
+   *
+   * @return The bootstrap script having all variables replaced, or the empty
+   * string if no script has been evaluated.
+   */
+  synchronized String getEvaluated() {
+    return mEvaluated == null ? "" : mEvaluated;
+  }
+
+  /**
+   * Returns the number of times the bootstrap script has been evaluated.
+   *
+   * @return The number of bootstrap script evaluations.
+   */
+  synchronized long getEvaluations() {
+    return mEvaluations;
+  }
+
+  /**
+   * Returns the number of times that evaluating the bootstrap script was
+   * avoided because neither its settings nor its replaced text had changed.
+   *
+   * @return The number of bootstrap script evaluations avoided.
+   */
+  synchronized long getAvoided() {
+    return mAvoided;
+  }
+}
@@ -0,0 +1,443 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.r;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import static com.keenwrite.Messages.get;
+import static com.keenwrite.events.StatusEvent.clue;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.regex.Pattern.compile;
+
+/**
+ * Responsible for evaluating R statements using a bounded number of Renjin
+ * engines, so that the statements in a document are evaluated concurrently.
+ * Each engine is initialized with the bootstrap script before it evaluates
+ * any statements.
+ * <p>
+ * Engines do not share state, yet a statement may change state that later
+ * statements rely upon (e.g., by assigning a variable). Such statements are
+ * evaluated in document order: before evaluating any statement, an engine
+ * first evaluates every state-changing statement that precedes it in the
+ * document, unless the engine has already done so. Statements that do not
+ * change state are evaluated in any order, on any engine. Variables cannot
+ * be unset, so an engine that has evaluated statements absent from those
+ * preceding a statement (e.g., after editing the document) is replaced by a
+ * new engine, which evaluates the bootstrap script and every preceding
+ * state-changing statement afresh.
+ * </p>
+ * <p>
+ * Results are delivered through futures. A statement that cannot be
+ * evaluated has its future completed with a {@link ScriptException}, after
+ * the failure is reported. Cancelling a future prevents its statement from
+ * being evaluated, unless evaluation has already begun. Callers that cannot
+ * wait indefinitely may be told when a statement's evaluation has taken
+ * longer than {@link #TIMEOUT} seconds. Renjin cannot be interrupted, so
+ * such statements continue to occupy their engine until they finish, and
+ * their results are delivered as usual.
+ * </p>
+ */
+final class REnginePool {
+  /**
+   * Renjin engines are memory-intensive, so the pool is small.
+   */
+  private static final int SIZE =
+    max( 1, min( 4, Runtime.getRuntime().availableProcessors() ) );
+
+  /**
+   * Seconds that a statement may take to evaluate before callers are told
+   * that it is overdue.
+   */
+  static final long TIMEOUT = 30;
+
+  /**
+   * Matches statements that may change an engine's state: assignments and
+   * calls to functions having side-effects. Matching is conservative, so
+   * some statements are ordered needlessly (e.g., text containing arrows).
+   */
+  private static final Pattern STATEFUL = compile(
+    "<-|->|\\b(?:assign|library|require|source|set\\.seed|rm|options|" +
+      "setwd|attach|Sys\\.setenv)\\s*\\(" );
+
+  /**
+   * State-changing statements, in document order, that precede a statement.
+   * Instances are immutable and share their predecessors.
+   */
+  static final class History {
+    static final History EMPTY = new History( null, "" );
+
+    private final History mParent;
+    private final String mStatement;
+    private final int mDepth;
+    private final long mHash;
+
+    private History( final History parent, final String statement ) {
+      mParent = parent;
+      mStatement = statement;
+      mDepth = parent == null ? 0 : parent.mDepth + 1;
+      mHash = parent == null ? 0 : parent.mHash * 31 + statement.hashCode();
+    }
+
+    /**
+     * Returns a new history having the given statement appended.
+     */
+    History append( final String statement ) {
+      return new History( this, statement );
+    }
+
+    /**
+     * Returns text that, with high probability, differs between histories
+     * having different statements; empty for the empty history. The text
+     * ends with a character that R statements cannot contain, so it can
+     * prefix statements to form distinct keys.
+     */
+    String toKey() {
+      return mDepth == 0
+        ? ""
+        : Long.toHexString( mHash ) + '#' + mDepth + '\0';
+    }
+
+    /**
+     * Answers whether this history begins with the given history.
+     */
+    private boolean startsWith( final History prefix ) {
+      var node = this;
+
+      while( node.mDepth > prefix.mDepth ) {
+        node = node.mParent;
+      }
+
+      return node.sameAs( prefix );
+    }
+
+    private boolean sameAs( History other ) {
+      var node = this;
+
+      while( node != other ) {
+        if( node.mDepth != other.mDepth || node.mHash != other.mHash ||
+          !node.mStatement.equals( other.mStatement ) ) {
+          return false;
+        }
+
+        node = node.mParent;
+        other = other.mParent;
+      }
+
+      return true;
+    }
+
+    /**
+     * Returns the statements after the given prefix, in document order.
+     */
+    private List<String> after( final History prefix ) {
+      final var statements = new ArrayList<String>( mDepth - prefix.mDepth );
+
+      for( var node = this; node.mDepth > prefix.mDepth; node = node.mParent ) {
+        statements.add( 0, node.mStatement );
+      }
+
+      return statements;
+    }
+  }
+
+  /**
+   * An engine and the state it has reached. The script engine is created
+   * when first needed, and replaced when its state must be discarded.
+   */
+  private static final class Engine {
+    private ScriptEngine mEngine;
+    private String mBootstrap;
+    private History mHistory = History.EMPTY;
+  }
+
+  private final Supplier<ScriptEngine> mFactory;
+  private final int mSize;
+  private final long mTimeout;
+  private final BlockingQueue<Engine> mIdle = new LinkedBlockingQueue<>();
+  private final ExecutorService mExecutor;
+
+  private int mCreated;
+
+  private volatile String mBootstrap = "";
+
+  /**
+   * Creates a pool of Renjin engines.
+   */
+  REnginePool() {
+    this( () -> (new ScriptEngineManager()).getEngineByName( "Renjin" ),
+          SIZE );
+  }
+
+  /**
+   * Creates a pool of engines.
+   *
+   * @param factory Creates the script engines.
+   * @param size    The maximum number of engines.
+   */
+  REnginePool( final Supplier<ScriptEngine> factory, final int size ) {
+    this( factory, size, SECONDS.toMillis( TIMEOUT ) );
+  }
+
+  /**
+   * Creates a pool of engines that tell callers a statement is overdue
+   * after the given time.
+   *
+   * @param factory Creates the script engines.
+   * @param size    The maximum number of engines.
+   * @param timeout Milliseconds that a statement may take to evaluate.
+   */
+  REnginePool(
+    final Supplier<ScriptEngine> factory, final int size, final long timeout ) {
+    mFactory = factory;
+    mSize = size;
+    mTimeout = timeout;
+    mExecutor = newFixedThreadPool( size, r -> {
+      final var thread = new Thread( r, "r-eval" );
+      thread.setDaemon( true );
+      return thread;
+    } );
+  }
+
+  /**
+   * Answers whether the given statement may change an engine's state, in
+   * which case statements that follow it must see the change.
+   *
+   * @param statement The R statement to check.
+   * @return {@code true} if the statement must be evaluated in order.
+   */
+  static boolean isStateful( final String statement ) {
+    return STATEFUL.matcher( statement ).find() || isAssignment( statement );
+  }
+
+  /**
+   * Answers whether the given statement contains an equals sign used for
+   * assignment, rather than for comparison or to name a function argument.
+   */
+  private static boolean isAssignment( final String statement ) {
+    final var length = statement.length();
+    var depth = 0;
+    var quote = '\0';
+
+    for( var i = 0; i < length; i++ ) {
+      final var c = statement.charAt( i );
+
+      if( quote != 0 ) {
+        if( c == '\\' ) {
+          i++;
+        }
+        else if( c == quote ) {
+          quote = 0;
+        }
+      }
+      else if( c == '"' || c == '\'' || c == '`' ) {
+        quote = c;
+      }
+      else if( c == '(' || c == '[' || c == '{' ) {
+        depth++;
+      }
+      else if( c == ')' || c == ']' || c == '}' ) {
+        depth--;
+      }
+      else if( c == '=' && depth <= 0 ) {
+        final var prev = i > 0 ? statement.charAt( i - 1 ) : ' ';
+        final var next = i + 1 < length ? statement.charAt( i + 1 ) : ' ';
+
+        if( next == '=' ) {
+          i++;
+        }
+        else if( "=!<>".indexOf( prev ) < 0 ) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Changes the script that initializes each engine, then initializes the
+   * engines in the background.
+   *
+   * @param bootstrap The bootstrap script, having all variables replaced.
+   */
+  void setBootstrap( final String bootstrap ) {
+    mBootstrap = bootstrap;
+
+    for( var i = 0; i < mSize; i++ ) {
+      mExecutor.submit( () -> run( History.EMPTY, null ) );
+    }
+  }
+
+  /**
+   * Evaluates the given statement on the next available engine. The
+   * statement sees the changes made by the state-changing statements that
+   * precede it.
+   *
+   * @param statement The R statement to evaluate.
+   * @param history   The state-changing statements preceding the statement.
+   * @param convert   Converts the result to its final form; called on a
+   *                  pool thread.
+   * @param overdue   Called on an arbitrary thread if the statement has not
+   *                  been evaluated within the pool's timeout (by default,
+   *                  {@link #TIMEOUT} seconds) after its evaluation began;
+   *                  {@code null} to wait indefinitely.
+   * @return The result; cancel the result to skip evaluating the statement.
+   */
+  CompletableFuture<String> submit(
+    final String statement,
+    final History history,
+    final Function<String, String> convert,
+    final Runnable overdue ) {
+    final var future = new CompletableFuture<String>();
+
+    mExecutor.execute( () -> {
+      // Skip statements that are no longer wanted.
+      if( !future.isDone() ) {
+        // Time a copy, so that the result is delivered however long it takes.
+        if( overdue != null ) {
+          final var timed = future.copy().orTimeout( mTimeout, MILLISECONDS );
+
+          timed.exceptionally( ex -> {
+            if( ex instanceof TimeoutException ) {
+              overdue.run();
+            }
+
+            return null;
+          } );
+        }
+
+        try {
+          future.complete( convert.apply( run( history, statement ) ) );
+        } catch( final InterruptedException ex ) {
+          Thread.currentThread().interrupt();
+          future.completeExceptionally( ex );
+        } catch( final Exception ex ) {
+          future.completeExceptionally( ex );
+        }
+      }
+    } );
+
+    return future;
+  }
+
+  /**
+   * Evaluates a statement on an idle engine, after bringing the engine's
+   * state up to date with the given history.
+   *
+   * @return The result of evaluation, or {@code null} if no statement was
+   * given.
+   * @throws ScriptException The statement could not be evaluated.
+   */
+  private String run( final History history, final String statement )
+    throws InterruptedException, ScriptException {
+    final var engine = acquire();
+
+    try {
+      prepare( engine, history );
+
+      if( statement == null ) {
+        return null;
+      }
+
+      // A failing statement may have changed the state before failing.
+      if( isStateful( statement ) ) {
+        engine.mHistory = history.append( statement );
+      }
+
+      return eval( engine, statement );
+    } finally {
+      mIdle.add( engine );
+    }
+  }
+
+  private void prepare( final Engine engine, final History history ) {
+    final var bootstrap = mBootstrap;
+
+    // Variables cannot be unset, so diverging state is discarded.
+    if( !bootstrap.equals( engine.mBootstrap ) ||
+      !history.startsWith( engine.mHistory ) ) {
+      engine.mEngine = mFactory.get();
+      engine.mBootstrap = bootstrap;
+      engine.mHistory = History.EMPTY;
+
+      if( !bootstrap.isBlank() ) {
+        replay( engine, bootstrap );
+      }
+    }
+
+    for( final var statement : history.after( engine.mHistory ) ) {
+      replay( engine, statement );
+    }
+
+    engine.mHistory = history;
+  }
+
+  private Engine acquire() throws InterruptedException {
+    final var engine = mIdle.poll();
+
+    if( engine != null ) {
+      return engine;
+    }
+
+    synchronized( this ) {
+      if( mCreated < mSize ) {
+        mCreated++;
+        return new Engine();
+      }
+    }
+
+    return mIdle.take();
+  }
+
+  /**
+   * Evaluates an R expression that brings an engine's state up to date. A
+   * failure is reported, but does not prevent evaluating later expressions,
+   * as though the expressions were evaluated in a single session.
+   *
+   * @param r The expression to evaluate.
+   */
+  private void replay( final Engine engine, final String r ) {
+    try {
+      eval( engine, r );
+    } catch( final ScriptException ignored ) {
+      // Reported by eval.
+    }
+  }
+
+  /**
+   * Evaluate an R expression and return the resulting object.
+   *
+   * @param r The expression to evaluate.
+   * @return The object resulting from the evaluation.
+   * @throws ScriptException The expression could not be evaluated, which
+   *                         has been reported.
+   */
+  private String eval( final Engine engine, final String r )
+    throws ScriptException {
+    try {
+      return engine.mEngine.eval( r ).toString();
+    } catch( final Exception ex ) {
+      final var expr = r.substring( 0, min( r.length(), 50 ) );
+      clue( get( "Main.status.error.r", expr, ex.getMessage() ), ex );
+
+      throw ex instanceof ScriptException
+        ? (ScriptException) ex
+        : new ScriptException( ex );
+    }
+  }
+}
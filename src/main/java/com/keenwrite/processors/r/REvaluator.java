@@ -0,0 +1,410 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.r;
+
+import com.keenwrite.processors.r.REnginePool.History;
+import com.keenwrite.util.BoundedCache;
+
+import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import static com.keenwrite.Constants.STATUS_PARSE_ERROR;
+import static com.keenwrite.events.StatusEvent.clue;
+import static com.keenwrite.processors.r.REnginePool.TIMEOUT;
+import static com.keenwrite.processors.r.REnginePool.isStateful;
+import static com.keenwrite.sigils.RSigilOperator.PREFIX;
+import static com.keenwrite.sigils.RSigilOperator.SUFFIX;
+import static java.lang.Math.min;
+import static java.util.Collections.synchronizedMap;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * Responsible for replacing the R statements in document fragments with
+ * their values. Values are looked up in memory, then on disk; statements
+ * having neither are evaluated concurrently by an {@link REnginePool}.
+ * Callers that cannot wait for evaluation are given the fragments that are
+ * ready, and told when the remaining statements have been evaluated.
+ */
+final class REvaluator {
+  private static final int PREFIX_LENGTH = PREFIX.length();
+
+  /**
+   * An expression being evaluated.
+   */
+  private static final class Evaluation {
+    /**
+     * Completes with the expression's value; cancelling it before evaluation
+     * begins prevents the expression from being evaluated.
+     */
+    private final CompletableFuture<String> mSource;
+
+    /**
+     * Completes once the value has been cached.
+     */
+    private final CompletableFuture<String> mResult;
+
+    /**
+     * Completes with the value once cached, or with no value once the
+     * expression has taken too long to wait for.
+     */
+    private final CompletableFuture<String> mShown;
+
+    private Evaluation(
+      final CompletableFuture<String> source,
+      final CompletableFuture<String> result,
+      final CompletableFuture<String> shown ) {
+      mSource = source;
+      mResult = result;
+      mShown = shown;
+    }
+  }
+
+  private final REnginePool mPool;
+  private final RResultCache mCache;
+  private final Function<String, String> mConvert;
+
+  /**
+   * Where to put document inline evaluated R expressions, constrained to
+   * avoid running out of memory.
+   */
+  private final Map<String, String> mEvalCache =
+    synchronizedMap( new BoundedCache<>( 512 ) );
+
+  /**
+   * Expressions being evaluated for the most recent call that does not wait
+   * for results, by cache key.
+   */
+  private Map<String, Evaluation> mRunning = new HashMap<>();
+
+  /**
+   * Incremented for every call that does not wait for results, so that
+   * superseded calls are not notified of their results.
+   */
+  private volatile long mGeneration;
+
+  /**
+   * Creates an evaluator that shares its engines and results on disk with
+   * other evaluators.
+   *
+   * @param pool    Evaluates the statements.
+   * @param cache   Keeps evaluated statements between sessions.
+   * @param convert Converts each value to its final form.
+   */
+  REvaluator(
+    final REnginePool pool,
+    final RResultCache cache,
+    final Function<String, String> convert ) {
+    mPool = pool;
+    mCache = cache;
+    mConvert = convert;
+  }
+
+  /**
+   * Empties the in-memory cache.
+   */
+  void clear() {
+    mEvalCache.clear();
+  }
+
+  /**
+   * Evaluates all R statements in the given texts, optionally without
+   * waiting for statements that have yet to be evaluated. When not waiting,
+   * statements from a previous call that are absent from the given texts
+   * are no longer evaluated, because the text that contained them changed.
+   *
+   * @param texts     The document fragments that include R statements.
+   * @param keys      Maps the statements, in document order, to the keys
+   *                  for caching their results.
+   * @param completed Called on an arbitrary thread once every statement
+   *                  that was not yet evaluated has been evaluated or has
+   *                  taken too long to wait for, unless superseded by a
+   *                  subsequent call; called again for each statement that
+   *                  took too long once it is evaluated. {@code null} to
+   *                  wait for all statements to be evaluated, however long
+   *                  they take.
+   * @return The generated fragments, in the same order as the given texts;
+   * when not waiting, {@code null} for fragments having statements that are
+   * being evaluated, and no value for statements that took too long.
+   */
+  List<String> apply(
+    final List<String> texts,
+    final Function<List<String>, List<String>> keys,
+    final Runnable completed ) {
+    final var statements = new ArrayList<String>();
+    final var counts = new int[ texts.size() ];
+
+    for( var i = 0; i < texts.size(); i++ ) {
+      final var text = i;
+
+      substitute( texts.get( i ), r -> {
+        statements.add( r );
+        counts[ text ]++;
+        return "";
+      } );
+    }
+
+    final var wait = completed == null;
+    final var futures =
+      evalCached( statements, keys.apply( statements ), completed );
+    final var substituted = new ArrayList<String>( texts.size() );
+    final var pending = new ArrayList<CompletableFuture<String>>();
+    var next = 0;
+
+    for( var i = 0; i < texts.size(); i++ ) {
+      final var results = futures.subList( next, next + counts[ i ] );
+      next += counts[ i ];
+
+      if( wait || results.stream().allMatch( CompletableFuture::isDone ) ) {
+        final var iterator = results.iterator();
+        substituted.add(
+          substitute( texts.get( i ), r -> join( iterator.next() ) ) );
+      }
+      else {
+        substituted.add( null );
+        pending.addAll( results );
+      }
+    }
+
+    if( !pending.isEmpty() ) {
+      final var generation = mGeneration;
+
+      allOf( pending.toArray( CompletableFuture[]::new ) ).whenComplete(
+        ( v, ex ) -> {
+          if( generation == mGeneration ) {
+            completed.run();
+          }
+        } );
+    }
+
+    return substituted;
+  }
+
+  /**
+   * Replaces each R statement in the given text with its value.
+   *
+   * @param text The text that includes R statements.
+   * @param eval Provides the value for each statement, in order.
+   * @return The text with the R statements replaced.
+   */
+  static String substitute(
+    final String text, final Function<String, String> eval ) {
+    final int length = text.length();
+
+    // The * 2 is a wild guess at the ratio of R statements to the length
+    // of text produced by those statements.
+    final StringBuilder sb = new StringBuilder( length * 2 );
+
+    int prevIndex = 0;
+    int currIndex = text.indexOf( PREFIX );
+
+    while( currIndex >= 0 ) {
+      // Copy everything up to, but not including, the opening token.
+      sb.append( text, prevIndex, currIndex );
+
+      // Jump to the start of the R statement.
+      prevIndex = currIndex + PREFIX_LENGTH;
+
+      // Find the closing token, without indexing past the text boundary.
+      currIndex = text.indexOf( SUFFIX, min( currIndex + 1, length ) );
+
+      // Only evaluate inline R statements that have end delimiters.
+      if( currIndex > 1 ) {
+        // Extract the inline R statement to be evaluated.
+        final var r = text.substring( prevIndex, currIndex );
+
+        // Pass the R statement into the R engine for evaluation.
+        try {
+          // Append the string representation of the result into the text.
+          sb.append( eval.apply( r ) );
+        } catch( final Exception ex ) {
+          // Inform the user that there was a problem.
+          clue( STATUS_PARSE_ERROR, ex.getMessage(), currIndex );
+
+          // If the string couldn't be parsed using R, append the statement
+          // that failed to parse, instead of its evaluated value.
+          sb.append( PREFIX ).append( r ).append( SUFFIX );
+        }
+
+        // Retain the R statement's ending position in the text.
+        prevIndex = currIndex + 1;
+      }
+
+      // Find the start of the next inline R statement.
+      currIndex = text.indexOf( PREFIX, min( currIndex + 1, length ) );
+    }
+
+    // Copy from the previous index to the end of the string.
+    return sb.append( text.substring( min( prevIndex, length ) ) ).toString();
+  }
+
+  /**
+   * Look up R expressions from the cache then return the resulting objects.
+   * Expressions that haven't been cached are evaluated concurrently, and
+   * their results cached, in memory and on disk, by the given keys.
+   *
+   * @param statements The expressions to evaluate, in document order.
+   * @param keys       The key for caching each expression's result.
+   * @param completed  Called when an expression that took too long to wait
+   *                   for is evaluated; {@code null} to wait for results. If
+   *                   set, the expressions being evaluated for the previous
+   *                   call that are absent from this call are abandoned.
+   * @return The result of each expression, in the same order.
+   */
+  private List<CompletableFuture<String>> evalCached(
+    final List<String> statements,
+    final List<String> keys,
+    final Runnable completed ) {
+    final var results =
+      new ArrayList<CompletableFuture<String>>( statements.size() );
+    final var running = new HashMap<String, Evaluation>();
+    var history = History.EMPTY;
+
+    for( var i = 0; i < statements.size(); i++ ) {
+      final var r = statements.get( i );
+      final var key = keys.get( i );
+
+      results.add( evalCached( r, key, history, running, completed ) );
+
+      if( isStateful( r ) ) {
+        history = history.append( r );
+      }
+    }
+
+    if( completed != null ) {
+      // The text containing the abandoned expressions has changed.
+      for( final var entry : mRunning.entrySet() ) {
+        if( !running.containsKey( entry.getKey() ) ) {
+          entry.getValue().mSource.cancel( false );
+        }
+      }
+
+      running.values().removeIf( evaluation -> evaluation.mResult.isDone() );
+      mRunning = running;
+      mGeneration++;
+    }
+
+    return results;
+  }
+
+  /**
+   * Returns the cached result of an R expression, or starts evaluating the
+   * expression unless it is being evaluated already.
+   *
+   * @param r         The expression to evaluate.
+   * @param key       The key for caching the result.
+   * @param history   The state-changing expressions preceding the
+   *                  expression.
+   * @param running   Expressions being evaluated for the current call.
+   * @param completed Called when the expression is evaluated after taking
+   *                  too long to wait for; {@code null} to wait for the
+   *                  result.
+   * @return The result of the expression.
+   */
+  private CompletableFuture<String> evalCached(
+    final String r,
+    final String key,
+    final History history,
+    final Map<String, Evaluation> running,
+    final Runnable completed ) {
+    var cached = mEvalCache.get( key );
+
+    if( cached == null ) {
+      cached = mCache.get( key );
+
+      if( cached != null ) {
+        mEvalCache.put( key, cached );
+      }
+    }
+
+    if( cached != null ) {
+      return completedFuture( cached );
+    }
+
+    // Evaluate repeated expressions once.
+    var evaluation = running.get( key );
+
+    if( evaluation == null ) {
+      evaluation = mRunning.get( key );
+
+      if( evaluation == null || evaluation.mSource.isCancelled() ) {
+        evaluation = eval( r, key, history, completed );
+      }
+
+      running.put( key, evaluation );
+    }
+
+    return completed == null ? evaluation.mResult : evaluation.mShown;
+  }
+
+  /**
+   * Evaluates an R expression in the background, caching the result once
+   * evaluated. An expression that fails to evaluate is cached in memory as
+   * having no value, so that it is not evaluated again for every render; it
+   * is not kept on disk, so that it is evaluated again in later sessions.
+   * An expression that takes too long to wait for is shown as having no
+   * value while its evaluation continues.
+   */
+  private Evaluation eval(
+    final String r,
+    final String key,
+    final History history,
+    final Runnable completed ) {
+    final var shown = new CompletableFuture<String>();
+    final Runnable overdue = completed == null ? null : () -> {
+      final var expr = r.substring( 0, min( r.length(), 50 ) );
+      clue( "Main.status.error.r.timeout", expr, TIMEOUT );
+      shown.complete( "" );
+    };
+
+    final var source = mPool.submit( r, history, mConvert, overdue );
+    final var result = source.whenComplete( ( value, ex ) -> {
+      if( ex == null ) {
+        mEvalCache.put( key, value );
+        mCache.put( key, value );
+      }
+      else if( ex instanceof ScriptException ) {
+        mEvalCache.put( key, "" );
+      }
+    } );
+
+    result.whenComplete( ( value, ex ) -> {
+      // Show a value that arrived after no longer waiting for it.
+      if( !shown.complete( ex == null ? value : "" ) && ex == null ) {
+        completed.run();
+      }
+    } );
+
+    return new Evaluation( source, result, shown );
+  }
+
+  /**
+   * Waits for an expression's evaluation to finish.
+   *
+   * @param future The pending result.
+   * @return The result of evaluating the expression, empty if evaluation
+   * failed.
+   */
+  private String join( final CompletableFuture<String> future ) {
+    try {
+      return future.get();
+    } catch( final InterruptedException ex ) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException( ex );
+    } catch( final ExecutionException ex ) {
+      final var cause = ex.getCause();
+
+      // Failures have been reported.
+      if( cause instanceof ScriptException ) {
+        return "";
+      }
+
+      throw new IllegalStateException( cause.getMessage(), ex );
+    }
+  }
+}
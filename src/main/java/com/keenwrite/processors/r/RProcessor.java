@@ -5,6 +5,10 @@ import com.keenwrite.processors.ExecutorProcessor;
 import com.keenwrite.processors.Processor;
 import com.keenwrite.processors.ProcessorContext;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import static com.keenwrite.processors.IdentityProcessor.IDENTITY;
 
 /**
@@ -12,26 +16,65 @@ import static com.keenwrite.processors.IdentityProcessor.IDENTITY;
  */
 public final class RProcessor extends ExecutorProcessor<String> {
   private final Processor<String> mProcessor;
+  private final RVariableProcessor mVariableProcessor;
   private final InlineRProcessor mInlineRProcessor;
 
-  private boolean mReady;
-
   public RProcessor( final ProcessorContext context ) {
     final var irp = new InlineRProcessor( IDENTITY, context );
     final var rvp = new RVariableProcessor( irp, context );
     mProcessor = new ExecutorProcessor<>( rvp );
+    mVariableProcessor = rvp;
     mInlineRProcessor = irp;
   }
 
-  public void init() {
-    mReady = mInlineRProcessor.init();
-  }
-
   public String apply( final String text ) {
     return mProcessor.apply( text );
   }
 
+  /**
+   * Processes the R statements within the given texts, evaluating them
+   * concurrently where possible.
+   *
+   * @param texts The document fragments containing R statements, in
+   *              document order.
+   * @return The processed fragments, in the same order.
+   */
+  public List<String> apply( final List<String> texts ) {
+    return apply( texts, null );
+  }
+
+  /**
+   * Processes the R statements within the given texts without waiting for
+   * statements that have yet to be evaluated. Statements requested by a
+   * previous call that are absent from the given texts are abandoned.
+   *
+   * @param texts     The document fragments containing R statements, in
+   *                  document order.
+   * @param completed Called on an arbitrary thread once the statements that
+   *                  were being evaluated have finished, unless a later call
+   *                  has been made; {@code null} to wait for all results.
+   * @return The processed fragments, in the same order; {@code null} for
+   * fragments whose statements are still being evaluated.
+   */
+  public List<String> apply(
+    final List<String> texts, final Runnable completed ) {
+    final var substituted = new ArrayList<String>( texts.size() );
+    final var references = new ArrayList<Map<String, String>>();
+
+    for( final var text : texts ) {
+      substituted.add( mVariableProcessor.apply( text, references ) );
+    }
+
+    return mInlineRProcessor.apply( substituted, references, completed );
+  }
+
+  /**
+   * Answers whether R statements can be evaluated, first initializing R if
+   * its bootstrap settings have changed.
+   *
+   * @return {@code true} when R was initialized with all variables bound.
+   */
   public boolean isReady() {
-    return mReady;
+    return mInlineRProcessor.init();
   }
 }
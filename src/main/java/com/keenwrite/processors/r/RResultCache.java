@@ -0,0 +1,427 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.r;
+
+import com.keenwrite.editors.definition.Definitions;
+import com.keenwrite.processors.r.REnginePool.History;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Pattern;
+
+import static com.keenwrite.events.StatusEvent.clue;
+import static com.keenwrite.processors.r.REnginePool.isStateful;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.regex.Pattern.compile;
+
+/**
+ * Responsible for keeping the results of evaluating R statements on disk, so
+ * that results survive restarting the application. Each result is stored in
+ * its own file, named by a digest of everything that may affect the result:
+ * the statement, the bootstrap script, the definitions that the statement
+ * references, and the contents of any files that the statement reads.
+ * Changing any of these yields a new digest, so stale results are never
+ * found; they are deleted once they have gone unused for a while.
+ * <p>
+ * Files read by statements are found by looking for string literals that
+ * name existing files, relative to the R working directory (e.g.,
+ * {@code csv2md( 'data.csv' )}).
+ * </p>
+ */
+final class RResultCache {
+  /**
+   * Results that have not been used for this long are deleted.
+   */
+  private static final long MAX_AGE = DAYS.toMillis( 30 );
+
+  /**
+   * Matches single- and double-quoted string literals.
+   */
+  private static final Pattern LITERAL =
+    compile( "\"((?:[^\"\\\\]|\\\\.)*)\"|'((?:[^'\\\\]|\\\\.)*)'" );
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * The contents of a file as of its size and modification time.
+   */
+  private static final class Fingerprint {
+    private final long mSize;
+    private final FileTime mModified;
+    private final String mDigest;
+
+    private Fingerprint(
+      final long size, final FileTime modified, final String digest ) {
+      mSize = size;
+      mModified = modified;
+      mDigest = digest;
+    }
+  }
+
+  private final Path mDirectory;
+
+  /**
+   * Files read by statements, which are hashed again only when their size
+   * or modification time changes.
+   */
+  private final Map<Path, Fingerprint> mFiles = new ConcurrentHashMap<>();
+
+  private final ExecutorService mExecutor = newSingleThreadExecutor( r -> {
+    final var thread = new Thread( r, "r-cache" );
+    thread.setDaemon( true );
+    return thread;
+  } );
+
+  /**
+   * Version and digest of the definitions most recently hashed.
+   */
+  private long mVersion;
+  private String mDefinitions;
+
+  /**
+   * Creates a cache that keeps results in the given directory, which is
+   * created when the first result is stored. Results that have gone unused
+   * are deleted in the background.
+   *
+   * @param directory The directory for result files.
+   */
+  RResultCache( final Path directory ) {
+    mDirectory = directory;
+    mExecutor.submit( this::prune );
+  }
+
+  /**
+   * Returns the result stored for the given key.
+   *
+   * @param key The digest returned from {@link #digest(String...)}.
+   * @return The stored result, or {@code null} if there is none.
+   */
+  String get( final String key ) {
+    final var path = toPath( key );
+
+    try {
+      final var result = Files.readString( path, UTF_8 );
+
+      // Mark the result as used, so that pruning keeps it.
+      mExecutor.submit( () -> touch( path ) );
+
+      return result;
+    } catch( final NoSuchFileException ex ) {
+      return null;
+    } catch( final Exception ex ) {
+      clue( ex );
+      return null;
+    }
+  }
+
+  /**
+   * Stores the result for the given key in the background.
+   *
+   * @param key    The digest returned from {@link #digest(String...)}.
+   * @param result The result to store.
+   */
+  void put( final String key, final String result ) {
+    mExecutor.submit( () -> write( toPath( key ), result ) );
+  }
+
+  /**
+   * Blocks until all results have been stored.
+   */
+  void flush() {
+    try {
+      mExecutor.submit( () -> { } ).get();
+    } catch( final Exception ex ) {
+      clue( ex );
+    }
+  }
+
+  /**
+   * Returns a digest of the given texts, suitable for use as a key.
+   *
+   * @param texts The texts that determine a result.
+   * @return The hexadecimal SHA-256 digest of the texts.
+   */
+  static String digest( final String... texts ) {
+    final var digest = createDigest();
+
+    for( final var text : texts ) {
+      digest.update( text.getBytes( UTF_8 ) );
+      digest.update( (byte) 0 );
+    }
+
+    return toHex( digest.digest() );
+  }
+
+  /**
+   * Returns a digest of the given definitions, which does not depend on the
+   * order that the definitions are iterated.
+   *
+   * @param definitions The definitions that statements may reference.
+   * @return The hexadecimal SHA-256 digest of the definitions.
+   */
+  synchronized String digest( final Definitions definitions ) {
+    final var version = definitions.getVersion();
+
+    if( mDefinitions == null || mVersion != version ) {
+      final var digest = createDigest();
+
+      new TreeMap<>( definitions ).forEach( ( k, v ) -> {
+        digest.update( k.getBytes( UTF_8 ) );
+        digest.update( (byte) 0 );
+        digest.update( v.getBytes( UTF_8 ) );
+        digest.update( (byte) 0 );
+      } );
+
+      mDefinitions = toHex( digest.digest() );
+      mVersion = version;
+    }
+
+    return mDefinitions;
+  }
+
+  /**
+   * Returns the key for the result of each statement in a document. A key
+   * depends on the statement, the state-changing statements that precede
+   * it, and the definitions and files that it reads. State-changing
+   * statements may pass what they read to the statements that follow them,
+   * so the definitions and files that they read are included in the keys of
+   * every later statement. Changing a definition thereby changes the keys of
+   * only those statements that depend on it.
+   *
+   * @param context     Digest of the bootstrap script and working directory.
+   * @param statements  The statements, in document order.
+   * @param references  The variables each statement references, mapped to
+   *                    their values, or {@code null} if unknown.
+   * @param definitions All definitions, which every statement depends upon
+   *                    when the references are unknown or do not align with
+   *                    the statements.
+   * @param directory   The directory against which to resolve file names.
+   * @return The key for each statement, in the same order.
+   */
+  List<String> keys(
+    final String context,
+    final List<String> statements,
+    final List<Map<String, String>> references,
+    final Definitions definitions,
+    final Path directory ) {
+    final var keys = new ArrayList<String>( statements.size() );
+
+    // A statement in a value would misalign the references.
+    final var known = references != null &&
+      references.size() == statements.size();
+    final var all = known ? "" : digest( definitions );
+    var history = History.EMPTY;
+    var inputs = "";
+
+    for( var i = 0; i < statements.size(); i++ ) {
+      final var r = statements.get( i );
+      final var files = fingerprint( r, directory );
+      final var uses = known ? toKey( references.get( i ) ) : all;
+
+      keys.add( digest( context, history.toKey(), inputs, uses, files, r ) );
+
+      if( isStateful( r ) ) {
+        history = history.append( r );
+
+        // Later statements may use what this statement read.
+        if( !files.isEmpty() || !uses.isEmpty() ) {
+          inputs = digest( inputs, uses, files );
+        }
+      }
+    }
+
+    return keys;
+  }
+
+  /**
+   * Converts the variables referenced by a statement into part of a key.
+   *
+   * @param variables Variable names mapped to values, in order.
+   * @return The names and values, empty if there are no variables.
+   */
+  private static String toKey( final Map<String, String> variables ) {
+    final var sb = new StringBuilder();
+
+    variables.forEach( ( name, value ) -> {
+      sb.append( name );
+
+      if( value != null ) {
+        sb.append( '=' ).append( value );
+      }
+
+      sb.append( '\0' );
+    } );
+
+    return sb.toString();
+  }
+
+  /**
+   * Returns digests of the contents of the files named by string literals
+   * in the given R code. The result is empty when the code names no files.
+   *
+   * @param r         The R code that may read files.
+   * @param directory The directory against which to resolve file names.
+   * @return The names and digests of the files that the code may read.
+   */
+  String fingerprint( final String r, final Path directory ) {
+    final var matcher = LITERAL.matcher( r );
+    final var sb = new StringBuilder();
+
+    while( matcher.find() ) {
+      final var name = matcher.group( 1 ) == null
+        ? matcher.group( 2 )
+        : matcher.group( 1 );
+      final var digest = digestFile( name, directory );
+
+      if( digest != null ) {
+        sb.append( name ).append( '=' ).append( digest ).append( '\0' );
+      }
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Returns the digest of the named file's contents.
+   *
+   * @return The digest, or {@code null} if the name is not that of a file.
+   */
+  private String digestFile( final String name, final Path directory ) {
+    if( name.isBlank() || name.indexOf( '\n' ) >= 0 ) {
+      return null;
+    }
+
+    try {
+      final var path = directory.resolve( name ).toAbsolutePath().normalize();
+      final var attrs = Files.readAttributes( path, BasicFileAttributes.class );
+
+      if( !attrs.isRegularFile() ) {
+        return null;
+      }
+
+      final var size = attrs.size();
+      final var modified = attrs.lastModifiedTime();
+      final var known = mFiles.get( path );
+
+      if( known != null && known.mSize == size &&
+        known.mModified.equals( modified ) ) {
+        return known.mDigest;
+      }
+
+      final var digest = createDigest();
+
+      try( final InputStream in = Files.newInputStream( path ) ) {
+        final var buffer = new byte[ 8192 ];
+
+        for( int n; (n = in.read( buffer )) > 0; ) {
+          digest.update( buffer, 0, n );
+        }
+      }
+
+      final var hex = toHex( digest.digest() );
+      mFiles.put( path, new Fingerprint( size, modified, hex ) );
+      return hex;
+    } catch( final InvalidPathException | IOException ex ) {
+      // Most string literals are not file names.
+      return null;
+    }
+  }
+
+  private Path toPath( final String key ) {
+    return mDirectory.resolve( key.substring( 0, 2 ) ).resolve( key );
+  }
+
+  private void write( final Path path, final String result ) {
+    try {
+      Files.createDirectories( path.getParent() );
+
+      final var temp = Files.createTempFile(
+        path.getParent(), path.getFileName().toString(), ".tmp" );
+
+      try {
+        Files.writeString( temp, result, UTF_8 );
+
+        try {
+          Files.move( temp, path, ATOMIC_MOVE, REPLACE_EXISTING );
+        } catch( final AtomicMoveNotSupportedException ex ) {
+          Files.move( temp, path, REPLACE_EXISTING );
+        }
+      } finally {
+        Files.deleteIfExists( temp );
+      }
+    } catch( final Exception ex ) {
+      clue( ex );
+    }
+  }
+
+  private void touch( final Path path ) {
+    try {
+      Files.setLastModifiedTime(
+        path, FileTime.fromMillis( System.currentTimeMillis() ) );
+    } catch( final IOException ignored ) {
+      // The result remains usable; it may be pruned sooner.
+    }
+  }
+
+  /**
+   * Deletes results that have not been used recently.
+   */
+  private void prune() {
+    if( !Files.isDirectory( mDirectory ) ) {
+      return;
+    }
+
+    final var oldest = System.currentTimeMillis() - MAX_AGE;
+
+    try( final var paths = Files.walk( mDirectory, 2 ) ) {
+      paths.filter( Files::isRegularFile ).forEach( path -> {
+        try {
+          if( Files.getLastModifiedTime( path ).toMillis() < oldest ) {
+            Files.delete( path );
+          }
+        } catch( final IOException ignored ) {
+          // Try again next time.
+        }
+      } );
+    } catch( final IOException ex ) {
+      clue( ex );
+    }
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance( "SHA-256" );
+    } catch( final NoSuchAlgorithmException ex ) {
+      throw new IllegalStateException( ex );
+    }
+  }
+
+  private static String toHex( final byte[] bytes ) {
+    final var chars = new char[ bytes.length * 2 ];
+
+    for( var i = 0; i < bytes.length; i++ ) {
+      chars[ i * 2 ] = HEX[ (bytes[ i ] >> 4) & 0xF ];
+      chars[ i * 2 + 1 ] = HEX[ bytes[ i ] & 0xF ];
+    }
+
+    return new String( chars );
+  }
+}
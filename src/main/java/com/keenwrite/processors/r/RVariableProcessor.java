@@ -1,6 +1,7 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.processors.r;
 
+import com.keenwrite.editors.definition.Definitions;
 import com.keenwrite.preferences.Workspace;
 import com.keenwrite.processors.DefinitionProcessor;
 import com.keenwrite.processors.ProcessorContext;
@@ -8,10 +9,15 @@ import com.keenwrite.sigils.RSigilOperator;
 import com.keenwrite.sigils.SigilOperator;
 import com.keenwrite.sigils.YamlSigilOperator;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import static com.keenwrite.preferences.WorkspaceKeys.*;
+import static com.keenwrite.processors.r.REvaluator.substitute;
+import static com.keenwrite.sigils.RSigilOperator.VARIABLE;
 
 /**
  * Converts the keys of the resolved map from default form to R form, then
@@ -21,11 +27,110 @@ import static com.keenwrite.preferences.WorkspaceKeys.*;
 public final class RVariableProcessor extends DefinitionProcessor {
 
   private final SigilOperator mSigilOperator;
+  private final InlineRProcessor mInlineRProcessor;
+
+  /**
+   * The most recently converted definitions and their R-based counterparts,
+   * which are only converted again after the definitions change.
+   */
+  private Definitions mSource = Definitions.EMPTY;
+  private Definitions mTarget = Definitions.EMPTY;
 
   public RVariableProcessor(
     final InlineRProcessor irp, final ProcessorContext context ) {
     super( irp, context );
     mSigilOperator = createSigilOperator( context.getWorkspace() );
+    mInlineRProcessor = irp;
+  }
+
+  /**
+   * Replaces the R variables in the given text with their values, then
+   * informs the {@link InlineRProcessor} of the variables that each R
+   * statement references, so that it re-evaluates only those statements
+   * whose variables have changed.
+   *
+   * @param text The document text that includes R variables.
+   * @return The text with all R variables replaced.
+   */
+  @Override
+  public String apply( final String text ) {
+    final var references = new ArrayList<Map<String, String>>();
+    final var result = apply( text, references );
+
+    mInlineRProcessor.setReferences( references );
+
+    return result;
+  }
+
+  /**
+   * Replaces the R variables in the given text with their values, recording
+   * the variables that each R statement references.
+   *
+   * @param text       The document text that includes R variables.
+   * @param references Receives, for each R statement in the text, in order,
+   *                   the referenced variable names mapped to their values;
+   *                   unbound variables map to {@code null}.
+   * @return The text with all R variables replaced.
+   */
+  String apply(
+    final String text, final List<Map<String, String>> references ) {
+    final var definitions = getDefinitions();
+
+    substitute( text, r -> {
+      references.add( reference( r, definitions ) );
+      return "";
+    } );
+
+    return super.apply( text );
+  }
+
+  /**
+   * Returns the variables that the given R statement references. Every
+   * definition whose name begins an R variable name in the statement is
+   * included, which may include definitions that are not replaced.
+   *
+   * @param r           The R statement, before its variables are replaced.
+   * @param definitions The R variables and their values.
+   * @return The referenced variable names mapped to their values, in order.
+   */
+  static Map<String, String> reference(
+    final String r, final Definitions definitions ) {
+    final var variables = new TreeMap<String, String>();
+    final var length = r.length();
+    var began = r.indexOf( VARIABLE );
+
+    while( began >= 0 ) {
+      var ended = began + VARIABLE.length();
+
+      while( ended < length && isVariable( r.charAt( ended ) ) ) {
+        ended++;
+      }
+
+      var bound = false;
+
+      for( var i = began + VARIABLE.length() + 1; i <= ended; i++ ) {
+        final var name = r.substring( began, i );
+        final var value = definitions.get( name );
+
+        if( value != null ) {
+          variables.put( name, value );
+          bound = true;
+        }
+      }
+
+      // A definition having this name would change the statement.
+      if( !bound && ended > began + VARIABLE.length() ) {
+        variables.put( r.substring( began, ended ), null );
+      }
+
+      began = r.indexOf( VARIABLE, ended );
+    }
+
+    return variables;
+  }
+
+  private static boolean isVariable( final char c ) {
+    return Character.isLetterOrDigit( c ) || c == '_' || c == '.' || c == '$';
   }
 
   /**
@@ -34,8 +139,15 @@ public final class RVariableProcessor extends DefinitionProcessor {
    * @return Variable names transmogrified from the default syntax to R syntax.
    */
   @Override
-  protected Map<String, String> getDefinitions() {
-    return entoken( super.getDefinitions() );
+  protected synchronized Definitions getDefinitions() {
+    final var source = super.getDefinitions();
+
+    if( source.getVersion() != mSource.getVersion() ) {
+      mTarget = Definitions.of( entoken( source ) );
+      mSource = source;
+    }
+
+    return mTarget;
   }
 
   /**
@@ -1,14 +1,64 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.processors.text;
 
+import com.keenwrite.editors.definition.Definitions;
+import com.keenwrite.util.BoundedCache;
+import org.ahocorasick.trie.Trie;
+
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import static org.ahocorasick.trie.Trie.builder;
 
 /**
  * Replaces text using an Aho-Corasick algorithm.
+ * <p>
+ * Compiling the trie costs far more than searching the text, so compiled
+ * tries are cached by the set of keys they match. A trie depends only on the
+ * keys, which means that changing a definition's value does not require
+ * compiling a new trie. Compiled tries are immutable, so a single instance
+ * of this class may be shared across editors and threads.
+ * </p>
  */
 public class AhoCorasickReplacer extends AbstractTextReplacer {
+  /**
+   * Maximum number of distinct key sets (e.g., one per open definition
+   * file) to retain compiled tries for.
+   */
+  private static final int CACHE_SIZE = 8;
+
+  /**
+   * Associates a compiled trie with a copy of the keys used to compile it.
+   */
+  private static final class CompiledTrie {
+    private final Set<String> mKeys;
+    private final Trie mTrie;
+
+    /**
+     * Key version of the most recent {@link Definitions} having these keys,
+     * zero if unknown.
+     */
+    private volatile long mKeysVersion;
+
+    private CompiledTrie( final Set<String> keys, final Trie trie ) {
+      mKeys = keys;
+      mTrie = trie;
+    }
+  }
+
+  /**
+   * Compiled tries keyed by the hash code of their key set, verified against
+   * the full key set upon retrieval.
+   */
+  private final Map<Integer, CompiledTrie> mTries =
+    new BoundedCache<>( CACHE_SIZE );
+
+  /**
+   * The most recently used trie, which can be reused without comparing keys
+   * when replacing using {@link Definitions} having the same key version.
+   */
+  private volatile CompiledTrie mLatest;
 
   /**
    * Default (empty) constructor.
@@ -21,14 +71,10 @@ public class AhoCorasickReplacer extends AbstractTextReplacer {
     // Create a buffer sufficiently large that re-allocations are minimized.
     final var sb = new StringBuilder( (int)(text.length() * 1.25) );
 
-    // Definition names cannot overlap.
-    final var builder = builder().ignoreOverlaps();
-    builder.addKeywords( keys( map ) );
-
     int index = 0;
 
     // Replace all instances with dereferenced variables.
-    for( final var emit : builder.build().parseText( text ) ) {
+    for( final var emit : getTrie( map ).parseText( text ) ) {
       sb.append( text, index, emit.getStart() );
       sb.append( map.get( emit.getKeyword() ) );
       index = emit.getEnd() + 1;
@@ -39,4 +85,54 @@ public class AhoCorasickReplacer extends AbstractTextReplacer {
 
     return sb.toString();
   }
+
+  /**
+   * Returns a trie that matches the keys of the given map, compiling a new
+   * trie only if the keys differ from those of all cached tries.
+   *
+   * @param map The map containing keys to find in text.
+   * @return A trie that matches the given map's keys.
+   */
+  private Trie getTrie( final Map<String, String> map ) {
+    final var version = map instanceof Definitions
+      ? ((Definitions) map).getKeysVersion()
+      : 0;
+    final var latest = mLatest;
+
+    if( latest != null && version != 0 && latest.mKeysVersion == version ) {
+      return latest.mTrie;
+    }
+
+    final var keys = map.keySet();
+    final var stamp = keys.hashCode();
+    final CompiledTrie cached;
+
+    synchronized( mTries ) {
+      cached = mTries.get( stamp );
+    }
+
+    if( cached != null && cached.mKeys.equals( keys ) ) {
+      cached.mKeysVersion = version;
+      mLatest = cached;
+      return cached.mTrie;
+    }
+
+    // Definition names cannot overlap.
+    final var builder = builder().ignoreOverlaps();
+    builder.addKeywords( keys( map ) );
+
+    final var compiled =
+      new CompiledTrie( new HashSet<>( keys ), builder.build() );
+
+    // Compiling happens outside the lock; concurrent compilations of the
+    // same keys are harmless because the resulting tries are equivalent.
+    synchronized( mTries ) {
+      mTries.put( stamp, compiled );
+    }
+
+    compiled.mKeysVersion = version;
+    mLatest = compiled;
+
+    return compiled.mTrie;
+  }
 }
@@ -0,0 +1,155 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.text;
+
+import java.util.Arrays;
+
+import static java.util.Arrays.binarySearch;
+
+/**
+ * Responsible for translating offsets between a source text and the text
+ * produced by replacing spans of the source text (e.g., definition keys
+ * with their values). Only the replaced spans are recorded; the text
+ * between them is identical in both, so offsets there differ by a constant
+ * that accumulates across replacements. This keeps the map proportional to
+ * the number of replacements, rather than the length of the text, and makes
+ * each translation a binary search.
+ */
+public final class OffsetMap {
+  /**
+   * Maps every offset to itself, for text having no replacements.
+   */
+  public static final OffsetMap IDENTITY = new Builder().build();
+
+  /**
+   * Spans of replaced source text, as parallel arrays sorted by offset.
+   */
+  private final int[] mSrcBegan;
+  private final int[] mSrcEnded;
+
+  /**
+   * Spans of replacement text, parallel to the source spans.
+   */
+  private final int[] mOutBegan;
+  private final int[] mOutEnded;
+
+  private OffsetMap(
+    final int[] srcBegan,
+    final int[] srcEnded,
+    final int[] outBegan,
+    final int[] outEnded ) {
+    mSrcBegan = srcBegan;
+    mSrcEnded = srcEnded;
+    mOutBegan = outBegan;
+    mOutEnded = outEnded;
+  }
+
+  /**
+   * Returns the offset into the source text that corresponds to the given
+   * offset into the replaced text. Offsets within a replacement map to the
+   * start of the span that was replaced.
+   *
+   * @param offset Offset into the replaced text.
+   * @return The corresponding offset into the source text.
+   */
+  public int toSource( final int offset ) {
+    return translate( offset, mOutBegan, mOutEnded, mSrcBegan, mSrcEnded );
+  }
+
+  /**
+   * Returns the offset into the replaced text that corresponds to the given
+   * offset into the source text. Offsets within a replaced span map to the
+   * start of its replacement.
+   *
+   * @param offset Offset into the source text.
+   * @return The corresponding offset into the replaced text.
+   */
+  public int toOutput( final int offset ) {
+    return translate( offset, mSrcBegan, mSrcEnded, mOutBegan, mOutEnded );
+  }
+
+  /**
+   * Returns the number of replaced spans.
+   *
+   * @return The number of segments in this map.
+   */
+  public int size() {
+    return mSrcBegan.length;
+  }
+
+  private static int translate(
+    final int offset,
+    final int[] fromBegan,
+    final int[] fromEnded,
+    final int[] toBegan,
+    final int[] toEnded ) {
+    final var i = binarySearch( fromBegan, offset );
+
+    // Index of the last span that begins at or before the offset.
+    final var span = i >= 0 ? i : -i - 2;
+
+    if( span < 0 ) {
+      return offset;
+    }
+
+    return offset < fromEnded[ span ]
+      ? toBegan[ span ]
+      : offset - fromEnded[ span ] + toEnded[ span ];
+  }
+
+  /**
+   * Records replaced spans in ascending order, while text is replaced.
+   */
+  public static final class Builder {
+    private int[] mSrcBegan = new int[ 16 ];
+    private int[] mSrcEnded = new int[ 16 ];
+    private int[] mOutBegan = new int[ 16 ];
+    private int[] mOutEnded = new int[ 16 ];
+    private int mSize;
+
+    /**
+     * Records that a span of source text was replaced. Spans must be added
+     * in ascending order and must not overlap.
+     *
+     * @param srcBegan Offset into the source text where the span begins.
+     * @param srcEnded Offset into the source text where the span ends.
+     * @param outBegan Offset into the replaced text where the replacement
+     *                 begins.
+     * @param outEnded Offset into the replaced text where the replacement
+     *                 ends.
+     */
+    public void add(
+      final int srcBegan,
+      final int srcEnded,
+      final int outBegan,
+      final int outEnded ) {
+      assert mSize == 0 || srcBegan >= mSrcEnded[ mSize - 1 ];
+
+      if( mSize == mSrcBegan.length ) {
+        final var capacity = mSize * 2;
+        mSrcBegan = Arrays.copyOf( mSrcBegan, capacity );
+        mSrcEnded = Arrays.copyOf( mSrcEnded, capacity );
+        mOutBegan = Arrays.copyOf( mOutBegan, capacity );
+        mOutEnded = Arrays.copyOf( mOutEnded, capacity );
+      }
+
+      mSrcBegan[ mSize ] = srcBegan;
+      mSrcEnded[ mSize ] = srcEnded;
+      mOutBegan[ mSize ] = outBegan;
+      mOutEnded[ mSize ] = outEnded;
+      mSize++;
+    }
+
+    /**
+     * Creates an immutable map of the spans added so far.
+     *
+     * @return The offset map.
+     */
+    public OffsetMap build() {
+      return new OffsetMap(
+        Arrays.copyOf( mSrcBegan, mSize ),
+        Arrays.copyOf( mSrcEnded, mSize ),
+        Arrays.copyOf( mOutBegan, mSize ),
+        Arrays.copyOf( mOutEnded, mSize ) );
+    }
+  }
+}
@@ -0,0 +1,348 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.text;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.Double.isNaN;
+import static java.lang.Integer.numberOfLeadingZeros;
+import static java.lang.Math.min;
+import static java.lang.System.nanoTime;
+
+/**
+ * Responsible for choosing the fastest {@link TextReplacer} for a given
+ * length of text and number of keys. Which algorithm is fastest depends on
+ * both dimensions, as well as the hardware and the state of the just-in-time
+ * compiler, so the choice is learned rather than fixed.
+ * <p>
+ * Text lengths and key counts are grouped into power-of-two buckets. For
+ * each bucket, the cost of every replacer is tracked as an exponentially
+ * weighted moving average of nanoseconds per character. Replacers that have
+ * not been measured for a bucket are tried first; thereafter, the cheapest
+ * replacer is used, with the others re-measured periodically so that the
+ * choice tracks changes (e.g., JIT compilation). Buckets for long texts with
+ * many keys are never explored, because a poor choice would stall rendering;
+ * they use the cheapest measured replacer or, failing that, a fixed length
+ * threshold.
+ * </p>
+ */
+public final class ReplacerSelector {
+  /**
+   * Weight given to the most recent measurement when computing the moving
+   * average of replacement costs.
+   */
+  private static final double COST_WEIGHT = 0.3;
+
+  /**
+   * Every so many calls for a bucket, a replacer other than the cheapest is
+   * measured again.
+   */
+  private static final int EXPLORE_INTERVAL = 32;
+
+  /**
+   * Replacements whose text length multiplied by key count exceeds this are
+   * never used to measure replacers, because the slower replacer could take
+   * seconds to finish.
+   */
+  private static final long EXPLORE_WORK_MAX = 1 << 22;
+
+  /**
+   * Before any measurements are available, texts shorter than this many
+   * characters use the first replacer; longer texts use the last.
+   */
+  private static final int LENGTH_THRESHOLD = 1500;
+
+  private static final int LENGTH_BUCKETS = 32;
+  private static final int SIZE_BUCKETS = 16;
+
+  /**
+   * Describes the replacer chosen for a bucket of text lengths and key
+   * counts, along with the measured costs that informed the choice.
+   */
+  public static final class Decision {
+    private final int mLength;
+    private final int mSize;
+    private final String mReplacer;
+    private final Map<String, Double> mCosts;
+
+    private Decision(
+      final int length,
+      final int size,
+      final String replacer,
+      final Map<String, Double> costs ) {
+      mLength = length;
+      mSize = size;
+      mReplacer = replacer;
+      mCosts = costs;
+    }
+
+    /**
+     * @return The smallest text length in this bucket.
+     */
+    public int getLength() {
+      return mLength;
+    }
+
+    /**
+     * @return The smallest number of keys in this bucket.
+     */
+    public int getSize() {
+      return mSize;
+    }
+
+    /**
+     * @return The name of the replacer used for this bucket.
+     */
+    public String getReplacer() {
+      return mReplacer;
+    }
+
+    /**
+     * @return Average nanoseconds per character, by replacer name, for the
+     * replacers that have been measured.
+     */
+    public Map<String, Double> getCosts() {
+      return mCosts;
+    }
+
+    @Override
+    public String toString() {
+      return "length >= " + mLength + ", keys >= " + mSize + ": " +
+        mReplacer + " " + mCosts;
+    }
+  }
+
+  private final TextReplacer[] mReplacers;
+
+  /**
+   * Moving average of nanoseconds per character, indexed by replacer then
+   * bucket; {@link Double#NaN} when not measured.
+   */
+  private final double[][] mCosts;
+
+  /**
+   * Number of selections made, indexed by bucket.
+   */
+  private final int[] mCalls = new int[ LENGTH_BUCKETS * SIZE_BUCKETS ];
+
+  /**
+   * Creates a selector that chooses among the given replacers.
+   *
+   * @param replacers Candidate replacers, ordered from those best suited to
+   *                  short texts to those best suited to long texts.
+   */
+  public ReplacerSelector( final TextReplacer... replacers ) {
+    assert replacers.length > 0;
+
+    mReplacers = replacers;
+    mCosts = new double[ replacers.length ][ mCalls.length ];
+
+    for( final var costs : mCosts ) {
+      Arrays.fill( costs, Double.NaN );
+    }
+  }
+
+  /**
+   * Returns the replacer expected to be fastest for the given dimensions.
+   *
+   * @param length The length of text that requires search and replacing.
+   * @param size   The number of keys to search for.
+   * @return The replacer to use, whose cost should be reported using
+   * {@link #record(TextReplacer, int, int, long)}.
+   */
+  public synchronized TextReplacer select(
+    final int length, final int size ) {
+    final var bucket = bucket( length, size );
+    final var calls = ++mCalls[ bucket ];
+    final var best = cheapest( bucket );
+
+    if( isExplorable( length, size ) ) {
+      for( var i = 0; i < mReplacers.length; i++ ) {
+        if( isNaN( mCosts[ i ][ bucket ] ) ) {
+          return mReplacers[ i ];
+        }
+      }
+
+      if( calls % EXPLORE_INTERVAL == 0 && mReplacers.length > 1 ) {
+        final var others = mReplacers.length - 1;
+        final var other = (calls / EXPLORE_INTERVAL) % others;
+        return mReplacers[ other < best ? other : other + 1 ];
+      }
+    }
+
+    if( best >= 0 ) {
+      return mReplacers[ best ];
+    }
+
+    return length < LENGTH_THRESHOLD
+      ? mReplacers[ 0 ]
+      : mReplacers[ mReplacers.length - 1 ];
+  }
+
+  /**
+   * Updates the cost of the given replacer for the given dimensions.
+   *
+   * @param replacer The replacer that performed a replacement.
+   * @param length   The length of text that was searched.
+   * @param size     The number of keys that were searched for.
+   * @param elapsed  The time taken to replace text, in nanoseconds.
+   */
+  public synchronized void record(
+    final TextReplacer replacer,
+    final int length,
+    final int size,
+    final long elapsed ) {
+    final var i = indexOf( replacer );
+
+    if( i >= 0 ) {
+      final var bucket = bucket( length, size );
+      final var cost = elapsed / (double) Math.max( length, 1 );
+      final var prior = mCosts[ i ][ bucket ];
+
+      mCosts[ i ][ bucket ] = isNaN( prior )
+        ? cost
+        : prior * (1 - COST_WEIGHT) + cost * COST_WEIGHT;
+    }
+  }
+
+  /**
+   * Measures every replacer against synthetic documents of various lengths
+   * and key counts, so that the first replacements of real documents need
+   * not explore. This takes a fraction of a second and is meant to be run
+   * on a background thread at startup.
+   */
+  public void calibrate() {
+    for( var size = 4; size <= 4096; size <<= 3 ) {
+      final var map = createDefinitions( size );
+
+      for( var length = 256; isExplorable( length, size ); length <<= 2 ) {
+        final var text = createText( length, size );
+
+        for( final var replacer : mReplacers ) {
+          // Warm up, then measure.
+          replacer.replace( text, map );
+
+          final var began = nanoTime();
+          replacer.replace( text, map );
+          record( replacer, length, size, nanoTime() - began );
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the replacer chosen for every bucket that has been used or
+   * calibrated, for diagnostic purposes.
+   *
+   * @return The decisions made, ordered by text length then key count.
+   */
+  public synchronized List<Decision> getDecisions() {
+    final var decisions = new ArrayList<Decision>();
+
+    for( var bucket = 0; bucket < mCalls.length; bucket++ ) {
+      final var costs = new LinkedHashMap<String, Double>();
+
+      for( var i = 0; i < mReplacers.length; i++ ) {
+        final var cost = mCosts[ i ][ bucket ];
+
+        if( !isNaN( cost ) ) {
+          costs.put( nameOf( i ), cost );
+        }
+      }
+
+      if( !costs.isEmpty() ) {
+        final var best = cheapest( bucket );
+        final var length = bucket / SIZE_BUCKETS;
+        final var size = bucket % SIZE_BUCKETS;
+
+        decisions.add( new Decision(
+          length == 0 ? 0 : 1 << length,
+          size == 0 ? 0 : (1 << size) - 1,
+          nameOf( best ),
+          costs ) );
+      }
+    }
+
+    return decisions;
+  }
+
+  private static boolean isExplorable( final int length, final int size ) {
+    return (long) length * Math.max( size, 1 ) <= EXPLORE_WORK_MAX;
+  }
+
+  private int cheapest( final int bucket ) {
+    var best = -1;
+
+    for( var i = 0; i < mReplacers.length; i++ ) {
+      final var cost = mCosts[ i ][ bucket ];
+
+      if( !isNaN( cost ) && (best < 0 || cost < mCosts[ best ][ bucket ]) ) {
+        best = i;
+      }
+    }
+
+    return best;
+  }
+
+  private int indexOf( final TextReplacer replacer ) {
+    for( var i = 0; i < mReplacers.length; i++ ) {
+      if( mReplacers[ i ] == replacer ) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private String nameOf( final int i ) {
+    return mReplacers[ i ].getClass().getSimpleName();
+  }
+
+  /**
+   * Groups text lengths and key counts by their base-2 logarithm.
+   */
+  private static int bucket( final int length, final int size ) {
+    final var l = min( log2( length ), LENGTH_BUCKETS - 1 );
+    final var s = min( log2( size + 1 ), SIZE_BUCKETS - 1 );
+
+    return l * SIZE_BUCKETS + s;
+  }
+
+  private static int log2( final int n ) {
+    return n <= 0 ? 0 : 31 - numberOfLeadingZeros( n );
+  }
+
+  private static Map<String, String> createDefinitions( final int size ) {
+    final var map = new HashMap<String, String>( size * 2 );
+
+    for( var i = 0; i < size; i++ ) {
+      map.put( "{{key." + i + "}}", "value " + i );
+    }
+
+    return map;
+  }
+
+  /**
+   * Creates prose having about one definition reference per ten words.
+   */
+  private static String createText( final int length, final int size ) {
+    final var sb = new StringBuilder( length + 32 );
+    var word = 0;
+
+    while( sb.length() < length ) {
+      if( ++word % 10 == 0 ) {
+        sb.append( "{{key." ).append( word % size ).append( "}} " );
+      }
+      else {
+        sb.append( "lorem " );
+      }
+    }
+
+    sb.setLength( length );
+    return sb.toString();
+  }
+}
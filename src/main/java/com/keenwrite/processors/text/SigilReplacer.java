@@ -0,0 +1,493 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.text;
+
+import com.keenwrite.editors.definition.Definitions;
+import com.keenwrite.sigils.Tokens;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.ForkJoinPool.commonPool;
+
+/**
+ * Replaces definition keys that are delimited by sigils (e.g.,
+ * {@code {{key}}}). Rather than searching for every key, the text is scanned
+ * for the opening sigil; the span up to the closing sigil is then looked up
+ * in a hash table of keys without creating a substring. The hash is computed
+ * the same way as {@link String#hashCode()}, so the table is built from the
+ * keys' cached hash codes.
+ * <p>
+ * Output is written into a buffer that belongs to the calling thread and is
+ * reused between calls. Text without any definitions is returned as is.
+ * Very large texts, those whose measured replacement time would exceed a
+ * few milliseconds, are divided at line boundaries and replaced in parallel
+ * on the common fork/join pool.
+ * When the definition keys are not all delimited by the sigils (e.g., R
+ * variable names), this delegates to a general-purpose replacer.
+ * </p>
+ */
+public final class SigilReplacer extends AbstractTextReplacer {
+  /**
+   * Buffers exceeding this capacity are released after use rather than
+   * being retained by their thread.
+   */
+  private static final int MAX_BUFFER_SIZE = 1 << 22;
+
+  private static final ThreadLocal<StringBuilder> BUFFER =
+    ThreadLocal.withInitial( () -> new StringBuilder( 65536 ) );
+
+  /**
+   * Number of threads available for replacing chunks of text in parallel.
+   */
+  private static final int PARALLELISM = commonPool().getParallelism();
+
+  /**
+   * Smallest number of characters to replace in a single chunk.
+   */
+  private static final int CHUNK_SIZE_MIN = 1 << 16;
+
+  /**
+   * Texts that are expected to take less time than this, in nanoseconds, to
+   * replace sequentially are not divided among threads, because the cost of
+   * coordinating threads would outweigh the gain.
+   */
+  private static final double PARALLEL_NANOS_MIN = 2_000_000;
+
+  /**
+   * Weight given to the most recent measurement when computing the moving
+   * average of replacement costs.
+   */
+  private static final double COST_WEIGHT = 0.3;
+
+  /**
+   * Open-addressed hash table of keys, retained until the keys or the
+   * sigils change.
+   */
+  private static final class Index {
+    private final String mBegan;
+    private final String mEnded;
+    private final Set<String> mKeys;
+    private final String[] mSlots;
+    private final int mMask;
+    private final int mMaxLength;
+    private final boolean mDelimited;
+    private final boolean mNewlines;
+
+    /**
+     * Key version of the most recent {@link Definitions} having these keys,
+     * zero if unknown.
+     */
+    private volatile long mKeysVersion;
+
+    private Index(
+      final String began, final String ended, final Set<String> keys ) {
+      mBegan = began;
+      mEnded = ended;
+      mKeys = new HashSet<>( keys );
+
+      var capacity = 16;
+
+      while( capacity < mKeys.size() * 2 ) {
+        capacity <<= 1;
+      }
+
+      mSlots = new String[ capacity ];
+      mMask = capacity - 1;
+
+      var maxLength = 0;
+      var delimited = true;
+      var newlines = false;
+
+      for( final var key : mKeys ) {
+        delimited &= isDelimited( key );
+        newlines |= key.indexOf( '\n' ) >= 0;
+        maxLength = Math.max( maxLength, key.length() );
+
+        var slot = spread( key.hashCode() ) & mMask;
+
+        while( mSlots[ slot ] != null ) {
+          slot = (slot + 1) & mMask;
+        }
+
+        mSlots[ slot ] = key;
+      }
+
+      mMaxLength = maxLength;
+      mDelimited = delimited;
+      mNewlines = newlines;
+    }
+
+    /**
+     * Answers whether the key starts with the opening sigil, ends with the
+     * closing sigil, and contains neither sigil in between. Only such keys
+     * are found by scanning for sigils.
+     */
+    private boolean isDelimited( final String key ) {
+      final var bLength = mBegan.length();
+      final var eIndex = key.length() - mEnded.length();
+
+      return eIndex >= bLength &&
+        key.startsWith( mBegan ) &&
+        key.indexOf( mBegan, 1 ) < 0 &&
+        key.indexOf( mEnded, bLength ) == eIndex;
+    }
+
+    private boolean matches(
+      final String began, final String ended, final Set<String> keys ) {
+      return mBegan.equals( began ) &&
+        mEnded.equals( ended ) &&
+        mKeys.equals( keys );
+    }
+
+    /**
+     * Returns the key equal to the given span of text.
+     *
+     * @return The key, or {@code null} if the span is not a key.
+     */
+    private String find(
+      final String text, final int began, final int ended ) {
+      final var length = ended - began;
+
+      if( length > mMaxLength ) {
+        return null;
+      }
+
+      var hash = 0;
+
+      for( var i = began; i < ended; i++ ) {
+        hash = 31 * hash + text.charAt( i );
+      }
+
+      var slot = spread( hash ) & mMask;
+      String key;
+
+      while( (key = mSlots[ slot ]) != null ) {
+        if( key.length() == length &&
+          text.regionMatches( began, key, 0, length ) ) {
+          return key;
+        }
+
+        slot = (slot + 1) & mMask;
+      }
+
+      return null;
+    }
+
+    private static int spread( final int hash ) {
+      return hash ^ (hash >>> 16);
+    }
+  }
+
+  private final Tokens mTokens;
+
+  /**
+   * Number of threads available for replacing chunks of text in parallel.
+   */
+  private final int mParallelism;
+
+  /**
+   * Nanoseconds that replacing a text sequentially must be expected to take
+   * before the text is divided among threads.
+   */
+  private final double mParallelNanosMin;
+
+  private volatile Index mIndex;
+
+  /**
+   * Moving average of the nanoseconds taken to replace a character when
+   * replacing sequentially, zero until measured.
+   */
+  private volatile double mCost;
+
+  /**
+   * Creates a replacer for keys delimited by the given sigils, which are
+   * read on every call, so that changes to the preferences take effect.
+   *
+   * @param tokens The opening and closing sigils that delimit keys.
+   */
+  public SigilReplacer( final Tokens tokens ) {
+    this( tokens, PARALLELISM, PARALLEL_NANOS_MIN );
+  }
+
+  /**
+   * Creates a replacer that divides texts among the given number of threads
+   * once replacing them sequentially is expected to take the given time.
+   *
+   * @param tokens           The opening and closing sigils that delimit keys.
+   * @param parallelism      The number of threads to divide texts among.
+   * @param parallelNanosMin Nanoseconds that replacing a text sequentially
+   *                         must be expected to take before dividing it.
+   */
+  SigilReplacer(
+    final Tokens tokens,
+    final int parallelism,
+    final double parallelNanosMin ) {
+    assert tokens != null;
+    mTokens = tokens;
+    mParallelism = parallelism;
+    mParallelNanosMin = parallelNanosMin;
+  }
+
+  @Override
+  public String replace( final String text, final Map<String, String> map ) {
+    return replace( text, map, null );
+  }
+
+  /**
+   * Replaces the keys in the given text, recording the position of each
+   * replacement. Recording positions prevents dividing the text among
+   * threads, so this should only be used when the positions are needed.
+   *
+   * @param text    The text that contains zero or more keys.
+   * @param map     The set of keys mapped to replacement values.
+   * @param offsets Receives the replaced spans, may be {@code null}. Nothing
+   *                is recorded when keys are not delimited by the sigils.
+   * @return The given text with all keys replaced with corresponding values.
+   */
+  public String replace(
+    final String text,
+    final Map<String, String> map,
+    final OffsetMap.Builder offsets ) {
+    final var began = mTokens.getBegan();
+    final var ended = mTokens.getEnded();
+
+    if( began.isEmpty() || ended.isEmpty() ) {
+      return TextReplacementFactory.replace( text, map );
+    }
+
+    final var index = getIndex( began, ended, map );
+
+    if( !index.mDelimited ) {
+      return TextReplacementFactory.replace( text, map );
+    }
+
+    if( text.indexOf( began ) < 0 ) {
+      return text;
+    }
+
+    final var length = text.length();
+
+    if( offsets == null && isParallel( index, length ) ) {
+      return replaceParallel( text, map, index );
+    }
+
+    final var start = nanoTime();
+    final var result = replace( text, 0, length, map, index, offsets );
+
+    measure( length, nanoTime() - start );
+
+    return result == null ? text : result;
+  }
+
+  /**
+   * Answers whether replacing the text sequentially is expected to take
+   * long enough to be worth dividing among threads. The expected duration
+   * is based on the measured cost of previous sequential replacements.
+   */
+  private boolean isParallel( final Index index, final int length ) {
+    return mParallelism > 1 &&
+      !index.mNewlines &&
+      length >= CHUNK_SIZE_MIN * 2 &&
+      mCost * length >= mParallelNanosMin;
+  }
+
+  /**
+   * Divides the text into chunks at line boundaries, which never fall inside
+   * a key, then replaces the chunks in parallel. Each chunk is replaced into
+   * its worker thread's buffer; the results are joined into a buffer sized
+   * to fit.
+   */
+  private String replaceParallel(
+    final String text, final Map<String, String> map, final Index index ) {
+    final var count =
+      Math.min( mParallelism * 4, text.length() / CHUNK_SIZE_MIN );
+    final var bounds = split( text, count );
+    final var chunks = IntStream
+      .range( 0, count )
+      .parallel()
+      .mapToObj(
+        i -> replace( text, bounds[ i ], bounds[ i + 1 ], map, index, null ) )
+      .toArray( String[]::new );
+
+    var capacity = 0;
+    var replaced = false;
+
+    for( var i = 0; i < count; i++ ) {
+      final var chunk = chunks[ i ];
+
+      replaced |= chunk != null;
+      capacity += chunk == null
+        ? bounds[ i + 1 ] - bounds[ i ]
+        : chunk.length();
+    }
+
+    if( !replaced ) {
+      return text;
+    }
+
+    final var sb = new StringBuilder( capacity );
+
+    for( var i = 0; i < count; i++ ) {
+      final var chunk = chunks[ i ];
+
+      if( chunk == null ) {
+        sb.append( text, bounds[ i ], bounds[ i + 1 ] );
+      }
+      else {
+        sb.append( chunk );
+      }
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Divides the given text into chunks of about the same length, ending each
+   * chunk, except the last, immediately after a newline. Chunks are empty
+   * when the text has too few newlines.
+   *
+   * @param text  The text to divide.
+   * @param count The number of chunks.
+   * @return The offsets at which each chunk begins, followed by the length
+   * of the text.
+   */
+  static int[] split( final String text, final int count ) {
+    final var length = text.length();
+    final var bounds = new int[ count + 1 ];
+
+    for( var i = 1; i < count; i++ ) {
+      final var target = Math.max( (int) ((long) length * i / count),
+                                   bounds[ i - 1 ] );
+      final var newline = text.indexOf( '\n', target );
+
+      bounds[ i ] = newline < 0 ? length : newline + 1;
+    }
+
+    bounds[ count ] = length;
+
+    return bounds;
+  }
+
+  /**
+   * Replaces all keys within the given range of text using the calling
+   * thread's buffer.
+   *
+   * @param offsets Receives the replaced spans, may be {@code null}; only
+   *                valid when replacing from the start of the text.
+   * @return The range of text having its keys replaced, or {@code null} if
+   * the range contains no keys.
+   */
+  private String replace(
+    final String text,
+    final int from,
+    final int to,
+    final Map<String, String> map,
+    final Index index,
+    final OffsetMap.Builder offsets ) {
+    final var began = index.mBegan;
+    final var ended = index.mEnded;
+    final var bLength = began.length();
+    final var eLength = ended.length();
+    final var sb = BUFFER.get();
+    var prevIndex = from;
+    var bIndex = text.indexOf( began, from );
+
+    sb.setLength( 0 );
+
+    while( bIndex >= 0 && bIndex < to ) {
+      final var eIndex = text.indexOf( ended, bIndex + bLength );
+
+      if( eIndex < 0 || eIndex + eLength > to ) {
+        break;
+      }
+
+      final var end = eIndex + eLength;
+      final var key = index.find( text, bIndex, end );
+      final var value = key == null ? null : map.get( key );
+
+      if( value != null ) {
+        sb.append( text, prevIndex, bIndex );
+
+        final var outIndex = sb.length();
+        sb.append( value );
+
+        if( offsets != null ) {
+          offsets.add( bIndex, end, outIndex, sb.length() );
+        }
+
+        prevIndex = end;
+        bIndex = text.indexOf( began, end );
+      }
+      else {
+        bIndex = text.indexOf( began, bIndex + 1 );
+      }
+    }
+
+    if( prevIndex == from ) {
+      return null;
+    }
+
+    final var result = sb.append( text, prevIndex, to ).toString();
+
+    if( sb.capacity() > MAX_BUFFER_SIZE ) {
+      BUFFER.remove();
+    }
+
+    return result;
+  }
+
+  /**
+   * Updates the average cost, in nanoseconds per character, of replacing
+   * text sequentially. Short texts are ignored because timer resolution
+   * would dominate their measurements.
+   */
+  private void measure( final int length, final long elapsed ) {
+    if( length >= CHUNK_SIZE_MIN ) {
+      final var cost = elapsed / (double) length;
+      final var prior = mCost;
+
+      mCost = prior == 0
+        ? cost
+        : prior * (1 - COST_WEIGHT) + cost * COST_WEIGHT;
+    }
+  }
+
+  /**
+   * Returns the average cost of replacing text sequentially.
+   *
+   * @return The moving average nanoseconds taken to replace a character, or
+   * zero if no text long enough to measure has been replaced sequentially.
+   */
+  double getCost() {
+    return mCost;
+  }
+
+  /**
+   * Returns the index of the given map's keys. When the map is a snapshot of
+   * definitions whose keys have not changed since the index was built, the
+   * keys need not be compared.
+   */
+  private Index getIndex(
+    final String began, final String ended, final Map<String, String> map ) {
+    final var version = map instanceof Definitions
+      ? ((Definitions) map).getKeysVersion()
+      : 0;
+    var index = mIndex;
+
+    if( index != null && version != 0 && index.mKeysVersion == version &&
+      index.mBegan.equals( began ) && index.mEnded.equals( ended ) ) {
+      return index;
+    }
+
+    if( index == null || !index.matches( began, ended, map.keySet() ) ) {
+      mIndex = index = new Index( began, ended, map.keySet() );
+    }
+
+    index.mKeysVersion = version;
+
+    return index;
+  }
+}
@@ -1,8 +1,11 @@
 /* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
 package com.keenwrite.processors.text;
 
+import java.util.List;
 import java.util.Map;
 
+import static java.lang.System.nanoTime;
+
 /**
  * Used to generate a class capable of efficiently replacing variable
  * definitions with their values.
@@ -12,17 +15,24 @@ public final class TextReplacementFactory {
   private static final TextReplacer APACHE = new StringUtilsReplacer();
   private static final TextReplacer AHO_CORASICK = new AhoCorasickReplacer();
 
+  /**
+   * Learns which replacer is fastest for a given length of text and number
+   * of definitions.
+   */
+  private static final ReplacerSelector SELECTOR =
+    new ReplacerSelector( APACHE, AHO_CORASICK );
+
   /**
    * Returns a text search/replacement instance that is reasonably optimal for
-   * the given length of text.
+   * the given length of text and number of keys.
    *
    * @param length The length of text that requires some search and replacing.
+   * @param size   The number of keys to search for.
    * @return A class that can search and replace text with utmost expediency.
    */
-  public static TextReplacer getTextReplacer( final int length ) {
-    // After about 1,500 characters, the StringUtils implementation is slower
-    // than the Aho-Corsick algorithm implementation.
-    return length < 1500 ? APACHE : AHO_CORASICK;
+  public static TextReplacer getTextReplacer(
+      final int length, final int size ) {
+    return SELECTOR.select( length, size );
   }
 
   /**
@@ -37,6 +47,32 @@ public final class TextReplacementFactory {
    */
   public static String replace(
       final String text, final Map<String, String> map ) {
-    return getTextReplacer( text.length() ).replace( text, map );
+    final var length = text.length();
+    final var size = map.size();
+    final var replacer = getTextReplacer( length, size );
+    final var began = nanoTime();
+    final var result = replacer.replace( text, map );
+
+    SELECTOR.record( replacer, length, size, nanoTime() - began );
+
+    return result;
+  }
+
+  /**
+   * Measures the available replacers so that the fastest replacer can be
+   * chosen from the first replacement. Call from a background thread.
+   */
+  public static void calibrate() {
+    SELECTOR.calibrate();
+  }
+
+  /**
+   * Returns the replacers chosen so far, for diagnostic purposes.
+   *
+   * @return The replacer chosen for each range of text lengths and key
+   * counts, along with the measurements behind each choice.
+   */
+  public static List<ReplacerSelector.Decision> getDecisions() {
+    return SELECTOR.getDecisions();
   }
 }
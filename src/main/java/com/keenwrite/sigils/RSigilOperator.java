@@ -12,6 +12,11 @@ public final class RSigilOperator extends SigilOperator {
   public static final String PREFIX = "`r#";
   public static final char SUFFIX = '`';
 
+  /**
+   * Begins every R variable name that refers to a definition.
+   */
+  public static final String VARIABLE = "v$";
+
   /**
    * Definition variables are inserted into the document before R variables,
    * so this is required to reformat the definition variable suitable for R.
@@ -60,7 +65,7 @@ public final class RSigilOperator extends SigilOperator {
    */
   public String entoken( final String key ) {
     final var detokened = new StringBuilder( key.length() );
-    detokened.append( "v$" );
+    detokened.append( VARIABLE );
     detokened.append( mAntecedent.detoken( key ) );
 
     // The 3 is for "v$X" where X cannot be a period.
@@ -0,0 +1,144 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.editors.definition;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests that {@link DefinitionIndex} finds the same leaves as searching
+ * the definition hierarchy.
+ */
+public class DefinitionIndexTest {
+  private static final String[] QUERIES = new String[]{
+    "Résumé", "Resume", "resume", "Res", "sum", "SUM", "é", "e", "ob",
+    "Bob", "bob", "Robert", "ber", "Mühl", "Muhl", "uhlf", "x", "zzz",
+    "Hamburg", "ham", "HAM", "Alice", "lic", " "
+  };
+
+  /**
+   * Test that every kind of search agrees with the hierarchy, including
+   * values having diacritics, duplicate values, and short queries.
+   */
+  @Test
+  public void test_Find_Queries_MatchesHierarchy() {
+    final var root = createTree();
+    final var index = new DefinitionIndex( root );
+
+    for( final var query : QUERIES ) {
+      assertSame( root.findLeafExact( query ), index.findExact( query ) );
+      assertSame( root.findLeafStartsWith( query ),
+                  index.findStartsWith( query ) );
+      assertSame( root.findLeafContains( query ),
+                  index.findContains( query ) );
+      assertSame( root.findLeafContainsNoCase( query ),
+                  index.findContainsNoCase( query ) );
+    }
+  }
+
+  /**
+   * Test that changed values are found once the index is invalidated.
+   */
+  @Test
+  public void test_Find_ChangedValue_Found() {
+    final var root = createTree();
+    final var index = new DefinitionIndex( root );
+    final var leaf = index.findExact( "Alice" );
+
+    assertNull( index.findContains( "Carol" ) );
+
+    leaf.setValue( "Carol" );
+    index.invalidate();
+
+    assertSame( leaf, index.findContains( "aro" ) );
+    assertNull( index.findExact( "Alice" ) );
+  }
+
+  /**
+   * Test that leaves that have yet to be presented are found, and are the
+   * same leaves that are presented when the hierarchy is searched.
+   */
+  @Test
+  public void test_Find_StoredLeaves_MatchesHierarchy() {
+    for( final var query : QUERIES ) {
+      final var root = createStoredTree();
+      final var index = new DefinitionIndex( root );
+      final var exact = index.findExact( query );
+      final var startsWith = index.findStartsWith( query );
+      final var contains = index.findContains( query );
+      final var containsNoCase = index.findContainsNoCase( query );
+
+      assertSame( root.findLeafExact( query ), exact );
+      assertSame( root.findLeafStartsWith( query ), startsWith );
+      assertSame( root.findLeafContains( query ), contains );
+      assertSame( root.findLeafContainsNoCase( query ), containsNoCase );
+    }
+  }
+
+  private static DefinitionTreeItem<String> createStoredTree() {
+    final var builder = new DefinitionStore.Builder( "root" );
+
+    builder.open( "people" );
+    stored( builder, "alice", "Alice" );
+    stored( builder, "bob", "Bob" );
+    stored( builder, "robert", "Robert Bobson" );
+    stored( builder, "cv", "Résumé" );
+    builder.close();
+    builder.open( "places" );
+    stored( builder, "street", "Mühlfeldstraße" );
+    stored( builder, "city", "Hamburg" );
+    stored( builder, "alias", "Bob" );
+    builder.open( "deep" );
+    stored( builder, "cv", "résumé" );
+    builder.close();
+    builder.close();
+
+    final var store = builder.build();
+    final var root = new RootTreeItem<String>( "root" );
+
+    // Present only the top-level items, as the definition editor does.
+    root.getChildren().addAll(
+      new StoredTreeItem( store, store.getRoot() ).getChildren() );
+
+    return root;
+  }
+
+  private static void stored(
+    final DefinitionStore.Builder builder,
+    final String key,
+    final String value ) {
+    builder.open( key );
+    builder.leaf( value );
+    builder.close();
+  }
+
+  private static DefinitionTreeItem<String> createTree() {
+    final var root = new RootTreeItem<>( "root" );
+    final var people = branch( root, "people" );
+    final var places = branch( root, "places" );
+
+    leaf( branch( people, "alice" ), "Alice" );
+    leaf( branch( people, "bob" ), "Bob" );
+    leaf( branch( people, "robert" ), "Robert Bobson" );
+    leaf( branch( people, "cv" ), "Résumé" );
+    leaf( branch( places, "street" ), "Mühlfeldstraße" );
+    leaf( branch( places, "city" ), "Hamburg" );
+    leaf( branch( places, "alias" ), "Bob" );
+    leaf( branch( branch( places, "deep" ), "cv" ), "résumé" );
+
+    return root;
+  }
+
+  private static DefinitionTreeItem<String> branch(
+    final DefinitionTreeItem<String> parent, final String key ) {
+    final var item = new DefinitionTreeItem<>( key );
+    parent.getChildren().add( item );
+    return item;
+  }
+
+  private static void leaf(
+    final DefinitionTreeItem<String> parent, final String value ) {
+    parent.getChildren().add( new DefinitionTreeItem<>( value ) );
+  }
+}
@@ -0,0 +1,178 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.editors.definition;
+
+import com.keenwrite.AwaitFxExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link DefinitionInterpolator} resolves definition references.
+ */
+@ExtendWith( AwaitFxExtension.class )
+public class DefinitionInterpolatorTest {
+  private static Map<String, String> interpolate(
+    final Map<String, String> definitions ) {
+    return new DefinitionInterpolator( "{{", "}}" ).resolve( definitions );
+  }
+
+  /**
+   * Test that chained references resolve regardless of their order, and
+   * that repeated references resolve to the same value.
+   */
+  @Test
+  public void test_Interpolate_Chain_Resolved() {
+    final var map = interpolate( Map.of(
+      "{{a}}", "{{b}} and {{b}}",
+      "{{b}}", "{{c}}!",
+      "{{c}}", "C",
+      "{{d}}", "plain"
+    ) );
+
+    assertEquals( "C! and C!", map.get( "{{a}}" ) );
+    assertEquals( "C!", map.get( "{{b}}" ) );
+    assertEquals( "C", map.get( "{{c}}" ) );
+    assertEquals( "plain", map.get( "{{d}}" ) );
+  }
+
+  /**
+   * Test that unknown keys, unterminated references, and references that
+   * span lines are kept verbatim.
+   */
+  @Test
+  public void test_Interpolate_Unresolvable_Verbatim() {
+    final var map = interpolate( Map.of(
+      "{{a}}", "{{x}} {{b}} {{\n{{b}}}} {{",
+      "{{b}}", "B"
+    ) );
+
+    assertEquals( "{{x}} B {{\nB}} {{", map.get( "{{a}}" ) );
+  }
+
+  /**
+   * Test that cyclic references terminate, leaving the reference that
+   * closes the cycle unresolved.
+   */
+  @Test
+  public void test_Interpolate_Cycle_Terminates() {
+    final var map = interpolate( Map.of(
+      "{{a}}", "[{{a}}]",
+      "{{b}}", "{{c}}",
+      "{{c}}", "x{{b}}",
+      "{{d}}", "{{b}}"
+    ) );
+
+    assertEquals( "[{{a}}]", map.get( "{{a}}" ) );
+
+    final var b = map.get( "{{b}}" );
+    final var c = map.get( "{{c}}" );
+
+    // Which reference remains depends on where the cycle was entered.
+    assertTrue(
+      (b.equals( "x{{b}}" ) && c.equals( "x{{b}}" )) ||
+        (b.equals( "{{c}}" ) && c.equals( "x{{c}}" )) );
+    assertEquals( b, map.get( "{{d}}" ) );
+  }
+
+  /**
+   * Test that long chains resolve without exhausting the call stack.
+   */
+  @Test
+  public void test_Interpolate_DeepChain_Resolved() {
+    final var definitions = new HashMap<String, String>();
+    final var depth = 100_000;
+
+    for( var i = 0; i < depth; i++ ) {
+      definitions.put( "{{k" + i + "}}", "{{k" + (i + 1) + "}}" );
+    }
+
+    definitions.put( "{{k" + depth + "}}", "end" );
+
+    final var map = interpolate( definitions );
+
+    assertEquals( "end", map.get( "{{k0}}" ) );
+  }
+
+  /**
+   * Test that changing a definition updates its dependents, leaving the
+   * previous snapshot unchanged.
+   */
+  @Test
+  public void test_Update_Value_DependentsResolved() {
+    final var interpolator = new DefinitionInterpolator( "{{", "}}" );
+    final var before = interpolator.resolve( Map.of(
+      "{{a}}", "{{b}}!",
+      "{{b}}", "{{c}}{{c}}",
+      "{{c}}", "C",
+      "{{d}}", "D"
+    ) );
+    final var after = interpolator.update( "{{c}}", "X" );
+
+    assertEquals( "CC!", before.get( "{{a}}" ) );
+    assertEquals( "XX!", after.get( "{{a}}" ) );
+    assertEquals( "XX", after.get( "{{b}}" ) );
+    assertEquals( "D", after.get( "{{d}}" ) );
+    assertTrue( after.getVersion() > before.getVersion() );
+  }
+
+  /**
+   * Test that adding and removing definitions resolves and unresolves the
+   * references to them.
+   */
+  @Test
+  public void test_Update_AddRemove_ReferencesRelinked() {
+    final var interpolator = new DefinitionInterpolator( "{{", "}}" );
+    interpolator.resolve( Map.of( "{{a}}", "<{{b}}>" ) );
+
+    final var added = interpolator.update( "{{b}}", "{{c}}" );
+    assertEquals( "<{{c}}>", added.get( "{{a}}" ) );
+
+    final var linked = interpolator.update( "{{c}}", "C" );
+    assertEquals( "<C>", linked.get( "{{a}}" ) );
+
+    final var removed = interpolator.update( "{{b}}", null );
+    assertEquals( "<{{b}}>", removed.get( "{{a}}" ) );
+    assertFalse( removed.containsKey( "{{b}}" ) );
+    assertEquals( 2, removed.size() );
+
+    final var unlinked = interpolator.update( "{{c}}", "Y" );
+    assertEquals( "<{{b}}>", unlinked.get( "{{a}}" ) );
+  }
+
+  /**
+   * Test that many incremental updates produce the same definitions as
+   * resolving all definitions at once.
+   */
+  @Test
+  public void test_Update_Many_MatchesResolve() {
+    final var definitions = new HashMap<String, String>();
+    final var count = 1000;
+
+    for( var i = 0; i < count; i++ ) {
+      definitions.put( "{{k" + i + "}}", "v" + i + " {{k" + (i / 2) + "}}" );
+    }
+
+    definitions.put( "{{k0}}", "root" );
+
+    final var interpolator = new DefinitionInterpolator( "{{", "}}" );
+    interpolator.resolve( definitions );
+
+    for( var i = 7; i < count; i += 7 ) {
+      final var key = "{{k" + i + "}}";
+      final var value = "w" + i + " {{k" + (i / 3) + "}}";
+
+      definitions.put( key, value );
+      interpolator.update( key, value );
+    }
+
+    final var expected = interpolate( definitions );
+
+    assertEquals( expected, interpolator.getDefinitions() );
+  }
+}
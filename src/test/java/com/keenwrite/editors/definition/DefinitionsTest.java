@@ -0,0 +1,77 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.editors.definition;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link Definitions} snapshots are immutable and versioned.
+ */
+public class DefinitionsTest {
+  /**
+   * Test that deriving a snapshot leaves the original unchanged and that
+   * versions increase.
+   */
+  @Test
+  public void test_With_Changes_OriginalUnchanged() {
+    final var source = new HashMap<>( Map.of( "a", "1", "b", "2" ) );
+    final var before = Definitions.of( source );
+
+    source.put( "c", "3" );
+
+    final var after = before.with( Map.of( "a", "9" ) );
+
+    assertEquals( Map.of( "a", "1", "b", "2" ), before );
+    assertEquals( Map.of( "a", "9", "b", "2" ), after );
+    assertTrue( after.getVersion() > before.getVersion() );
+    assertThrows( UnsupportedOperationException.class,
+                  () -> after.put( "d", "4" ) );
+  }
+
+  /**
+   * Test that the key version changes only when keys are added or removed.
+   */
+  @Test
+  public void test_With_Keys_KeysVersionTracked() {
+    final var initial = Definitions.of( Map.of( "a", "1", "b", "2" ) );
+    final var changed = initial.with( Map.of( "a", "9" ) );
+    final var added = changed.with( Map.of( "c", "3" ) );
+    final var removed = new HashMap<String, String>();
+
+    removed.put( "c", null );
+
+    final var restored = added.with( removed );
+
+    assertEquals( initial.getKeysVersion(), changed.getKeysVersion() );
+    assertNotEquals( changed.getKeysVersion(), added.getKeysVersion() );
+    assertNotEquals( added.getKeysVersion(), restored.getKeysVersion() );
+    assertFalse( restored.containsKey( "c" ) );
+    assertNull( restored.get( "c" ) );
+    assertEquals( 2, restored.size() );
+  }
+
+  /**
+   * Test that many changes, which are eventually merged into the shared
+   * entries, produce the same entries as a map.
+   */
+  @Test
+  public void test_With_ManyChanges_Merged() {
+    final var expected = new HashMap<String, String>();
+    var definitions = Definitions.EMPTY;
+
+    for( var i = 0; i < 1000; i++ ) {
+      final var key = "k" + (i % 300);
+      final var value = "v" + i;
+
+      expected.put( key, value );
+      definitions = definitions.with( Map.of( key, value ) );
+    }
+
+    assertEquals( expected, definitions );
+    assertEquals( expected.hashCode(), definitions.hashCode() );
+  }
+}
@@ -0,0 +1,103 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.editors.definition.yaml;
+
+import com.keenwrite.editors.definition.RootTreeItem;
+import com.keenwrite.editors.definition.StoredTreeItem;
+import com.keenwrite.editors.definition.TreeItemMapper;
+import javafx.scene.control.TreeItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link YamlTreeTransformer} reads documents into a hierarchy
+ * whose descendants are presented only when needed.
+ */
+public class YamlTreeTransformerTest {
+  private static final String DOCUMENT = """
+    application:
+      title: "KeenWrite"
+      version: 2
+    character:
+      protagonist:
+        name: "Alice"
+        age: 23.5
+        alive: true
+      antagonist:
+        name: "{{character.protagonist.name}}'s twin"
+    """;
+
+  private static final Map<String, String> DEFINITIONS = Map.of(
+    "application.title", "KeenWrite",
+    "application.version", "2",
+    "character.protagonist.name", "Alice",
+    "character.protagonist.age", "23.5",
+    "character.protagonist.alive", "true",
+    "character.antagonist.name", "{{character.protagonist.name}}'s twin"
+  );
+
+  /**
+   * Test that definitions are mapped without presenting descendants, and
+   * that presenting them does not change the definitions.
+   */
+  @Test
+  public void test_Transform_Document_MappedWithoutPresenting() {
+    final var root = createRoot();
+    final var mapper = new TreeItemMapper();
+    final var character = root.getChildren().get( 1 );
+
+    assertEquals( DEFINITIONS, mapper.toMap( root ) );
+    assertTrue( StoredTreeItem.isStored( character ) );
+
+    present( root );
+
+    assertFalse( StoredTreeItem.isStored( character ) );
+    assertEquals( DEFINITIONS, mapper.toMap( root ) );
+  }
+
+  /**
+   * Test that exporting produces the same document whether or not the
+   * descendants have been presented, including edited keys.
+   */
+  @Test
+  public void test_Transform_Tree_SameDocument() {
+    final var transformer = new YamlTreeTransformer();
+    final var stored = createRoot();
+    final var presented = createRoot();
+
+    present( presented );
+    stored.getChildren().get( 0 ).setValue( "app" );
+    presented.getChildren().get( 0 ).setValue( "app" );
+
+    final var expected = transformer.transform( presented );
+
+    assertEquals( expected, transformer.transform( stored ) );
+    assertTrue( expected.startsWith( "---\napp:\n  title: KeenWrite\n" ) );
+  }
+
+  /**
+   * Test that unreadable documents produce an empty hierarchy.
+   */
+  @Test
+  public void test_Transform_Malformed_Empty() {
+    final var tree = new YamlTreeTransformer().transform( "a: [\n" );
+    assertTrue( tree.getChildren().isEmpty() );
+  }
+
+  private static TreeItem<String> createRoot() {
+    final var foster = new YamlTreeTransformer().transform( DOCUMENT );
+    final var root = new RootTreeItem<String>( "root" );
+
+    root.getChildren().addAll( foster.getChildren() );
+
+    return root;
+  }
+
+  private static void present( final TreeItem<String> item ) {
+    for( final var child : item.getChildren() ) {
+      present( child );
+    }
+  }
+}
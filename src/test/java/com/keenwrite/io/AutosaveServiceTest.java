@@ -0,0 +1,190 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.attribute.PosixFilePermissions.fromString;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests that {@link AutosaveService} coalesces requests and replaces files
+ * without leaving temporary files behind or losing their attributes.
+ */
+public class AutosaveServiceTest {
+  /**
+   * Holds delayed tasks until told that their delay has elapsed, and runs
+   * tasks without delay on its thread.
+   */
+  private static final class ManualTimer extends ScheduledThreadPoolExecutor {
+    private final Map<ScheduledFuture<?>, Runnable> mDelayed =
+      new LinkedHashMap<>();
+
+    private ManualTimer() {
+      super( 1 );
+    }
+
+    @Override
+    public synchronized ScheduledFuture<?> schedule(
+      final Runnable command, final long delay, final TimeUnit unit ) {
+      // Tasks given to execute() are scheduled without delay.
+      if( delay <= 0 ) {
+        return super.schedule( command, delay, unit );
+      }
+
+      // The task is run by elapse(), unless cancelled beforehand.
+      final var future = super.schedule( () -> { }, 1, DAYS );
+      mDelayed.put( future, command );
+      return future;
+    }
+
+    /**
+     * Runs the delayed tasks that have not been cancelled.
+     *
+     * @return The number of tasks run.
+     */
+    private synchronized int elapse() {
+      var count = 0;
+
+      for( final var entry : mDelayed.entrySet() ) {
+        if( entry.getKey().cancel( false ) ) {
+          entry.getValue().run();
+          count++;
+        }
+      }
+
+      mDelayed.clear();
+      return count;
+    }
+  }
+
+  /**
+   * Test that only the most recent of several requests is written.
+   */
+  @Test
+  public void test_Submit_ManyRequests_LatestWritten( @TempDir final Path dir )
+    throws Exception {
+    final var path = dir.resolve( "definitions.yaml" );
+    final var service = new AutosaveService();
+    final var snapshots = new AtomicInteger();
+    final var saves = new AtomicInteger();
+
+    Files.writeString( path, "original" );
+
+    for( var i = 0; i < 10; i++ ) {
+      final var text = "text: " + i;
+
+      service.submit( path, () -> {
+        snapshots.incrementAndGet();
+        return () -> text;
+      }, UTF_8, saves::incrementAndGet );
+    }
+
+    service.flush();
+
+    assertEquals( "text: 9", Files.readString( path ) );
+    assertEquals( 1, snapshots.get() );
+    assertEquals( 1, saves.get() );
+    assertEquals( 1, Files.list( dir ).count() );
+  }
+
+  /**
+   * Test that blank text does not replace the file.
+   */
+  @Test
+  public void test_Submit_BlankText_FileKept( @TempDir final Path dir )
+    throws Exception {
+    final var path = dir.resolve( "definitions.yaml" );
+    final var service = new AutosaveService();
+    final var saves = new AtomicInteger();
+
+    Files.writeString( path, "original" );
+    service.submit( path, () -> () -> "", UTF_8, saves::incrementAndGet );
+    service.flush();
+
+    assertEquals( "original", Files.readString( path ) );
+    assertEquals( 0, saves.get() );
+  }
+
+  /**
+   * Test that each request restarts the delay before saving, and that a
+   * single snapshot is taken by the snapshot executor once the delay
+   * elapses after the last request.
+   */
+  @Test
+  public void test_Submit_SteadyRequests_SavedAfterLast(
+    @TempDir final Path dir ) throws Exception {
+    final var path = dir.resolve( "definitions.yaml" );
+    final var executed = new AtomicInteger();
+    final var snapshots = new AtomicInteger();
+    final var saved = new CountDownLatch( 1 );
+    final var timer = new ManualTimer();
+    final var service = new AutosaveService( task -> {
+      executed.incrementAndGet();
+      task.run();
+    }, timer );
+
+    try {
+      for( var i = 0; i < 8; i++ ) {
+        final var text = "text: " + i;
+
+        service.submit( path, () -> {
+          snapshots.incrementAndGet();
+          return () -> text;
+        }, UTF_8, saved::countDown );
+      }
+
+      assertEquals( 0, snapshots.get() );
+      assertEquals( 1, timer.elapse() );
+      assertTrue( saved.await( 5, SECONDS ) );
+      assertEquals( "text: 7", Files.readString( path ) );
+      assertEquals( 1, snapshots.get() );
+      assertEquals( 1, executed.get() );
+    } finally {
+      timer.shutdownNow();
+    }
+  }
+
+  /**
+   * Test that replacing a file keeps its permissions, and that replacing a
+   * symbolic link replaces the file it links to.
+   */
+  @Test
+  public void test_Write_LinkedFile_AttributesKept( @TempDir final Path dir )
+    throws Exception {
+    assumeTrue( FileSystems.getDefault()
+                           .supportedFileAttributeViews()
+                           .contains( "posix" ) );
+
+    final var target = dir.resolve( "definitions.yaml" );
+    final var link = dir.resolve( "link.yaml" );
+    final var permissions = fromString( "rw-r-----" );
+
+    Files.writeString( target, "original" );
+    Files.setPosixFilePermissions( target, permissions );
+    Files.createSymbolicLink( link, target.getFileName() );
+
+    AutosaveService.write( link, "changed".getBytes( UTF_8 ) );
+
+    assertTrue( Files.isSymbolicLink( link ) );
+    assertEquals( "changed", Files.readString( target ) );
+    assertEquals( permissions, Files.getPosixFilePermissions( target ) );
+    assertEquals( 2, Files.list( dir ).count() );
+  }
+}
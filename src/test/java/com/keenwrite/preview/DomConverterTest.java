@@ -0,0 +1,53 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import org.junit.jupiter.api.Test;
+
+import static org.jsoup.Jsoup.parse;
+import static org.jsoup.Jsoup.parseBodyFragment;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that {@link DomConverter} builds a W3C document from separately
+ * parsed heads and bodies, substituting ligatures outside of code.
+ */
+public class DomConverterTest {
+  private static final DomConverter CONVERTER = new DomConverter();
+
+  /**
+   * Test that ligatures are substituted in prose, but not within code
+   * elements at any depth, and that the source document is unchanged.
+   */
+  @Test
+  public void test_Convert_Ligatures_SkipsCode() {
+    final var shell = parse( "<!doctype html><html><head></head><body>" );
+    final var soup = parseBodyFragment(
+      "<p>ruffian</p><pre><code><b>ruffian</b></code></pre>" );
+    final var doc = CONVERTER.fromJsoup( shell, soup.body() );
+
+    assertEquals( "html", doc.getDoctype().getName() );
+    assertEquals( "ru\uFB03an", text( doc, "p" ) );
+    assertEquals( "ruffian", text( doc, "b" ) );
+    assertEquals( "ruffian", soup.selectFirst( "p" ).text() );
+  }
+
+  /**
+   * Test that the head comes from the shell and the body from the fragment.
+   */
+  @Test
+  public void test_Convert_ShellAndBody_Combined() {
+    final var shell = parse(
+      "<html lang='en'><head><title>t</title></head><body><p>x</p>" );
+    final var soup = parseBodyFragment( "<h1>y</h1>" );
+    final var doc = CONVERTER.fromJsoup( shell, soup.body() );
+
+    assertEquals( "en", doc.getDocumentElement().getAttribute( "lang" ) );
+    assertEquals( "t", text( doc, "title" ) );
+    assertEquals( "y", text( doc, "body" ) );
+  }
+
+  private static String text(
+    final org.w3c.dom.Document doc, final String tag ) {
+    return doc.getElementsByTagName( tag ).item( 0 ).getTextContent();
+  }
+}
@@ -0,0 +1,148 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xhtmlrenderer.context.StyleReference;
+import org.xhtmlrenderer.layout.SharedContext;
+import org.xhtmlrenderer.render.BlockBox;
+import org.xhtmlrenderer.simple.extend.XhtmlNamespaceHandler;
+import org.xhtmlrenderer.swing.NaiveUserAgent;
+import org.xhtmlrenderer.swing.SwingReplacedElementFactory;
+
+import static com.keenwrite.preview.DomPatcher.Change.NONE;
+import static com.keenwrite.preview.DomPatcher.Change.RENUMBERED;
+import static org.jsoup.Jsoup.parse;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link DomPatcher} transforms a displayed document into a new
+ * document by replacing only the changed elements.
+ */
+public class DomPatcherTest {
+  private static final DomConverter CONVERTER = new DomConverter();
+  private static final String HEAD = "<html><head><title>t</title></head>";
+
+  /**
+   * Test that changing, inserting, and deleting paragraphs produces a body
+   * identical to the new document while keeping unchanged elements.
+   */
+  @Test
+  public void test_Patch_ChangedParagraphs_BodiesEqual() {
+    final var live = toDocument( "<p>a</p>\n<p>b</p>\n<p>c</p>" );
+    final var first = live.getElementsByTagName( "p" ).item( 0 );
+    final var last = live.getElementsByTagName( "p" ).item( 2 );
+
+    assertPatched( live, "<p>a</p>\n<p>B</p>\n<p>c</p>" );
+    assertSame( first, live.getElementsByTagName( "p" ).item( 0 ) );
+    assertSame( last, live.getElementsByTagName( "p" ).item( 2 ) );
+
+    assertPatched( live, "<p>a</p>\n<h1>x</h1>\n<p>B</p>\n<p>c</p>" );
+    assertPatched( live, "<p>c</p>" );
+    assertPatched( live, "" );
+    assertPatched( live, "<p>a</p>\n<p>b</p>" );
+  }
+
+  /**
+   * Test that inserting an element keeps the elements that follow it, even
+   * though their identifiers encode source offsets that have shifted, and
+   * that the kept elements are identified by their new offsets.
+   */
+  @Test
+  public void test_Patch_ShiftedOffsets_TailKept() {
+    final var live = toDocument(
+      "<p id=\"caret-0\">a</p>\n<p id=\"caret-3\">b</p>\n" +
+        "<h1 id=\"caret-6\">c <em id=\"caret-8\">d</em></h1>" );
+    final var paras = live.getElementsByTagName( "p" );
+    final var first = paras.item( 0 );
+    final var second = paras.item( 1 );
+    final var heading = live.getElementsByTagName( "h1" ).item( 0 );
+
+    assertPatched( live,
+      "<p id=\"caret-0\">a</p>\n<p id=\"caret-3\">new</p>\n" +
+        "<p id=\"caret-8\">b</p>\n" +
+        "<h1 id=\"caret-11\">c <em id=\"caret-13\">d</em></h1>" );
+
+    assertSame( first, live.getElementsByTagName( "p" ).item( 0 ) );
+    assertSame( second, live.getElementsByTagName( "p" ).item( 2 ) );
+    assertSame( heading, live.getElementsByTagName( "h1" ).item( 0 ) );
+  }
+
+  /**
+   * Test that an identical document does not require a new layout.
+   */
+  @Test
+  public void test_Patch_SameDocument_Unchanged() {
+    final var html = "<p>a</p>\n<p>b</p>";
+    final var live = toDocument( html );
+    final var next = toDocument( html );
+
+    assertTrue( DomPatcher.isPatchable( live, next ) );
+    assertEquals( NONE, DomPatcher.patch( live, next, createContext() ) );
+  }
+
+  /**
+   * Test that a document differing only by offset identifiers is renumbered
+   * without a new layout, and that laid out boxes are found by their new
+   * identifiers, even when old and new identifiers overlap.
+   */
+  @Test
+  public void test_Patch_OffsetsOnly_Renumbered() {
+    final var live = toDocument(
+      "<p id=\"caret-0\">a</p>\n<p id=\"caret-3\">b</p>" );
+    final var next = toDocument(
+      "<p id=\"caret-3\">a</p>\n<p id=\"caret-6\">b</p>" );
+    final var context = createContext();
+    final var first = new BlockBox();
+    final var second = new BlockBox();
+
+    context.addBoxId( "caret-0", first );
+    context.addBoxId( "caret-3", second );
+
+    assertEquals( RENUMBERED, DomPatcher.patch( live, next, context ) );
+    assertNull( context.getBoxById( "caret-0" ) );
+    assertSame( first, context.getBoxById( "caret-3" ) );
+    assertSame( second, context.getBoxById( "caret-6" ) );
+    assertEquals( "caret-6", ((Element) live.getElementsByTagName( "p" )
+      .item( 1 )).getAttribute( "id" ) );
+  }
+
+  /**
+   * Test that a document with a different head is not patched.
+   */
+  @Test
+  public void test_Patch_DifferentHead_NotPatchable() {
+    final var live = toDocument( "<p>a</p>" );
+    final var next = CONVERTER.fromJsoup( parse(
+      "<html><head><title>u</title></head><body><p>a</p></body></html>" ) );
+
+    assertFalse( DomPatcher.isPatchable( live, next ) );
+  }
+
+  private void assertPatched( final Document live, final String body ) {
+    final var next = toDocument( body );
+    final var expected = toDocument( body );
+
+    assertTrue( DomPatcher.isPatchable( live, next ) );
+    DomPatcher.patch( live, next, createContext() );
+    assertTrue( getBody( expected ).isEqualNode( getBody( live ) ), body );
+  }
+
+  private static org.w3c.dom.Node getBody( final Document document ) {
+    return document.getElementsByTagName( "body" ).item( 0 );
+  }
+
+  private static Document toDocument( final String body ) {
+    return CONVERTER.fromJsoup(
+      parse( HEAD + "<body>" + body + "</body></html>" ) );
+  }
+
+  private static SharedContext createContext() {
+    final var context = new SharedContext();
+    context.setNamespaceHandler( new XhtmlNamespaceHandler() );
+    context.setCss( new StyleReference( new NaiveUserAgent() ) );
+    context.setReplacedElementFactory( new SwingReplacedElementFactory() );
+    return context;
+  }
+}
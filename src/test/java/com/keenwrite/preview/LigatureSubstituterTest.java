@@ -0,0 +1,37 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.preview;
+
+import org.junit.jupiter.api.Test;
+
+import static com.keenwrite.preview.LigatureSubstituter.substitute;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests that {@link LigatureSubstituter} substitutes the longest ligatures.
+ */
+public class LigatureSubstituterTest {
+  /**
+   * Test that ligatures are substituted in a single pass, preferring longer
+   * ligatures, including at the start and end of the text.
+   */
+  @Test
+  public void test_Substitute_Ligatures_LongestFirst() {
+    assertEquals( "ru\uFB03an", substitute( "ruffian" ) );
+    assertEquals( "ba\uFB04e", substitute( "baffle" ) );
+    assertEquals( "\uFB01sh \uFB02ag", substitute( "fish flag" ) );
+    assertEquals( "o\uFB00", substitute( "off" ) );
+    assertEquals( "\uFB00\uFB01", substitute( "fffi" ) );
+    assertEquals( "\uFB00f", substitute( "fff" ) );
+  }
+
+  /**
+   * Test that text without ligatures is returned as the same instance.
+   */
+  @Test
+  public void test_Substitute_NoLigatures_SameInstance() {
+    for( final var text : new String[]{"", "f", "of", "aft", "fog f"} ) {
+      assertSame( text, substitute( text ) );
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.util.Collections.synchronizedList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests that {@link RenderScheduler} runs only the most recent request for a
+ * key, and never runs two renders for the same key at once. Render tasks are
+ * handed to the test, which runs them one at a time.
+ */
+public class RenderSchedulerTest {
+  private final BlockingQueue<Runnable> mTasks = new LinkedBlockingQueue<>();
+  private final List<String> mRendered =
+    synchronizedList( new ArrayList<>() );
+  private final RenderScheduler mScheduler =
+    new RenderScheduler( mTasks::add );
+
+  /**
+   * Test that requests arriving while a render is in flight are not run
+   * until it completes, and that only the most recent of them is run then.
+   */
+  @Test
+  public void test_Submit_WhileRendering_LatestRenderedAfter()
+    throws InterruptedException {
+    final var key = new Object();
+
+    mScheduler.submit( key, render( "first" ) );
+    final var first = next();
+
+    mScheduler.submit( key, render( "second" ) );
+    mScheduler.submit( key, render( "third" ) );
+    assertIdle();
+
+    first.run();
+    next().run();
+
+    assertEquals( List.of( "first", "third" ), mRendered );
+    assertIdle();
+  }
+
+  /**
+   * Test that requests for different keys do not supersede each other.
+   */
+  @Test
+  public void test_Submit_DistinctKeys_AllRendered()
+    throws InterruptedException {
+    final var first = new Object();
+    final var second = new Object();
+
+    mScheduler.submit( first, render( "first" ) );
+    mScheduler.submit( second, render( "second" ) );
+
+    next().run();
+    next().run();
+
+    assertEquals( 2, mRendered.size() );
+    assertIdle();
+  }
+
+  /**
+   * Test that removing a key discards its pending request, while letting
+   * the render in flight finish.
+   */
+  @Test
+  public void test_Remove_PendingRequest_Discarded()
+    throws InterruptedException {
+    final var key = new Object();
+
+    mScheduler.submit( key, render( "first" ) );
+    final var first = next();
+
+    mScheduler.submit( key, render( "second" ) );
+    mScheduler.remove( key );
+
+    first.run();
+
+    assertEquals( List.of( "first" ), mRendered );
+    assertIdle();
+  }
+
+  private Runnable render( final String name ) {
+    return () -> mRendered.add( name );
+  }
+
+  /**
+   * Returns the next render task handed to the executor, once the debounce
+   * delay has elapsed.
+   */
+  private Runnable next() throws InterruptedException {
+    final var task = mTasks.poll( 5, SECONDS );
+    assertNotNull( task );
+    return task;
+  }
+
+  /**
+   * Asserts that no render task is handed to the executor, allowing well
+   * over the shortest debounce delay for one to arrive.
+   */
+  private void assertIdle() throws InterruptedException {
+    assertNull( mTasks.poll( 100, MILLISECONDS ) );
+  }
+}
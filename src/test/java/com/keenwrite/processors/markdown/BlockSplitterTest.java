@@ -0,0 +1,101 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.markdown;
+
+import com.vladsch.flexmark.ext.definition.DefinitionExtension;
+import com.vladsch.flexmark.ext.tables.TablesExtension;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.misc.Extension;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that splitting a document into blocks using {@link BlockSplitter}
+ * then rendering each block independently produces the same HTML as
+ * rendering the entire document.
+ */
+public class BlockSplitterTest {
+  private static final List<Extension> EXTENSIONS =
+    List.of( DefinitionExtension.create(), TablesExtension.create() );
+
+  private static final Parser PARSER =
+    Parser.builder().extensions( EXTENSIONS ).build();
+  private static final HtmlRenderer RENDERER =
+    HtmlRenderer.builder().extensions( EXTENSIONS ).build();
+
+  private static final String[] SPLITTABLE = {
+    "",
+    "\n\n",
+    "# Heading\n\nParagraph one.\n\nParagraph two.\n",
+    "Para\n\n```\ncode\n\n\nmore code\n```\n\nAfter\n",
+    "~~~~\ntilde\n\n~~~\nstill code\n~~~~\n\ndone",
+    "* one\n\n* two\n\n  continued\n\nAfter list\n",
+    "1. first\n\n2. second\n\nText\n",
+    "    indented\n\n    code\n\nText\n",
+    "Term\n\n: Definition\n\nNext\n",
+    "<pre>\nraw\n\n\nraw\n</pre>\n\nText\n",
+    "<!--\ncomment\n\ncomment\n-->\n\nText\n",
+    "| a | b |\n|---|---|\n| 1 | 2 |\n\nText\n",
+    "> quote\n\n> another quote\n\nText\n",
+  };
+
+  private static final String[] UNSPLITTABLE = {
+    "[link][id]\n\n[id]: https://example.com\n",
+    "  [id]: https://example.com\n\nText\n",
+  };
+
+  /**
+   * Test that rendering blocks independently produces the same HTML as
+   * rendering the whole document.
+   */
+  @Test
+  public void test_Split_Blocks_RenderSameAsDocument() {
+    for( final var text : SPLITTABLE ) {
+      assertTrue( BlockSplitter.isSplittable( text ) );
+      assertSplit( text );
+    }
+  }
+
+  /**
+   * Test that paragraphs separated by blank lines become separate blocks.
+   */
+  @Test
+  public void test_Split_Paragraphs_Offsets() {
+    final var text = "# Heading\n\nParagraph one.\n\nParagraph two.\n";
+    assertArrayEquals( new int[]{0, 11, 27}, BlockSplitter.split( text ) );
+  }
+
+  /**
+   * Test that documents with link reference definitions are not split.
+   */
+  @Test
+  public void test_Split_References_NotSplittable() {
+    for( final var text : UNSPLITTABLE ) {
+      assertFalse( BlockSplitter.isSplittable( text ) );
+    }
+  }
+
+  private void assertSplit( final String text ) {
+    final var offsets = BlockSplitter.split( text );
+    final var expected = RENDERER.render( PARSER.parse( text ) );
+    final var actual = new StringBuilder();
+
+    assertEquals( 0, offsets[ 0 ] );
+
+    for( int i = 0; i < offsets.length; i++ ) {
+      final var began = offsets[ i ];
+      final var ended = i + 1 < offsets.length
+        ? offsets[ i + 1 ]
+        : text.length();
+
+      assertTrue( began < ended || text.isEmpty() );
+      actual.append( RENDERER.render(
+        PARSER.parse( text.substring( began, ended ) ) ) );
+    }
+
+    assertEquals( expected, actual.toString(), text );
+  }
+}
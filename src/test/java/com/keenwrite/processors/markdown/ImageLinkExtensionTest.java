@@ -3,6 +3,7 @@ package com.keenwrite.processors.markdown;
 
 import com.keenwrite.AwaitFxExtension;
 import com.keenwrite.Caret;
+import com.keenwrite.editors.definition.Definitions;
 import com.keenwrite.preferences.Workspace;
 import com.keenwrite.preview.HtmlPreview;
 import com.keenwrite.processors.Processor;
@@ -148,7 +149,7 @@ public class ImageLinkExtensionTest {
   private ProcessorContext createProcessorContext( final Path documentPath ) {
     return new ProcessorContext(
       mPreview,
-      new HashMap<>(),
+      () -> Definitions.EMPTY,
       documentPath,
       Caret.builder().build(),
       NONE,
@@ -0,0 +1,93 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.r;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests that {@link RBootstrap} evaluates the bootstrap script only when its
+ * settings or replaced text change, and counts the evaluations avoided.
+ */
+public class RBootstrapTest {
+  private static final String SCRIPT =
+    "setwd( '{{application.r.working.directory}}' )";
+
+  /**
+   * Test that initializing repeatedly with unchanged settings initializes
+   * once, and that changing any setting initializes again.
+   */
+  @Test
+  public void test_Init_UnchangedSettings_InitializedOnce() {
+    final var bootstrap = new RBootstrap();
+    final var inits = new AtomicInteger();
+
+    for( var i = 0; i < 3; i++ ) {
+      assertTrue( bootstrap.init( SCRIPT, "/tmp", 1, () -> {
+        inits.incrementAndGet();
+        return true;
+      } ) );
+    }
+
+    assertEquals( 1, inits.get() );
+    assertEquals( 2, bootstrap.getAvoided() );
+
+    assertFalse( bootstrap.init( SCRIPT, "/tmp", 2, () -> {
+      inits.incrementAndGet();
+      return false;
+    } ) );
+    assertFalse( bootstrap.init( SCRIPT, "/tmp", 2, () -> {
+      inits.incrementAndGet();
+      return true;
+    } ) );
+
+    assertEquals( 2, inits.get() );
+    assertEquals( 3, bootstrap.getAvoided() );
+
+    final var script = SCRIPT + ' ';
+
+    bootstrap.init( SCRIPT, "/home", 2, () -> inits.incrementAndGet() > 0 );
+    bootstrap.init( script, "/home", 2, () -> inits.incrementAndGet() > 0 );
+
+    assertEquals( 4, inits.get() );
+    assertEquals( 3, bootstrap.getAvoided() );
+  }
+
+  /**
+   * Test that a script whose replaced text is unchanged, because only
+   * definitions that it does not reference changed, is not evaluated again.
+   */
+  @Test
+  public void test_Evaluate_SameReplacedText_EvaluatedOnce() {
+    final var bootstrap = new RBootstrap();
+    final var evaluated = new ArrayList<String>();
+
+    assertEquals( "", bootstrap.getEvaluated() );
+
+    for( var version = 1; version <= 3; version++ ) {
+      bootstrap.init( SCRIPT, "/tmp", version, () -> {
+        bootstrap.evaluate( "setwd( '/tmp' )", evaluated::add );
+        return true;
+      } );
+    }
+
+    assertEquals( List.of( "setwd( '/tmp' )" ), evaluated );
+    assertEquals( "setwd( '/tmp' )", bootstrap.getEvaluated() );
+    assertEquals( 1, bootstrap.getEvaluations() );
+    assertEquals( 2, bootstrap.getAvoided() );
+
+    bootstrap.init( SCRIPT, "/home", 3, () -> {
+      bootstrap.evaluate( "setwd( '/home' )", evaluated::add );
+      return true;
+    } );
+
+    assertEquals( 2, bootstrap.getEvaluations() );
+    assertEquals( 2, bootstrap.getAvoided() );
+  }
+}
@@ -0,0 +1,165 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.r;
+
+import com.keenwrite.AwaitFxExtension;
+import com.keenwrite.processors.r.REnginePool.History;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import static com.keenwrite.processors.r.REnginePool.isStateful;
+import static java.util.function.Function.identity;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link REnginePool} orders only those statements that may
+ * change an engine's state, and that statements see the same state as they
+ * would if evaluated serially.
+ */
+@ExtendWith( AwaitFxExtension.class )
+public class REnginePoolTest {
+  /**
+   * Evaluates assignments and sums of integers and variables, which is
+   * enough R to observe an engine's state.
+   */
+  private static final class SumEngine extends AbstractScriptEngine {
+    private final Map<String, Integer> mVariables = new HashMap<>();
+
+    @Override
+    public Object eval( final String script, final ScriptContext context )
+      throws ScriptException {
+      final var assignment = script.split( "<-" );
+
+      if( assignment.length == 2 ) {
+        final var value = sum( assignment[ 1 ] );
+        mVariables.put( assignment[ 0 ].trim(), value );
+        return value;
+      }
+
+      return sum( script );
+    }
+
+    private int sum( final String expression ) throws ScriptException {
+      var sum = 0;
+
+      for( final var term : expression.split( "\\+" ) ) {
+        final var operand = term.trim();
+
+        if( operand.matches( "\\d+" ) ) {
+          sum += Integer.parseInt( operand );
+        }
+        else if( mVariables.containsKey( operand ) ) {
+          sum += mVariables.get( operand );
+        }
+        else {
+          throw new ScriptException( "object '" + operand + "' not found" );
+        }
+      }
+
+      return sum;
+    }
+
+    @Override
+    public Object eval( final Reader reader, final ScriptContext context ) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Bindings createBindings() {
+      return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+      return null;
+    }
+  }
+
+  /**
+   * Test that assignments and side-effects are ordered, whereas function
+   * calls having named arguments and comparisons are not.
+   */
+  @Test
+  public void test_IsStateful_Statements_Detected() {
+    assertTrue( isStateful( "x <- 5" ) );
+    assertTrue( isStateful( "5 -> x" ) );
+    assertTrue( isStateful( "x = 5" ) );
+    assertTrue( isStateful( "df$col[1] = 'a'" ) );
+    assertTrue( isStateful( "library( 'xtable' )" ) );
+    assertTrue( isStateful( "set.seed(42)" ) );
+
+    assertFalse( isStateful( "format( x, nsmall = 2 )" ) );
+    assertFalse( isStateful( "x == 5" ) );
+    assertFalse( isStateful( "x <= 5 && y >= 2 || z != 1" ) );
+    assertFalse( isStateful( "paste( 'a = b' )" ) );
+    assertFalse( isStateful( "csv2md( '../data.csv', total = FALSE )" ) );
+  }
+
+  /**
+   * Test that histories having the same statements have the same key.
+   */
+  @Test
+  public void test_History_SameStatements_SameKey() {
+    final var a = History.EMPTY.append( "x <- 1" ).append( "y <- 2" );
+    final var b = History.EMPTY.append( "x <- 1" ).append( "y <- 2" );
+    final var c = History.EMPTY.append( "x <- 1" ).append( "y <- 3" );
+
+    assertEquals( "", History.EMPTY.toKey() );
+    assertEquals( a.toKey(), b.toKey() );
+    assertNotEquals( a.toKey(), c.toKey() );
+  }
+
+  /**
+   * Test that statements see the same state as when evaluated serially
+   * after the bootstrap script, including after the statements preceding
+   * them are edited.
+   */
+  @Test
+  public void test_Submit_EditedHistory_SameAsSerial() {
+    final var pool = new REnginePool( SumEngine::new, 1 );
+    final var add = "total <- total + 5";
+    final var once = History.EMPTY.append( add );
+    final var twice = once.append( add );
+
+    pool.setBootstrap( "total <- 0" );
+
+    assertEquals( "5", eval( pool, add, History.EMPTY ) );
+    assertEquals( "5", eval( pool, "total", once ) );
+    assertEquals( "10", eval( pool, add, once ) );
+    assertEquals( "10", eval( pool, "total", twice ) );
+
+    // Removing the second addition, then the first, from the document.
+    assertEquals( "5", eval( pool, "total", once ) );
+    assertEquals( "0", eval( pool, "total", History.EMPTY ) );
+  }
+
+  /**
+   * Test that a statement that cannot be evaluated fails its result, rather
+   * than producing a value that could be mistaken for its result.
+   */
+  @Test
+  public void test_Submit_UnknownVariable_Failed() {
+    final var pool = new REnginePool( SumEngine::new, 1 );
+    final var ex = assertThrows(
+      CompletionException.class,
+      () -> eval( pool, "missing + 1", History.EMPTY ) );
+
+    assertTrue( ex.getCause() instanceof ScriptException );
+    assertEquals( "2", eval( pool, "1 + 1", History.EMPTY ) );
+  }
+
+  private static String eval(
+    final REnginePool pool, final String statement, final History history ) {
+    return pool.submit( statement, history, identity(), null ).join();
+  }
+}
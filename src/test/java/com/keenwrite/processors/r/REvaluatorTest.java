@@ -0,0 +1,260 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.r;
+
+import com.keenwrite.AwaitFxExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.SimpleBindings;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+import static com.keenwrite.processors.r.RResultCache.digest;
+import static java.util.Collections.frequency;
+import static java.util.Collections.synchronizedList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link REvaluator} substitutes the R statements that have been
+ * evaluated without waiting for those that have not, and notifies only the
+ * most recent caller when they have.
+ */
+@ExtendWith( AwaitFxExtension.class )
+public class REvaluatorTest {
+  /**
+   * Keys results by statement, as though no statement referenced any
+   * definitions or files.
+   */
+  private static final Function<List<String>, List<String>> KEYS =
+    statements -> statements.stream().map( r -> digest( r ) )
+                            .collect( toList() );
+
+  /**
+   * Evaluates every statement to itself, having an equals sign prepended,
+   * once the gate for the statement, if any, is opened.
+   */
+  private static final class GateEngine extends AbstractScriptEngine {
+    private final Map<String, CountDownLatch> mGates;
+    private final List<String> mEvaluated;
+
+    private GateEngine(
+      final Map<String, CountDownLatch> gates, final List<String> evaluated ) {
+      mGates = gates;
+      mEvaluated = evaluated;
+    }
+
+    @Override
+    public Object eval( final String script, final ScriptContext context ) {
+      final var gate = mGates.get( script );
+
+      try {
+        if( gate != null && !gate.await( 5, SECONDS ) ) {
+          throw new IllegalStateException( "Gate not opened: " + script );
+        }
+      } catch( final InterruptedException ex ) {
+        throw new IllegalStateException( ex );
+      }
+
+      mEvaluated.add( script );
+      return '=' + script;
+    }
+
+    @Override
+    public Object eval( final Reader reader, final ScriptContext context ) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Bindings createBindings() {
+      return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+      return null;
+    }
+  }
+
+  private final Map<String, CountDownLatch> mGates =
+    new ConcurrentHashMap<>();
+  private final List<String> mEvaluated =
+    synchronizedList( new ArrayList<>() );
+  private RResultCache mCache;
+
+  /**
+   * Finishes writing results before their directory is deleted.
+   */
+  @AfterEach
+  public void flush() {
+    mCache.flush();
+  }
+
+  /**
+   * Test that fragments having statements being evaluated are {@code null},
+   * that the caller is told once they have been evaluated, and that their
+   * values are substituted thereafter.
+   */
+  @Test
+  public void test_Apply_PendingStatements_NullFragments(
+    @TempDir final Path dir ) throws InterruptedException {
+    final var evaluator = createEvaluator( dir, 5000 );
+    final var gate = close( "slow" );
+    final var completed = new Semaphore( 0 );
+    final var texts = List.of( "a `r#slow` b", "plain", "c `r#1`" );
+
+    // The only engine is evaluating the first statement.
+    assertEquals(
+      Arrays.asList( null, "plain", null ),
+      evaluator.apply( texts, KEYS, completed::release ) );
+
+    gate.countDown();
+    assertTrue( completed.tryAcquire( 5, SECONDS ) );
+
+    assertEquals(
+      List.of( "a =slow b", "plain", "c =1" ),
+      evaluator.apply( texts, KEYS, completed::release ) );
+    assertFalse( completed.tryAcquire( 100, MILLISECONDS ) );
+  }
+
+  /**
+   * Test that a call superseded by a subsequent call is not told that its
+   * statements have been evaluated.
+   */
+  @Test
+  public void test_Apply_SupersededCall_NotNotified(
+    @TempDir final Path dir ) throws InterruptedException {
+    final var evaluator = createEvaluator( dir, 5000 );
+    final var gate = close( "slow" );
+    final var superseded = new Semaphore( 0 );
+    final var completed = new Semaphore( 0 );
+    final var texts = List.of( "`r#slow`" );
+
+    evaluator.apply( texts, KEYS, superseded::release );
+    evaluator.apply( texts, KEYS, completed::release );
+
+    gate.countDown();
+    assertTrue( completed.tryAcquire( 5, SECONDS ) );
+    drain( evaluator );
+
+    assertEquals( 0, superseded.availablePermits() );
+  }
+
+  /**
+   * Test that statements absent from a subsequent call, because the text
+   * containing them changed, are not evaluated.
+   */
+  @Test
+  public void test_Apply_VanishedStatements_Cancelled(
+    @TempDir final Path dir ) throws InterruptedException {
+    final var evaluator = createEvaluator( dir, 5000 );
+    final var gate = close( "slow" );
+    final var completed = new Semaphore( 0 );
+
+    evaluator.apply(
+      List.of( "`r#slow`", "`r#gone`" ), KEYS, completed::release );
+    evaluator.apply( List.of( "`r#slow`" ), KEYS, completed::release );
+
+    gate.countDown();
+    assertTrue( completed.tryAcquire( 5, SECONDS ) );
+    drain( evaluator );
+
+    assertEquals( List.of( "slow", "drain" ), mEvaluated );
+  }
+
+  /**
+   * Test that statements being evaluated for a previous call, or repeated
+   * within a call, are evaluated once.
+   */
+  @Test
+  public void test_Apply_InFlightStatements_EvaluatedOnce(
+    @TempDir final Path dir ) throws InterruptedException {
+    final var evaluator = createEvaluator( dir, 5000 );
+    final var gate = close( "slow" );
+    final var completed = new Semaphore( 0 );
+    final var texts = List.of( "`r#slow` `r#slow`", "`r#slow`" );
+
+    evaluator.apply( texts, KEYS, completed::release );
+    evaluator.apply( texts, KEYS, completed::release );
+
+    gate.countDown();
+    assertTrue( completed.tryAcquire( 5, SECONDS ) );
+
+    assertEquals(
+      List.of( "=slow =slow", "=slow" ), evaluator.apply( texts, KEYS, null ) );
+    assertEquals( 1, frequency( mEvaluated, "slow" ) );
+  }
+
+  /**
+   * Test that a statement taking too long to wait for is shown as having no
+   * value, and that the caller is told again once its value arrives.
+   */
+  @Test
+  public void test_Apply_OverdueStatement_NotifiedAgain(
+    @TempDir final Path dir ) throws InterruptedException {
+    final var evaluator = createEvaluator( dir, 50 );
+    final var gate = close( "slow" );
+    final var completed = new Semaphore( 0 );
+    final var texts = List.of( "a `r#slow` b" );
+
+    assertEquals(
+      Arrays.asList( (String) null ),
+      evaluator.apply( texts, KEYS, completed::release ) );
+    assertTrue( completed.tryAcquire( 5, SECONDS ) );
+
+    assertEquals(
+      List.of( "a  b" ), evaluator.apply( texts, KEYS, completed::release ) );
+
+    gate.countDown();
+    assertTrue( completed.tryAcquire( 5, SECONDS ) );
+
+    assertEquals(
+      List.of( "a =slow b" ),
+      evaluator.apply( texts, KEYS, completed::release ) );
+  }
+
+  /**
+   * Creates an evaluator having a single engine, so that statements are
+   * evaluated in the order submitted.
+   */
+  private REvaluator createEvaluator( final Path dir, final long timeout ) {
+    final var pool = new REnginePool(
+      () -> new GateEngine( mGates, mEvaluated ), 1, timeout );
+
+    mCache = new RResultCache( dir );
+    return new REvaluator( pool, mCache, identity() );
+  }
+
+  private CountDownLatch close( final String statement ) {
+    final var gate = new CountDownLatch( 1 );
+    mGates.put( statement, gate );
+    return gate;
+  }
+
+  /**
+   * Waits for a statement submitted after all others, so that notifications
+   * for the statements submitted before it have been sent.
+   */
+  private static void drain( final REvaluator evaluator ) {
+    assertEquals(
+      List.of( "=drain" ),
+      evaluator.apply( List.of( "`r#drain`" ), KEYS, null ) );
+  }
+}
@@ -0,0 +1,136 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.r;
+
+import com.keenwrite.editors.definition.Definitions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static com.keenwrite.processors.r.RResultCache.digest;
+import static java.nio.file.attribute.FileTime.fromMillis;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests that {@link RResultCache} keeps results between instances, notices
+ * changes to the files that statements read, and keys results by only the
+ * definitions that statements depend upon.
+ */
+public class RResultCacheTest {
+  private static final List<String> STATEMENTS =
+    List.of( "x <- v$a", "x + 1", "paste( v$b )" );
+
+  /**
+   * Test that a result stored by one cache is found by another cache that
+   * uses the same directory, as happens after restarting.
+   */
+  @Test
+  public void test_Get_NewInstance_ResultFound( @TempDir final Path dir ) {
+    final var key = digest( "x <- 1", "x + 1" );
+    final var cache = new RResultCache( dir );
+
+    assertNull( cache.get( key ) );
+
+    cache.put( key, "2" );
+    cache.flush();
+
+    assertEquals( "2", new RResultCache( dir ).get( key ) );
+    assertNull( cache.get( digest( "x <- 1", "x + 2" ) ) );
+  }
+
+  /**
+   * Test that only literals naming files contribute to the fingerprint, and
+   * that changing a file's contents changes the fingerprint.
+   */
+  @Test
+  public void test_Fingerprint_FileChanged_FingerprintChanged(
+    @TempDir final Path dir ) throws Exception {
+    final var cache = new RResultCache( dir.resolve( "cache" ) );
+    final var csv = dir.resolve( "data.csv" );
+    final var r = "csv2md( 'data.csv', total = \"missing.csv\" )";
+
+    assertEquals( "", cache.fingerprint( r, dir ) );
+
+    Files.writeString( csv, "a,b\n1,2\n" );
+    final var original = cache.fingerprint( r, dir );
+
+    Files.writeString( csv, "a,b\n1,3\n" );
+    Files.setLastModifiedTime( csv, fromMillis( 0 ) );
+    final var changed = cache.fingerprint( r, dir );
+
+    assertNotEquals( "", original );
+    assertNotEquals( original, changed );
+    assertEquals( changed, cache.fingerprint( r, dir ) );
+  }
+
+  /**
+   * Test that changing a definition changes the keys of the statements that
+   * reference it, and of the statements that follow a state-changing
+   * statement that references it, but no others.
+   */
+  @Test
+  public void test_Keys_DefinitionChanged_DependentsRekeyed(
+    @TempDir final Path dir ) {
+    final var cache = new RResultCache( dir.resolve( "cache" ) );
+    final var definitions = Definitions.of( Map.of() );
+    final var original = cache.keys(
+      "", STATEMENTS, references( "1", "2" ), definitions, dir );
+    final var b = cache.keys(
+      "", STATEMENTS, references( "1", "3" ), definitions, dir );
+    final var a = cache.keys(
+      "", STATEMENTS, references( "4", "2" ), definitions, dir );
+
+    assertEquals( original.get( 0 ), b.get( 0 ) );
+    assertEquals( original.get( 1 ), b.get( 1 ) );
+    assertNotEquals( original.get( 2 ), b.get( 2 ) );
+
+    assertNotEquals( original.get( 0 ), a.get( 0 ) );
+    assertNotEquals( original.get( 1 ), a.get( 1 ) );
+    assertNotEquals( original.get( 2 ), a.get( 2 ) );
+  }
+
+  /**
+   * Test that changing a definition that no statement references keeps the
+   * keys when references are known, and changes every key when references
+   * are unknown or misaligned with the statements.
+   */
+  @Test
+  public void test_Keys_UnrelatedDefinitionChanged_KeysKeptIfKnown(
+    @TempDir final Path dir ) {
+    final var cache = new RResultCache( dir.resolve( "cache" ) );
+    final var before = Definitions.of( Map.of( "v$z", "'1'" ) );
+    final var after = Definitions.of( Map.of( "v$z", "'2'" ) );
+    final var references = references( "1", "2" );
+    final var misaligned = references.subList( 0, 2 );
+
+    assertEquals(
+      cache.keys( "", STATEMENTS, references, before, dir ),
+      cache.keys( "", STATEMENTS, references, after, dir ) );
+
+    final var unknown = cache.keys( "", STATEMENTS, null, before, dir );
+    final var changed = cache.keys( "", STATEMENTS, null, after, dir );
+
+    assertEquals(
+      unknown, cache.keys( "", STATEMENTS, misaligned, before, dir ) );
+    assertEquals(
+      changed, cache.keys( "", STATEMENTS, misaligned, after, dir ) );
+
+    for( var i = 0; i < STATEMENTS.size(); i++ ) {
+      assertNotEquals( unknown.get( i ), changed.get( i ) );
+    }
+  }
+
+  /**
+   * Returns the variables referenced by {@link #STATEMENTS}, given values
+   * for the two variables.
+   */
+  private static List<Map<String, String>> references(
+    final String a, final String b ) {
+    return List.of( Map.of( "v$a", a ), Map.of(), Map.of( "v$b", b ) );
+  }
+}
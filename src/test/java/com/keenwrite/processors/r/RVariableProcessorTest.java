@@ -0,0 +1,51 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.r;
+
+import com.keenwrite.editors.definition.Definitions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.keenwrite.processors.r.RVariableProcessor.reference;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that {@link RVariableProcessor} records the variables that each R
+ * statement references.
+ */
+public class RVariableProcessorTest {
+  private static final Definitions DEFINITIONS = Definitions.of( Map.of(
+    "v$a", "'A'",
+    "v$a$b", "'B'",
+    "v$c", "'C'",
+    "v$unused", "'U'"
+  ) );
+
+  /**
+   * Test that bound variables are recorded with their values, including
+   * definitions named by a prefix of a variable, and that only referenced
+   * definitions are recorded.
+   */
+  @Test
+  public void test_Reference_BoundVariables_Recorded() {
+    assertEquals(
+      Map.of( "v$a", "'A'", "v$a$b", "'B'", "v$c", "'C'" ),
+      reference( "paste( v$a$b, v$c )", DEFINITIONS ) );
+    assertEquals( Map.of(), reference( "x + 1", DEFINITIONS ) );
+  }
+
+  /**
+   * Test that unbound variables are recorded without values, because
+   * defining them would change the statement.
+   */
+  @Test
+  public void test_Reference_UnboundVariables_Recorded() {
+    final var expected = new HashMap<String, String>();
+    expected.put( "v$c", "'C'" );
+    expected.put( "v$missing$leaf", null );
+
+    assertEquals(
+      expected, reference( "v$c + v$missing$leaf + v$", DEFINITIONS ) );
+  }
+}
@@ -0,0 +1,37 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.text;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that {@link AhoCorasickReplacer} reuses compiled tries only while
+ * the definitions' keys remain unchanged.
+ */
+public class AhoCorasickReplacerTest {
+  /**
+   * Test that changed values and changed keys are both reflected in the
+   * replaced text when the same map is modified between calls.
+   */
+  @Test
+  public void test_Replace_ModifiedMap_ReflectsChanges() {
+    final var replacer = new AhoCorasickReplacer();
+    final var map = new HashMap<String, String>();
+    map.put( "$a$", "1" );
+    map.put( "$b$", "2" );
+
+    assertEquals( "1 2 $c$", replacer.replace( "$a$ $b$ $c$", map ) );
+
+    map.put( "$a$", "3" );
+    assertEquals( "3 2 $c$", replacer.replace( "$a$ $b$ $c$", map ) );
+
+    map.put( "$c$", "4" );
+    assertEquals( "3 2 4", replacer.replace( "$a$ $b$ $c$", map ) );
+
+    map.remove( "$b$" );
+    assertEquals( "3 $b$ 4", replacer.replace( "$a$ $b$ $c$", map ) );
+  }
+}
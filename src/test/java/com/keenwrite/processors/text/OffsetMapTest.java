@@ -0,0 +1,46 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.text;
+
+import com.keenwrite.sigils.Tokens;
+import javafx.beans.property.SimpleStringProperty;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests that {@link OffsetMap} translates offsets across replacements.
+ */
+public class OffsetMapTest {
+  private static final Tokens TOKENS = new Tokens(
+    new SimpleStringProperty( "{{" ), new SimpleStringProperty( "}}" ) );
+
+  /**
+   * Test that offsets before, within, between, and after replaced spans
+   * are translated in both directions.
+   */
+  @Test
+  public void test_Translate_ReplacedSpans_OffsetsShifted() {
+    final var src = "ab {{long}} cd {{x}} ef";
+    final var offsets = new OffsetMap.Builder();
+    final var replacer = new SigilReplacer( TOKENS );
+    final var out = replacer.replace(
+      src, Map.of( "{{long}}", "L", "{{x}}", "XXXXXXX" ), offsets );
+    final var map = offsets.build();
+
+    assertEquals( "ab L cd XXXXXXX ef", out );
+    assertEquals( 2, map.size() );
+
+    for( final var word : new String[]{"ab", "cd", "ef"} ) {
+      assertEquals( src.indexOf( word ), map.toSource( out.indexOf( word ) ) );
+      assertEquals( out.indexOf( word ), map.toOutput( src.indexOf( word ) ) );
+    }
+
+    // Within a replacement, offsets map to the start of the replaced span.
+    final var within = out.indexOf( "X" ) + 3;
+    assertEquals( src.indexOf( "{{x}}" ), map.toSource( within ) );
+    assertEquals( out.indexOf( "L" ), map.toOutput( src.indexOf( "long" ) ) );
+    assertEquals( 5, OffsetMap.IDENTITY.toSource( 5 ) );
+  }
+}
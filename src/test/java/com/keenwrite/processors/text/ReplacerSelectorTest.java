@@ -0,0 +1,68 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.text;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link ReplacerSelector} chooses the cheapest replacer.
+ */
+public class ReplacerSelectorTest {
+  /**
+   * Test that unmeasured replacers are tried, then the cheapest replacer is
+   * chosen and reported.
+   */
+  @Test
+  public void test_Select_MeasuredCosts_ChoosesCheapest() {
+    final var slow = new StringUtilsReplacer();
+    final var fast = new AhoCorasickReplacer();
+    final var selector = new ReplacerSelector( slow, fast );
+
+    assertSame( slow, selector.select( 100, 10 ) );
+    selector.record( slow, 100, 10, 10_000 );
+
+    assertSame( fast, selector.select( 100, 10 ) );
+    selector.record( fast, 100, 10, 1_000 );
+
+    assertSame( fast, selector.select( 100, 10 ) );
+
+    final var decisions = selector.getDecisions();
+    assertEquals( 1, decisions.size() );
+    assertEquals( "AhoCorasickReplacer", decisions.get( 0 ).getReplacer() );
+    assertEquals( 2, decisions.get( 0 ).getCosts().size() );
+  }
+
+  /**
+   * Test that long texts with many keys are never used for exploration.
+   */
+  @Test
+  public void test_Select_LargeWork_UsesThreshold() {
+    final var slow = new StringUtilsReplacer();
+    final var fast = new AhoCorasickReplacer();
+    final var selector = new ReplacerSelector( slow, fast );
+
+    assertSame( fast, selector.select( 1 << 20, 5000 ) );
+    assertTrue( selector.getDecisions().isEmpty() );
+  }
+
+  /**
+   * Test that calibration measures every replacer and both produce the
+   * same replacements.
+   */
+  @Test
+  public void test_Calibrate_AllReplacers_Measured() {
+    final var selector = new ReplacerSelector(
+      new StringUtilsReplacer(), new AhoCorasickReplacer() );
+    selector.calibrate();
+
+    for( final var decision : selector.getDecisions() ) {
+      assertEquals( 2, decision.getCosts().size(), decision.toString() );
+    }
+
+    final var map = Map.of( "{{a}}", "1" );
+    assertEquals( "1.", TextReplacementFactory.replace( "{{a}}.", map ) );
+  }
+}
@@ -0,0 +1,127 @@
+/* Copyright 2020-2021 White Magic Software, Ltd. -- All rights reserved. */
+package com.keenwrite.processors.text;
+
+import com.keenwrite.editors.definition.Definitions;
+import com.keenwrite.sigils.Tokens;
+import javafx.beans.property.SimpleStringProperty;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.keenwrite.processors.text.SigilReplacer.split;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests that {@link SigilReplacer} replaces delimited definition keys.
+ */
+public class SigilReplacerTest {
+  private static final Tokens TOKENS = new Tokens(
+    new SimpleStringProperty( "{{" ), new SimpleStringProperty( "}}" ) );
+
+  /**
+   * Test that keys are replaced wherever they appear, including adjacent
+   * keys, keys nested in unknown keys, and keys at either end of the text.
+   */
+  @Test
+  public void test_Replace_DelimitedKeys_Replaced() {
+    final var replacer = new SigilReplacer( TOKENS );
+    final var map = Map.of( "{{a}}", "1", "{{b.c}}", "2" );
+
+    assertEquals( "1 2", replacer.replace( "{{a}} {{b.c}}", map ) );
+    assertEquals( "12", replacer.replace( "{{a}}{{b.c}}", map ) );
+    assertEquals( "{{x1", replacer.replace( "{{x{{a}}", map ) );
+    assertEquals( "{{z}} {{a", replacer.replace( "{{z}} {{a", map ) );
+  }
+
+  /**
+   * Test that text without known keys is returned as the same instance.
+   */
+  @Test
+  public void test_Replace_NoKeys_SameInstance() {
+    final var replacer = new SigilReplacer( TOKENS );
+    final var text = "{{z}} and {{";
+
+    assertSame( text, replacer.replace( text, Map.of( "{{a}}", "1" ) ) );
+  }
+
+  /**
+   * Test that replacing a text divided among threads produces the same
+   * result as replacing it in one piece.
+   */
+  @Test
+  public void test_Replace_LargeText_SameAsSequential() {
+    final var sequential = new SigilReplacer( TOKENS, 1, 0 );
+    final var parallel = new SigilReplacer( TOKENS, 4, 0 );
+    final var map = Map.of( "{{a}}", "1", "{{b.c}}", "22" );
+    final var text = new StringBuilder();
+    final var expected = new StringBuilder();
+
+    for( var i = 0; i < 100_000; i++ ) {
+      text.append( "Line {{a}} has {{b.c}} and {{z}} " ).append( i );
+      text.append( '\n' );
+      expected.append( "Line 1 has 22 and {{z}} " ).append( i );
+      expected.append( '\n' );
+    }
+
+    assertEquals(
+      expected.toString(), sequential.replace( text.toString(), map ) );
+    assertEquals(
+      expected.toString(), parallel.replace( text.toString(), map ) );
+
+    // Only sequential replacements are measured.
+    assertNotEquals( 0, sequential.getCost() );
+    assertEquals( 0, parallel.getCost() );
+  }
+
+  /**
+   * Test that texts are divided immediately after newlines, so that no key
+   * is divided, and that texts lacking newlines end in empty chunks.
+   */
+  @Test
+  public void test_Split_Newlines_ChunksEndAfterNewlines() {
+    final var text = "{{a}}\n{{b}}\n{{c}}\n{{d}}\n";
+
+    // Each chunk ends after the first newline past its share of the text.
+    assertArrayEquals( new int[]{ 0, 12, 18, 24, 24 }, split( text, 4 ) );
+    assertArrayEquals( new int[]{ 0, 18, 24 }, split( text, 2 ) );
+    assertArrayEquals( new int[]{ 0, 24 }, split( text, 1 ) );
+    assertArrayEquals( new int[]{ 0, 5, 5 }, split( "{{a}}", 2 ) );
+  }
+
+  /**
+   * Test that keys without sigils, such as R variables, are still replaced
+   * and that changed keys are detected.
+   */
+  @Test
+  public void test_Replace_UndelimitedKeys_Replaced() {
+    final var replacer = new SigilReplacer( TOKENS );
+    final var map = new HashMap<String, String>();
+    map.put( "{{a}}", "1" );
+
+    assertEquals( "1 v$a", replacer.replace( "{{a}} v$a", map ) );
+
+    map.put( "v$a", "'2'" );
+    assertEquals( "1 '2'", replacer.replace( "{{a}} v$a", map ) );
+  }
+
+  /**
+   * Test that snapshots of definitions having the same keys but different
+   * values, or different keys, are replaced using their own values.
+   */
+  @Test
+  public void test_Replace_Snapshots_CurrentValues() {
+    final var replacer = new SigilReplacer( TOKENS );
+    final var initial = Definitions.of( Map.of( "{{a}}", "1" ) );
+    final var changed = initial.with( Map.of( "{{a}}", "2" ) );
+    final var added = changed.with( Map.of( "{{b}}", "3" ) );
+
+    assertEquals( "1 {{b}}", replacer.replace( "{{a}} {{b}}", initial ) );
+    assertEquals( "2 {{b}}", replacer.replace( "{{a}} {{b}}", changed ) );
+    assertEquals( "2 3", replacer.replace( "{{a}} {{b}}", added ) );
+    assertEquals( "1 {{b}}", replacer.replace( "{{a}} {{b}}", initial ) );
+  }
+}